@@ -0,0 +1,82 @@
+package io.github.sorbose.lbtrade.bench;
+
+import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.backtest.BacktestData;
+import io.github.sorbose.lbtrade.backtest.SimulatedExchange;
+import io.github.sorbose.lbtrade.trade.Agent;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 真实的Agent在SimulatedExchange上逐个报价决策的耗时：每次调用回放一个交易日，
+ * 每个报价从推送、dispatcher、拉取K线和资产缓存、策略判断到下单都走Agent的完整路径，
+ * 回放用屏障等Agent处理完一个报价再推送下一个，结果为平均每个报价的耗时。
+ * 交易所和Agent每次调用新建，不计入耗时；数据只生成一次
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AgentDecisionBenchmark {
+    private static final int SYMBOLS = 4;
+    /** 前两个交易日作为拉取K线时的历史数据，回放第三个交易日 */
+    private static final int HISTORY_DAYS = 2;
+    /** 每根K线4个报价 */
+    private static final int TICKS = SYMBOLS * SyntheticCandles.MINUTES_PER_DAY * 4;
+
+    private BacktestData data;
+    private LocalDateTime begin;
+    private SimulatedExchange exchange;
+    private Agent agent;
+
+    @Setup(Level.Trial)
+    public void setUpData() {
+        Map<String, List<Candlestick>> candlesticksMap = new HashMap<>();
+        for (int i = 0; i < SYMBOLS; i++) {
+            candlesticksMap.put("SYN" + i + ".US", SyntheticCandles.generate(HISTORY_DAYS + 1, 7 + i));
+        }
+        data = BacktestData.of(candlesticksMap, FixedPoint.DEFAULT_SCALE);
+        begin = data.get("SYN0.US").localDateTime(HISTORY_DAYS * SyntheticCandles.MINUTES_PER_DAY);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpAgent() throws InterruptedException {
+        exchange = new SimulatedExchange(data, begin, null, 0, new BigDecimal("100000"), new BigDecimal("500000"));
+        agent = new Agent(exchange, exchange, exchange.symbols(),
+                new BigDecimal("0.015"), new BigDecimal("0.015"), new BigDecimal("0"),
+                new int[]{2, 1}, new BigDecimal[]{new BigDecimal("99.25"), new BigDecimal("99.5")},
+                new int[]{-1, -1}, 2, new BigDecimal("0.1"), new BigDecimal("102"), new BigDecimal("102"), false,
+                new BigDecimal("7"), new BigDecimal("7"), new BigDecimal("3"), 70, 30);
+        agent.prepare(300);
+        agent.runBySubscribe();
+        Agent current = agent;
+        exchange.setBarrier(() -> {
+            if (!current.awaitIdle(30, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Agent still busy after 30 s");
+            }
+        });
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownAgent() {
+        agent.stop();
+        exchange.close();
+    }
+
+    /** 回放一个交易日，每个报价一次决策 */
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public BigDecimal tick() throws InterruptedException {
+        exchange.run();
+        return exchange.cash();
+    }
+}
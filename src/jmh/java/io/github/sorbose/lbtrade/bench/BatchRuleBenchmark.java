@@ -0,0 +1,81 @@
+package io.github.sorbose.lbtrade.bench;
+
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.strategy.SimpleRule;
+import io.github.sorbose.lbtrade.strategy.SimpleRuleBatch;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次判断整个关注列表的耗时：逐个股票调用SimpleRule，与SimpleRuleBatch对快照做一次判断相比。
+ * 快照在Setup中填好，只测量判断本身
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchRuleBenchmark {
+    private static final int MINUTES = SyntheticCandles.MINUTES_PER_DAY;
+
+    @Param({"100", "500"})
+    public int symbols;
+
+    private CandleSeries[] series;
+    private String[] names;
+    private long[] lastPrice;
+    private long[] buyingPrice;
+    private SimpleRule rule;
+    private SimpleRuleBatch batch;
+    private SimpleRuleBatch.Snapshot snapshot;
+    private long[] signals;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        rule = new SimpleRule(new HashMap<>(), new int[]{3, 1}, new BigDecimal[]{new BigDecimal("98"), new BigDecimal("99")},
+                new int[]{-1, -1}, 2, new BigDecimal("0.1"), new BigDecimal("102"), new BigDecimal("102"));
+        series = new CandleSeries[symbols];
+        names = new String[symbols];
+        lastPrice = new long[symbols];
+        buyingPrice = new long[symbols];
+        for (int s = 0; s < symbols; s++) {
+            series[s] = SyntheticCandles.series(1, s);
+            names[s] = "SYN" + s + ".US";
+            lastPrice[s] = series[s].low(MINUTES - 1);
+            buyingPrice[s] = series[s].close(MINUTES / 2);
+        }
+        batch = new SimpleRuleBatch(rule, series[0].scale());
+        snapshot = batch.newSnapshot(symbols);
+        snapshot.setSize(symbols);
+        for (int s = 0; s < symbols; s++) {
+            snapshot.setQuote(s, series[s], MINUTES, lastPrice[s]);
+            snapshot.setPosition(s, buyingPrice[s], series[s].high(MINUTES - 1));
+        }
+        signals = SimpleRuleBatch.newSignals(symbols);
+    }
+
+    @Benchmark
+    public int buyPerSymbol() {
+        int count = 0;
+        for (int s = 0; s < symbols; s++) {
+            if (rule.shouldBuy(series[s], MINUTES, names[s], lastPrice[s])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int buyBatch() {
+        return batch.buySignals(snapshot, signals);
+    }
+
+    @Benchmark
+    public int sellBatch() {
+        return batch.sellSignals(snapshot, true, signals);
+    }
+}
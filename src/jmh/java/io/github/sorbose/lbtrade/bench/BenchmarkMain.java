@@ -0,0 +1,25 @@
+package io.github.sorbose.lbtrade.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 运行基准测试并附带GC分析器，报告每次调用分配的字节数（gc.alloc.rate.norm）。
+ * 用法：mvn -P jmh package && java -jar target/benchmarks.jar [类名或方法名的正则...]，
+ * 不带参数时运行全部基准测试
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder builder = new OptionsBuilder().addProfiler(GCProfiler.class);
+        if (args.length == 0) {
+            builder.include(BenchmarkMain.class.getPackage().getName() + ".*Benchmark");
+        }
+        for (String regex : args) {
+            builder.include(regex);
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,147 @@
+package io.github.sorbose.lbtrade.bench;
+
+import io.github.sorbose.lbtrade.backtest.IndicatorCache;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.strategy.LineStrategy;
+import io.github.sorbose.lbtrade.strategy.SimpleRule;
+import io.github.sorbose.lbtrade.strategy.SimpleRuleBatch;
+
+import java.math.BigDecimal;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * 优化后的实现与逐行参考实现的对照检查，数据由SyntheticCandles.randomWalk生成。
+ * 任何一项结果不一致时抛出AssertionError，全部一致时输出每项检查的判断次数
+ */
+public final class CrossCheck {
+    private CrossCheck() {
+    }
+
+    public static void main(String[] args) {
+        simpleRuleBatch();
+        lineStrategy();
+        indicatorCache();
+    }
+
+    /** SimpleRuleBatch一次判断多个股票，与逐个股票调用SimpleRule对照 */
+    static void simpleRuleBatch() {
+        int symbols = 500;
+        int minutes = 600;
+        SimpleRule rule = new SimpleRule(new HashMap<>(), new int[]{2, 1},
+                new BigDecimal[]{new BigDecimal("99.9"), new BigDecimal("99.8")}, new int[]{-1, 1}, 2,
+                new BigDecimal("0.1"), new BigDecimal("102"), new BigDecimal("98"));
+        CandleSeries[] series = new CandleSeries[symbols];
+        for (int s = 0; s < symbols; s++) {
+            series[s] = SyntheticCandles.randomWalk(minutes, 42 + s, 2000);
+        }
+        SimpleRuleBatch batch = new SimpleRuleBatch(rule, series[0].scale());
+        SimpleRuleBatch.Snapshot snapshot = batch.newSnapshot(symbols);
+        snapshot.setSize(symbols);
+        long[] buys = SimpleRuleBatch.newSignals(symbols);
+        long[] sells = SimpleRuleBatch.newSignals(symbols);
+        Random random = new Random(42);
+        int buyCount = 0;
+        int sellCount = 0;
+        for (int m = 10; m < minutes; m++) {
+            for (int s = 0; s < symbols; s++) {
+                long last = series[s].close(m) + random.nextInt(3001) - 1500;
+                snapshot.setQuote(s, series[s], m, last);
+                long highest = 0;
+                for (int k = m - 5; k < m; k++) {
+                    highest = Math.max(highest, series[s].high(k));
+                }
+                snapshot.setPosition(s, s % 3 == 0 ? 0 : series[s].close(m - 5), highest);
+            }
+            boolean stopLoss = (m & 1) == 0;
+            batch.buySignals(snapshot, buys);
+            batch.sellSignals(snapshot, stopLoss, sells);
+            for (int s = 0; s < symbols; s++) {
+                long last = snapshot.lastPrice[s];
+                boolean buy = rule.shouldBuy(series[s], m, "S" + s, last);
+                check(buy == SimpleRuleBatch.isSet(buys, s), "SimpleRuleBatch buy", s, m);
+                long buying = snapshot.buyingPrice[s];
+                boolean sell = buying > 0 && rule.shouldSellAt(series[s], m - 5, m, buying, last, stopLoss);
+                check(sell == SimpleRuleBatch.isSet(sells, s), "SimpleRuleBatch sell", s, m);
+                buyCount += buy ? 1 : 0;
+                sellCount += sell ? 1 : 0;
+            }
+        }
+        nonTrivial("SimpleRuleBatch buy", buyCount);
+        nonTrivial("SimpleRuleBatch sell", sellCount);
+        System.out.println("SimpleRuleBatch: " + symbols * (minutes - 10) + " symbol-minutes agree, "
+                + buyCount + " buys, " + sellCount + " sells");
+    }
+
+    /**
+     * LineStrategy的上凸包判断与逐根扫描对照：回测时series不断增长，实盘时每次传入最近的一段K线，两种用法都要一致
+     */
+    static void lineStrategy() {
+        int[] observationMinute = new int[]{390, 120, 30, 5};
+        int minutes = 20_000;
+        int window = 400;
+        CandleSeries series = SyntheticCandles.randomWalk(minutes, 7, 2000);
+        LineStrategy backtest = new LineStrategy(observationMinute, null);
+        LineStrategy live = new LineStrategy(observationMinute, null);
+        CandleSeries recent = new CandleSeries(window, series.scale(), ZoneOffset.UTC);
+        Random random = new Random(7);
+        int buys = 0;
+        for (int end = 1; end <= minutes; end++) {
+            // 偶尔大幅拉升，使买入条件有机会成立
+            long last = series.close(end - 1) + (random.nextInt(10) == 0 ? random.nextInt(100_000) : random.nextInt(2001) - 1000);
+            boolean byScan = LineStrategy.shouldBuyByScan(observationMinute, series, end, last);
+            check(backtest.shouldBuy(series, end, "SYN", last) == byScan, "LineStrategy growing series", 0, end);
+            recent.clear();
+            for (int row = Math.max(0, end - window); row < end; row++) {
+                recent.append(series.time(row), series.open(row), series.high(row), series.low(row), series.close(row), series.volume(row));
+            }
+            check(live.shouldBuy(recent, recent.size(), "SYN", last) == byScan, "LineStrategy recent window", 0, end);
+            buys += byScan ? 1 : 0;
+        }
+        nonTrivial("LineStrategy buy", buys);
+        System.out.println("LineStrategy: " + minutes + " ticks agree, " + buys + " buys");
+    }
+
+    /**
+     * IndicatorCache的买入信号与逐行调用SimpleRule.shouldBuyAt对照，写法不同但数值相同的百分比要命中同一列
+     */
+    static void indicatorCache() {
+        int minutes = 100_000;
+        CandleSeries series = SyntheticCandles.randomWalk(minutes, 3, 2000);
+        int[] observationMinute = new int[]{3, 1};
+        int[] higherThanExpected = new int[]{-1, -1};
+        SimpleRule rule = new SimpleRule(new HashMap<>(), observationMinute,
+                new BigDecimal[]{new BigDecimal("99.8"), new BigDecimal("99.90")}, higherThanExpected, 2,
+                BigDecimal.ZERO, new BigDecimal("102"), new BigDecimal("98"));
+        IndicatorCache cache = new IndicatorCache(IndicatorCache.DEFAULT_MAX_BYTES);
+        long[] signals = cache.buySignals("SYN", series, observationMinute,
+                new BigDecimal[]{new BigDecimal("99.8"), new BigDecimal("99.90")}, higherThanExpected, 2);
+        long[] again = cache.buySignals("SYN", series, observationMinute,
+                new BigDecimal[]{new BigDecimal("99.80"), new BigDecimal("99.9")}, higherThanExpected, 2);
+        if (again != signals) {
+            throw new AssertionError("IndicatorCache recomputed equal percentages: " + cache);
+        }
+        int buys = 0;
+        for (int row = 0; row < minutes; row++) {
+            boolean buy = rule.shouldBuyAt(series, row, series.low(row));
+            check(SimpleRuleBatch.isSet(signals, row) == buy, "IndicatorCache buy signal", 0, row);
+            buys += buy ? 1 : 0;
+        }
+        nonTrivial("IndicatorCache buy", buys);
+        System.out.println("IndicatorCache: " + minutes + " rows agree, " + buys + " buys, " + cache);
+    }
+
+    private static void check(boolean agree, String what, int symbol, int row) {
+        if (!agree) {
+            throw new AssertionError(what + " mismatch at symbol " + symbol + ", row " + row);
+        }
+    }
+
+    /** 信号从不成立（或总是成立）时对照没有意义 */
+    private static void nonTrivial(String what, int count) {
+        if (count == 0) {
+            throw new AssertionError(what + " never fired, the check is vacuous");
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.sorbose.lbtrade.bench;
+
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.strategy.LineStrategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LineStrategy的单次买入判断，与逐根扫描中间K线相比。每次调用当前分钟向后移动一分钟，模拟逐分钟回测；
+ * 现价比最后一根K线的最高价高1%，使判断经常需要检查中间的K线
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LineStrategyBenchmark {
+    private static final String SYMBOL = "SYN.US";
+
+    /** 最远的观测点，分钟 */
+    @Param({"30", "390", "1950"})
+    public int maxObservationMinute;
+
+    private CandleSeries series;
+    private int[] observationMinute;
+    private LineStrategy strategy;
+    private int now;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        series = SyntheticCandles.series(20, 42);
+        observationMinute = new int[]{maxObservationMinute, maxObservationMinute / 3, 5};
+        strategy = new LineStrategy(observationMinute, null);
+        now = maxObservationMinute;
+    }
+
+    /** 当前分钟前移一分钟，到末尾后从头开始 */
+    private int nextNow() {
+        now++;
+        if (now > series.size()) {
+            now = maxObservationMinute;
+        }
+        return now;
+    }
+
+    @Benchmark
+    public boolean shouldBuyByHull() {
+        int end = nextNow();
+        long high = series.high(end - 1);
+        return strategy.shouldBuy(series, end, SYMBOL, high + high / 100);
+    }
+
+    @Benchmark
+    public boolean shouldBuyByScan() {
+        int end = nextNow();
+        long high = series.high(end - 1);
+        return LineStrategy.shouldBuyByScan(observationMinute, series, end, high + high / 100);
+    }
+}
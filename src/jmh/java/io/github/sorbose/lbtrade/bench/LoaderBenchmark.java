@@ -0,0 +1,83 @@
+package io.github.sorbose.lbtrade.bench;
+
+import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.util.CSVDeserializer;
+import io.github.sorbose.lbtrade.util.CSVSerializer;
+import io.github.sorbose.lbtrade.util.ColumnarCandleStore;
+import io.github.sorbose.lbtrade.util.ParallelCsvReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * K线加载吞吐量。除了每次加载的耗时，还通过辅助计数器bytes报告每秒读取的CSV字节数，
+ * 可以直接换算成MB/s，便于比较不同大小的文件
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoaderBenchmark {
+    @Param({"252"})
+    public int tradingDays;
+
+    private Path dir;
+    private String csvPath;
+    private String columnarDir;
+    private long csvBytes;
+
+    /** 每次调用累加读取的字节数，JMH按每秒次数报告 */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("lbtrade-bench");
+        csvPath = dir.resolve("SYN.US.csv").toString();
+        columnarDir = dir.resolve("SYN.US.col").toString();
+        List<Candlestick> candlesticks = SyntheticCandles.generate(tradingDays, 42);
+        CSVSerializer.writeObjectsToCsv(candlesticks, csvPath);
+        ColumnarCandleStore.write(candlesticks, columnarDir);
+        csvBytes = new File(csvPath).length();
+        System.out.println(String.format("%nCSV %d rows, %.1f MB", candlesticks.size(), csvBytes / (1024.0 * 1024)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public List<Candlestick> csvSequential(Bytes counter) {
+        counter.bytes += csvBytes;
+        return CSVDeserializer.readObjectsFromCsv(Candlestick.class, csvPath, null);
+    }
+
+    @Benchmark
+    public List<Candlestick> csvParallel(Bytes counter) {
+        counter.bytes += csvBytes;
+        return ParallelCsvReader.read(Candlestick.class, csvPath, null);
+    }
+
+    /** 列式存储没有对应的CSV字节数，只比较每秒加载次数 */
+    @Benchmark
+    public CandleSeries columnar() {
+        ColumnarCandleStore store = ColumnarCandleStore.open(columnarDir);
+        return CandleSeries.fromStore(store, 0, store.size());
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.sorbose.lbtrade.bench;
+
+import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.backtest.BacktestData;
+import io.github.sorbose.lbtrade.backtest.PortfolioSimulator;
+import io.github.sorbose.lbtrade.backtest.SimpleRuleSimulator;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完整回测一次的耗时，数据为多年的合成1分钟K线。数据只生成一次，在所有调用之间只读共享。
+ * 数据中的指标缓存也在调用之间共享：cold每次调用前清空缓存，测量第一次回测（需要计算指标）的耗时；
+ * warm直接使用之前调用留下的缓存，测量参数扫描中后续回测的耗时
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimulatorBenchmark {
+    private static final String[] SYMBOLS = {"SYN1.US", "SYN2.US", "SYN3.US"};
+
+    @Param({"1", "3"})
+    public int years;
+
+    private BacktestData data;
+    private LocalDateTime beginTime;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, List<Candlestick>> candlesticksMap = new HashMap<>();
+        for (int i = 0; i < SYMBOLS.length; i++) {
+            candlesticksMap.put(SYMBOLS[i], SyntheticCandles.generateYears(years, 42 + i));
+        }
+        data = BacktestData.of(candlesticksMap, FixedPoint.DEFAULT_SCALE);
+        beginTime = data.get(SYMBOLS[0]).localDateTime(0);
+    }
+
+    /** 每次调用前清空指标缓存 */
+    @State(Scope.Benchmark)
+    public static class ColdCache {
+        @Setup(Level.Invocation)
+        public void clear(SimulatorBenchmark benchmark) {
+            benchmark.data.indicators().clear();
+        }
+    }
+
+    private <T extends SimpleRuleSimulator> T configure(T simulator) {
+        simulator.setLogTrades(false);
+        return simulator;
+    }
+
+    @Benchmark
+    public BigDecimal simpleRuleCold(ColdCache cold) {
+        return simpleRule();
+    }
+
+    @Benchmark
+    public BigDecimal simpleRuleWarm() {
+        return simpleRule();
+    }
+
+    @Benchmark
+    public BigDecimal portfolioCold(ColdCache cold) {
+        return portfolio();
+    }
+
+    @Benchmark
+    public BigDecimal portfolioWarm() {
+        return portfolio();
+    }
+
+    private BigDecimal simpleRule() {
+        SimpleRuleSimulator simulator = configure(new SimpleRuleSimulator(new String[]{SYMBOLS[0]}, "USD",
+                new BigDecimal("2000"), beginTime, null, data,
+                new int[]{3, 1}, new BigDecimal[]{new BigDecimal("98"), new BigDecimal("99")}, new int[]{-1, -1}, 2,
+                new BigDecimal("0.1"), new BigDecimal("102"), new BigDecimal("102"), false));
+        simulator.run();
+        return simulator.getCash();
+    }
+
+    private BigDecimal portfolio() {
+        PortfolioSimulator simulator = configure(new PortfolioSimulator(SYMBOLS, "USD",
+                new BigDecimal("2000"), beginTime, null, data,
+                new int[]{3, 1}, new BigDecimal[]{new BigDecimal("98"), new BigDecimal("99")}, new int[]{-1, -1}, 2,
+                new BigDecimal("0.1"), new BigDecimal("102"), new BigDecimal("102"), false));
+        simulator.run();
+        return simulator.getCash();
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.sorbose.lbtrade.bench;
+
+import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.strategy.SimpleRule;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SimpleRule各个重载的单次判断耗时。每次调用当前分钟向后移动一分钟，模拟逐分钟回测；
+ * 每HOLD_MINUTES分钟换一次买入点，模拟一次持仓
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StrategyBenchmark {
+    private static final String SYMBOL = "SYN.US";
+    private static final int HOLD_MINUTES = 300;
+    /** 实盘每次拉取的K线数量，与Agent.runByAsking一致 */
+    private static final int LIVE_WINDOW = 1000;
+
+    @Param({"252"})
+    public int tradingDays;
+
+    private List<Candlestick> candlesticks;
+    private CandleSeries series;
+    private LocalDateTime[] times;
+    private Candlestick[] liveWindow;
+    private CandleSeries liveSeries;
+    private SimpleRule rule;
+    private int now;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        candlesticks = SyntheticCandles.generate(tradingDays, 42);
+        series = CandleSeries.of(candlesticks, FixedPoint.DEFAULT_SCALE);
+        times = new LocalDateTime[candlesticks.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = candlesticks.get(i).getTimestamp().toLocalDateTime();
+        }
+        liveWindow = candlesticks.subList(candlesticks.size() - LIVE_WINDOW, candlesticks.size()).toArray(new Candlestick[0]);
+        liveSeries = CandleSeries.of(liveWindow, FixedPoint.DEFAULT_SCALE);
+        HashMap<String, List<Candlestick>> map = new HashMap<>();
+        map.put(SYMBOL, candlesticks);
+        rule = new SimpleRule(map, new int[]{3, 1}, new BigDecimal[]{new BigDecimal("98"), new BigDecimal("99")},
+                new int[]{-1, -1}, 2, new BigDecimal("0.1"), new BigDecimal("102"), new BigDecimal("102"));
+        now = HOLD_MINUTES;
+    }
+
+    /** 当前分钟前移一分钟，到末尾后从头开始 */
+    private int nextNow() {
+        now++;
+        if (now >= series.size()) {
+            now = HOLD_MINUTES;
+        }
+        return now;
+    }
+
+    private int buyIndex(int nowIndex) {
+        return Math.max(0, nowIndex / HOLD_MINUTES * HOLD_MINUTES - 1);
+    }
+
+    @Benchmark
+    public boolean shouldBuyAtSeries() {
+        int i = nextNow();
+        return rule.shouldBuyAt(series, i, series.low(i));
+    }
+
+    @Benchmark
+    public boolean shouldSellAtSeries() {
+        int i = nextNow();
+        int buy = buyIndex(i);
+        return rule.shouldSellAt(SYMBOL, series, buy, i, series.high(buy), series.high(i), false);
+    }
+
+    @Benchmark
+    public boolean shouldBuyList() {
+        int i = nextNow();
+        return rule.shouldBuy(SYMBOL, candlesticks.get(i).getLow(), times[i]);
+    }
+
+    @Benchmark
+    public boolean shouldSellList() {
+        int i = nextNow();
+        int buy = buyIndex(i);
+        return rule.shouldSell(SYMBOL, candlesticks.get(buy).getHigh(), times[buy],
+                candlesticks.get(i).getHigh(), times[i], false);
+    }
+
+    @Benchmark
+    public boolean shouldBuyLiveArray() {
+        return rule.shouldBuy(liveWindow, SYMBOL, liveWindow[LIVE_WINDOW - 1].getLow());
+    }
+
+    @Benchmark
+    public boolean shouldSellLiveArray() {
+        Candlestick bought = liveWindow[LIVE_WINDOW / 2];
+        return rule.shouldSell(liveWindow, bought.getHigh(), bought.getTimestamp(), SYMBOL,
+                liveWindow[LIVE_WINDOW - 1].getHigh(), false);
+    }
+
+    @Benchmark
+    public boolean shouldBuyLiveSeries() {
+        return rule.shouldBuy(liveSeries, LIVE_WINDOW, SYMBOL, liveSeries.low(LIVE_WINDOW - 1));
+    }
+
+    @Benchmark
+    public boolean shouldSellLiveSeries() {
+        int bought = LIVE_WINDOW / 2;
+        return rule.shouldSell(liveSeries, LIVE_WINDOW, liveSeries.high(bought), liveSeries.time(bought) * 60,
+                SYMBOL, liveSeries.high(LIVE_WINDOW - 1), false);
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.sorbose.lbtrade.bench;
+
+import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.util.Candlesticks;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+
+import java.math.BigDecimal;
+import java.time.DayOfWeek;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 确定性的1分钟K线生成器，供基准测试离线使用。相同的参数总是生成相同的数据：
+ * 只在工作日的美股常规交易时段（UTC 14:30起390分钟）生成K线，价格为带波动的随机游走，保留3位小数
+ */
+public final class SyntheticCandles {
+    public static final int MINUTES_PER_DAY = 390;
+    public static final int TRADING_DAYS_PER_YEAR = 252;
+    private static final OffsetDateTime START = OffsetDateTime.of(2021, 1, 4, 14, 30, 0, 0, ZoneOffset.UTC);
+
+    private SyntheticCandles() {
+    }
+
+    /**
+     * @param tradingDays 交易日数量
+     * @param seed 随机种子
+     * @return 时间升序的K线
+     */
+    public static List<Candlestick> generate(int tradingDays, long seed) {
+        Random random = new Random(seed);
+        List<Candlestick> candlesticks = new ArrayList<>(tradingDays * MINUTES_PER_DAY);
+        // 价格以0.001为单位
+        long price = 20_000;
+        OffsetDateTime day = START;
+        for (int d = 0; d < tradingDays; d++) {
+            while (day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY) {
+                day = day.plusDays(1);
+            }
+            for (int m = 0; m < MINUTES_PER_DAY; m++) {
+                long open = price;
+                long close = Math.max(1_000, open + Math.round(random.nextGaussian() * 40));
+                long high = Math.max(open, close) + random.nextInt(60);
+                long low = Math.max(500, Math.min(open, close) - random.nextInt(60));
+                long volume = 100 + random.nextInt(20_000);
+                candlesticks.add(candlestick(day.plusMinutes(m), open, high, low, close, volume));
+                price = close;
+            }
+            day = day.plusDays(1);
+        }
+        return candlesticks;
+    }
+
+    public static List<Candlestick> generateYears(int years, long seed) {
+        return generate(years * TRADING_DAYS_PER_YEAR, seed);
+    }
+
+    public static CandleSeries series(int tradingDays, long seed) {
+        return CandleSeries.of(generate(tradingDays, seed), FixedPoint.DEFAULT_SCALE);
+    }
+
+    /**
+     * 直接生成CandleSeries的随机游走，精度为FixedPoint.DEFAULT_SCALE，供对照检查使用：
+     * 起始价在100到150之间，每分钟的变化在[-step, step]内，上下影线不超过step/4。
+     * 每MINUTES_PER_DAY分钟为一个交易日，交易日之间空出隔夜的时间
+     */
+    public static CandleSeries randomWalk(int minutes, long seed, int step) {
+        Random random = new Random(seed);
+        CandleSeries series = new CandleSeries(minutes, FixedPoint.DEFAULT_SCALE, ZoneOffset.UTC);
+        long price = 100_0000 + random.nextInt(50_0000);
+        for (int m = 0; m < minutes; m++) {
+            long open = price;
+            price = Math.max(1_0000, price + random.nextInt(2 * step + 1) - step);
+            series.append(m + (long) (m / MINUTES_PER_DAY) * (24 * 60 - MINUTES_PER_DAY), open,
+                    Math.max(open, price) + random.nextInt(step / 4 + 1),
+                    Math.min(open, price) - random.nextInt(step / 4 + 1), price, 100);
+        }
+        return series;
+    }
+
+    private static Candlestick candlestick(OffsetDateTime time, long open, long high, long low, long close, long volume) {
+        return Candlesticks.create(BigDecimal.valueOf(open, 3), BigDecimal.valueOf(high, 3),
+                BigDecimal.valueOf(low, 3), BigDecimal.valueOf(close, 3), volume,
+                BigDecimal.valueOf(close * volume, 3), time);
+    }
+}
@@ -4,52 +4,156 @@ import com.longport.Config;
 import com.longport.OpenApiException;
 import com.longport.quote.QuoteContext;
 import com.longport.trade.TradeContext;
-import org.slf4j.LoggerFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-import java.util.Arrays;
 import java.util.concurrent.*;
-import java.util.logging.Logger;
 
-public class TradeMain {
-    public static final Config config;
-    public static final QuoteContext quoteContext;
-    public static final TradeContext tradeContext;
-    public static final Logger logger = Logger.getLogger(TradeMain.class.getName());
-    private static final org.slf4j.Logger log = LoggerFactory.getLogger(TradeMain.class);
+/**
+ * 建立与OpenAPI的连接。行情和交易连接各自在第一次需要时才建立，互不等待，
+ * 只用行情的工具（如CandlesticksFetcher、回测）不会建立交易连接。
+ * 每次尝试有超时，失败后按带随机抖动的指数退避重试，全部失败时抛出异常而不是退出进程，之后再次调用会重新尝试
+ */
+public final class TradeMain {
+    private static final Logger logger = LogManager.getLogger(TradeMain.class);
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long ATTEMPT_TIMEOUT_SECOND = 20;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 16_000;
 
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "openapi-bootstrap");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    static {
-        Config configTmp=null;
-        QuoteContext quoteContextTmp=null;
-        TradeContext tradeContextTmp=null;
-        for(int i=1;i<=5;i++){
+    private static Config config;
+    private static CompletableFuture<QuoteContext> quoteFuture;
+    private static CompletableFuture<TradeContext> tradeFuture;
+
+    /** 建立连接的一次尝试 */
+    private interface Connector<T> {
+        CompletableFuture<T> create(Config config) throws OpenApiException;
+    }
+
+    private TradeMain() {
+    }
+
+    /** 环境变量中的配置，只读取一次。配置错误不会因为重试而改变，所以不重试 */
+    public static synchronized Config config() {
+        if (config == null) {
             try {
-                System.out.println(ZonedDateTime.now(ZoneOffset.UTC));
-                configTmp = Config.fromEnv();
-                quoteContextTmp = QuoteContext.create(configTmp).get();
-                tradeContextTmp = TradeContext.create(configTmp).get();
-                break;
-            } catch (OpenApiException | ExecutionException | InterruptedException e) {
-                logger.severe("Error initializing TradeMain");
-                logger.severe(Arrays.toString(e.getStackTrace()));
-                e.printStackTrace();
-                try {
-                    long waitTime = 1000 * i*i;
-                    logger.info("Waiting for " + waitTime + "ms Retry " + i);
-                    Thread.sleep(waitTime);
-                } catch (InterruptedException interruptedException) {
-                    logger.info("Interrupted");
-                }
+                config = Config.fromEnv();
+            } catch (OpenApiException e) {
+                throw new RuntimeException("Failed to load config from env", e);
             }
         }
-        config = configTmp;
-        quoteContext = quoteContextTmp;
-        tradeContext = tradeContextTmp;
-        if(config==null || quoteContext==null || tradeContext==null){
-            logger.severe("Failed to initialize TradeMain");
-            System.exit(1);
+        return config;
+    }
+
+    /** 开始建立行情连接（已经开始或已经建立时直接返回），不阻塞 */
+    public static synchronized CompletableFuture<QuoteContext> connectQuote() {
+        if (quoteFuture == null || quoteFuture.isCompletedExceptionally()) {
+            quoteFuture = connect("quote", QuoteContext::create);
+        }
+        return quoteFuture;
+    }
+
+    /** 开始建立交易连接（已经开始或已经建立时直接返回），不阻塞 */
+    public static synchronized CompletableFuture<TradeContext> connectTrade() {
+        if (tradeFuture == null || tradeFuture.isCompletedExceptionally()) {
+            tradeFuture = connect("trade", TradeContext::create);
+        }
+        return tradeFuture;
+    }
+
+    /** 同时建立行情和交易连接，最多等待timeoutSecond秒 */
+    public static void connectAll(long timeoutSecond) throws InterruptedException, TimeoutException, ExecutionException {
+        CompletableFuture<QuoteContext> quote = connectQuote();
+        CompletableFuture<TradeContext> trade = connectTrade();
+        CompletableFuture.allOf(quote, trade).get(timeoutSecond, TimeUnit.SECONDS);
+    }
+
+    /** 行情连接，尚未建立时阻塞直到建立或重试全部失败 */
+    public static QuoteContext quoteContext() {
+        return await("quote", connectQuote());
+    }
+
+    /** 交易连接，尚未建立时阻塞直到建立或重试全部失败 */
+    public static TradeContext tradeContext() {
+        return await("trade", connectTrade());
+    }
+
+    private static <T> T await(String name, CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while connecting " + name + " context", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to connect " + name + " context", e.getCause());
+        }
+    }
+
+    private static <T extends AutoCloseable> CompletableFuture<T> connect(String name, Connector<T> connector) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Config config = config();
+        long begin = System.nanoTime();
+        attempt(name, connector, config, 1, result);
+        result.thenRun(() -> logger.info("Connected {} context in {} ms", name,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin)));
+        return result;
+    }
+
+    private static <T extends AutoCloseable> void attempt(String name, Connector<T> connector, Config config,
+                                                          int attempt, CompletableFuture<T> result) {
+        CompletableFuture<T> created;
+        try {
+            created = connector.create(config);
+        } catch (Exception e) {
+            created = new CompletableFuture<>();
+            created.completeExceptionally(e);
+        }
+        // 超时由future表示，不影响created，超时后才建立的连接已经没有人使用，关闭它
+        CompletableFuture<T> future = new CompletableFuture<>();
+        created.whenComplete((context, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else if (!future.complete(context)) {
+                closeQuietly(context);
+            }
+        });
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> future.completeExceptionally(
+                new TimeoutException("No response in " + ATTEMPT_TIMEOUT_SECOND + " s")), ATTEMPT_TIMEOUT_SECOND, TimeUnit.SECONDS);
+        future.whenComplete((context, e) -> {
+            timeout.cancel(false);
+            if (e == null) {
+                result.complete(context);
+                return;
+            }
+            if (attempt >= MAX_ATTEMPTS) {
+                logger.error("Failed to connect {} context after {} attempts: {}", name, attempt, e.getMessage());
+                result.completeExceptionally(e);
+                return;
+            }
+            // 全抖动：在[0, min(上限, 基数*2^(n-1))]中随机等待，避免多个进程同时重连
+            long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+            long backoff = ThreadLocalRandom.current().nextLong(cap + 1);
+            logger.warn("Failed to connect {} context (attempt {}): {}, retrying in {} ms", name, attempt, e.getMessage(), backoff);
+            scheduler.schedule(() -> attempt(name, connector, config, attempt + 1, result), backoff, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            logger.warn("Failed to close late connection: {}", e.getMessage());
         }
     }
+
+    public static void main(String[] args) throws Exception {
+        connectAll(120);
+        logger.info("Quote {} trade {}", quoteContext(), tradeContext());
+    }
 }
@@ -1,15 +1,18 @@
 package io.github.sorbose.lbtrade.backtest;
 
 import com.longport.Market;
-import com.longport.quote.Candlestick;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
 public abstract class AbstractSimulator {
+    private static final Logger logger = LogManager.getLogger(AbstractSimulator.class);
     protected BigDecimal initCash;
     protected BigDecimal cash;
     protected BigDecimal assetAmount;
@@ -20,9 +23,13 @@ public abstract class AbstractSimulator {
     protected LocalDateTime beginTime;
     protected LocalDateTime endTime;
     protected HashMap<String, MyStockPosition> stockPositions;
-    HashMap<String, List<Candlestick>> candlesticksMap;
+    /** 只读的K线数据，可能被多个模拟器共享，不能修改 */
+    protected final BacktestData data;
+    protected int tradeCount = 0;
+    protected double maxDrawdown = 0;
+    protected boolean logTrades = true;
 
-    public AbstractSimulator(String[] symbols, String currency, BigDecimal initCash, LocalDateTime beginTime, LocalDateTime endTime, HashMap<String, List<Candlestick>> candlesticksMap) {
+    public AbstractSimulator(String[] symbols, String currency, BigDecimal initCash, LocalDateTime beginTime, LocalDateTime endTime, BacktestData data) {
         this.endTime = endTime;
         this.beginTime = beginTime;
         this.symbols = symbols;
@@ -31,7 +38,7 @@ public abstract class AbstractSimulator {
         cash = assetAmount = initCash;
         tradeRecords = new ArrayList<>();
         stockPositions = new HashMap<>();
-        this.candlesticksMap = candlesticksMap;
+        this.data = data;
         for(String symbol : symbols) {
             stockPositions.put(symbol,
                     new MyStockPosition(symbol, BigDecimal.ZERO, currency, BigDecimal.ZERO));
@@ -66,6 +73,78 @@ public abstract class AbstractSimulator {
         }
     }
 
+    /**
+     * 按lastPrice买入，实际数量不超过quantity，也不超过现金扣除手续费后能买到的数量
+     */
+    protected boolean buy(String symbol, BigDecimal quantity, BigDecimal lastPrice, LocalDateTime now) {
+        if (quantity.compareTo(BigDecimal.ZERO) <= 0) {
+            return false;
+        }
+        MyStockPosition stockPosition = stockPositions.get(symbol);
+        BigDecimal estCost = quantity.multiply(lastPrice);
+        BigDecimal buyFee = getBuyFee(Market.US, estCost);
+        BigDecimal realQuantity = cash.subtract(buyFee).divide(lastPrice, 0, RoundingMode.DOWN).min(quantity);
+        if (realQuantity.signum() <= 0) {
+            // 按最低价估算的数量足够，但按成交价（最高价）买不起一股
+            return false;
+        }
+        BigDecimal cost = realQuantity.multiply(lastPrice);
+        cash = cash.subtract(cost).subtract(buyFee);
+        stockPosition.costPrice = stockPosition.costPrice.multiply(stockPosition.quantity)
+                .add(lastPrice.multiply(realQuantity)).divide(stockPosition.quantity.add(realQuantity), 3, RoundingMode.HALF_UP);
+        stockPosition.quantity = stockPosition.quantity.add(realQuantity);
+        tradeRecords.add(new TradeRecord(now, lastPrice, realQuantity, TradeRecord.Direction.BUY, symbol));
+        if (logTrades) {
+            logger.info("\n Buy " + symbol + " at " + lastPrice + " quantity "+ realQuantity + " at " + now);
+            logger.info("Balance After Buying: " + cash);
+        }
+        tradeCount++;
+        return true;
+    }
+
+    protected boolean sell(String symbol, BigDecimal quantity, BigDecimal lastPrice,
+                         LocalDateTime localDateTime, BigDecimal buyingPrice) {
+        MyStockPosition stockPosition = stockPositions.get(symbol);
+        if (quantity.compareTo(BigDecimal.ZERO) <= 0 ||
+                stockPosition.quantity.compareTo(quantity) < 0) {
+            return false;
+        }
+        if (stockPosition.quantity.compareTo(quantity) == 0) {
+            stockPosition.costPrice = BigDecimal.ZERO;
+        } else {
+            stockPosition.costPrice = stockPosition.costPrice.multiply(stockPosition.quantity)
+                    .subtract(lastPrice.multiply(quantity)).divide(stockPosition.quantity.subtract(quantity), 3, RoundingMode.HALF_UP);
+        }
+
+        stockPosition.quantity = stockPosition.quantity.subtract(quantity);
+        BigDecimal sellAmount = quantity.multiply(lastPrice);
+        BigDecimal sellFee = getSellFee(Market.US, sellAmount);
+        cash = cash.add(sellAmount).subtract(sellFee);
+        tradeRecords.add(new TradeRecord(localDateTime, lastPrice, quantity, TradeRecord.Direction.SELL, symbol));
+
+        if (logTrades) {
+            logger.info("\n Sell " + symbol + " at " + lastPrice + " at " + localDateTime +
+                    " with profit " + (lastPrice.subtract(buyingPrice)).multiply(quantity));
+            logger.info("Balance: " + cash);
+        }
+        tradeCount++;
+        return true;
+    }
+
+    public int getTradeCount() {
+        return tradeCount;
+    }
+
+    /** 按每分钟收盘价计算的最大回撤，0.1表示10% */
+    public double getMaxDrawdown() {
+        return maxDrawdown;
+    }
+
+    /** 参数扫描时关闭逐笔交易日志 */
+    public void setLogTrades(boolean logTrades) {
+        this.logTrades = logTrades;
+    }
+
     abstract protected BigDecimal getBuyFee(Market market, BigDecimal estTotalPrice);
     abstract protected BigDecimal getSellFee(Market market, BigDecimal estTotalPrice);
     abstract public void run();
@@ -76,6 +155,9 @@ public abstract class AbstractSimulator {
     protected int getTotalStocksAmount(){
         return stockPositions.values().stream().map(msp->msp.quantity).reduce(BigDecimal.ZERO, BigDecimal::add).intValue();
     }
+    public BigDecimal getCash() {
+        return cash;
+    }
     protected List<TradeRecord> getTradeRecords() {
         return tradeRecords;
     }
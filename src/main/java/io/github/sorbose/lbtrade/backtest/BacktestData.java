@@ -0,0 +1,60 @@
+package io.github.sorbose.lbtrade.backtest;
+
+import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.util.ColumnarCandleStore;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 回测用的K线数据，每个股票一个时间升序的CandleSeries。只在创建时写入一次，
+ * 之后只读，可以被多个模拟器（包括并发运行的参数扫描）共享。
+ * 由数据计算的指标保存在indicators()中，同样在这些模拟器之间共享
+ */
+public final class BacktestData {
+    private final Map<String, CandleSeries> seriesMap;
+    private final IndicatorCache indicators = new IndicatorCache(IndicatorCache.DEFAULT_MAX_BYTES);
+
+    private BacktestData(Map<String, CandleSeries> seriesMap) {
+        this.seriesMap = Collections.unmodifiableMap(seriesMap);
+    }
+
+    /** 复制并按时间排序，不修改传入的列表 */
+    public static BacktestData of(Map<String, List<Candlestick>> candlesticksMap, int scale) {
+        Map<String, CandleSeries> seriesMap = new HashMap<>();
+        for (Map.Entry<String, List<Candlestick>> entry : candlesticksMap.entrySet()) {
+            List<Candlestick> sorted = new ArrayList<>(entry.getValue());
+            sorted.sort((a, b) -> a.getTimestamp().compareTo(b.getTimestamp()));
+            seriesMap.put(entry.getKey(), CandleSeries.of(sorted, scale));
+        }
+        return new BacktestData(seriesMap);
+    }
+
+    /**
+     * 从列式存储读取[begin, end)范围的数据
+     * @param symbolToDir 股票到列式存储目录的映射
+     */
+    public static BacktestData fromColumnar(Map<String, String> symbolToDir, LocalDateTime begin, LocalDateTime end) {
+        Map<String, CandleSeries> seriesMap = new HashMap<>();
+        for (Map.Entry<String, String> entry : symbolToDir.entrySet()) {
+            ColumnarCandleStore store = ColumnarCandleStore.open(entry.getValue());
+            int[] range = store.rowRange(begin, end);
+            seriesMap.put(entry.getKey(), CandleSeries.fromStore(store, range[0], range[1]));
+        }
+        return new BacktestData(seriesMap);
+    }
+
+    public CandleSeries get(String symbol) {
+        return seriesMap.get(symbol);
+    }
+
+    public Set<String> symbols() {
+        return seriesMap.keySet();
+    }
+
+    /** 这份数据的指标缓存 */
+    public IndicatorCache indicators() {
+        return indicators;
+    }
+}
@@ -1,16 +1,18 @@
 package io.github.sorbose.lbtrade.backtest;
 
 import com.longport.quote.Candlestick;
-import io.github.sorbose.lbtrade.util.CSVDeserializer;
+import io.github.sorbose.lbtrade.util.ColumnarCandleStore;
+import io.github.sorbose.lbtrade.util.ParallelCsvReader;
 
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Predicate;
 
 public class CandlestickLoader {
     private List<Candlestick> fromCsv(Class<Candlestick> clazz, String inPath, Predicate<Candlestick> filter) {
-        return CSVDeserializer.readObjectsFromCsv(clazz, inPath, filter);
+        return ParallelCsvReader.read(clazz, inPath, filter);
     }
     public List<Candlestick> fromCsv(String inPath, Predicate<Candlestick> filter) {
         return fromCsv(Candlestick.class, inPath, filter);
@@ -18,11 +20,35 @@ public class CandlestickLoader {
     public List<Candlestick> fromCsv(String inPath) {
         return fromCsv(Candlestick.class, inPath, null);
     }
+    /** CSV需按时间升序，只解析[begin, end)范围内的行，与fromColumnar的范围相同 */
     public List<Candlestick> fromCsv(String inPath, LocalDateTime begin, LocalDateTime end) {
-        return fromCsv(Candlestick.class, inPath,
+        return ParallelCsvReader.read(Candlestick.class, inPath, "timestamp", begin, end,
                 c-> c.getTimestamp().toLocalDateTime().isBefore(end)
-                        && c.getTimestamp().toLocalDateTime().isAfter(begin));
+                        && !c.getTimestamp().toLocalDateTime().isBefore(begin));
     }
+
+    /** 打开列式存储，数据按需从映射文件中读取 */
+    public ColumnarCandleStore openColumnar(String dir) {
+        return ColumnarCandleStore.open(dir);
+    }
+    public List<Candlestick> fromColumnar(String dir) {
+        return fromColumnar(dir, null, null);
+    }
+    /** 读取[begin, end)范围的K线，只访问范围内的行 */
+    public List<Candlestick> fromColumnar(String dir, LocalDateTime begin, LocalDateTime end) {
+        return ColumnarCandleStore.open(dir).toCandlesticks(begin, end);
+    }
+
+    /** 把CSV文件转换为列式存储 */
+    public void csvToColumnar(String csvPath, String dir) {
+        List<Candlestick> candlesticks = fromCsv(csvPath);
+        candlesticks.sort((a, b) -> a.getTimestamp().compareTo(b.getTimestamp()));
+        ColumnarCandleStore.write(candlesticks, dir);
+    }
+    public static String toColumnarPath(String csvPath) {
+        return csvPath + ".col";
+    }
+
     public static HashMap<String, String> symbolToPath=new HashMap<String, String>(){
         {
             put("TSLL", "data/TSLL.US2023-12-04T0000");
@@ -35,4 +61,12 @@ public class CandlestickLoader {
         }
     };
 
+    /** 一次性把symbolToPath中的CSV全部转换为列式存储 */
+    public static void main(String[] args) {
+        CandlestickLoader loader = new CandlestickLoader();
+        for (Map.Entry<String, String> entry : symbolToPath.entrySet()) {
+            System.out.println("Converting data for symbol: " + entry.getKey());
+            loader.csvToColumnar(entry.getValue(), toColumnarPath(entry.getValue()));
+        }
+    }
 }
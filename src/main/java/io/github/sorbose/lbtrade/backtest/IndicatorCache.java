@@ -0,0 +1,228 @@
+package io.github.sorbose.lbtrade.backtest;
+
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.strategy.SimpleRuleBatch;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * 回测的指标缓存，属于一个BacktestData，在使用同一份数据的所有模拟器（如参数扫描的每一次回测）之间共享。
+ * 缓存按（股票，指标，参数）保存预先计算的定点数列：典型价(H+L+C+O)/4、典型价的百分比，
+ * 以及SimpleRule每一分钟的买入信号位图。买入信号只取决于买入参数，参数扫描中卖出参数不同的组合直接复用。
+ * <p>
+ * 按占用内存做LRU淘汰，超过maxBytes时丢弃最久未使用的列。同一个key同时只计算一次，
+ * 其他线程等待它的结果。返回的数组被所有调用方共享，不能修改
+ */
+public final class IndicatorCache {
+    /** BacktestData默认的缓存上限 */
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+    /** 典型价和百分比的精度，与SimpleRule.getBuyBoundPrice一致 */
+    public static final int PRICE_SCALE = 3;
+
+    private final long maxBytes;
+    /** 访问顺序，最久未使用的在前 */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+    private long hits;
+    private long misses;
+
+    /** 指标的key：股票、指标名和参数 */
+    private static final class Key {
+        final String symbol;
+        final String feature;
+        final Object[] params;
+        final int hash;
+
+        Key(String symbol, String feature, Object... params) {
+            this.symbol = symbol;
+            this.feature = feature;
+            this.params = params;
+            this.hash = 31 * (31 * symbol.hashCode() + feature.hashCode()) + Arrays.deepHashCode(params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && symbol.equals(other.symbol) && feature.equals(other.feature)
+                    && Arrays.deepEquals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final CompletableFuture<long[]> value = new CompletableFuture<>();
+        /** 计算完成前为0，不参与淘汰 */
+        long bytes;
+    }
+
+    public IndicatorCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 每根K线的典型价(H+L+C+O)/4，按HALF_UP保留PRICE_SCALE位小数
+     */
+    public long[] typicalPrice(String symbol, CandleSeries series) {
+        return get(new Key(symbol, "typical"), () -> {
+            int n = series.size();
+            int scale = series.scale();
+            long[] typical = new long[n];
+            for (int row = 0; row < n; row++) {
+                long sum = series.high(row) + series.low(row) + series.close(row) + series.open(row);
+                typical[row] = FixedPoint.divide(sum, scale, 4, PRICE_SCALE);
+            }
+            return typical;
+        });
+    }
+
+    /**
+     * 典型价乘percentage/100，按HALF_UP保留PRICE_SCALE位小数，与SimpleRule.getBuyBoundPrice相同
+     * @param percentage 97表示典型价的97%
+     */
+    public long[] typicalPercent(String symbol, CandleSeries series, BigDecimal percentage) {
+        BigDecimal p = percentage.stripTrailingZeros();
+        if (p.scale() < 0) {
+            p = p.setScale(0);
+        }
+        long unscaled = p.unscaledValue().longValueExact();
+        int pScale = p.scale();
+        return get(new Key(symbol, "typicalPercent", p), () -> {
+            long[] typical = typicalPrice(symbol, series);
+            long[] bound = new long[typical.length];
+            for (int row = 0; row < typical.length; row++) {
+                bound[row] = FixedPoint.divide(typical[row] * unscaled, PRICE_SCALE + pScale, 100, PRICE_SCALE);
+            }
+            return bound;
+        });
+    }
+
+    /**
+     * SimpleRule.shouldBuyAt(series, row, series.low(row))对每一行的结果，即模拟器按最低价判断的买入信号，
+     * 用SimpleRuleBatch.isSet(signals, row)读取。只取决于买入参数
+     */
+    public long[] buySignals(String symbol, CandleSeries series, int[] observationMinute, BigDecimal[] percentage,
+                             int[] higherThanExpected, int conditionNum) {
+        BigDecimal[] normalized = new BigDecimal[percentage.length];
+        for (int i = 0; i < percentage.length; i++) {
+            normalized[i] = percentage[i].stripTrailingZeros();
+        }
+        Key key = new Key(symbol, "simpleRuleBuy", observationMinute.clone(), normalized,
+                higherThanExpected.clone(), conditionNum);
+        return get(key, () -> {
+            int n = series.size();
+            int scale = series.scale();
+            long[][] bounds = new long[observationMinute.length][];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = typicalPercent(symbol, series, percentage[i]);
+            }
+            long[] signals = SimpleRuleBatch.newSignals(n);
+            for (int row = 0; row < n; row++) {
+                long lastPrice = series.low(row);
+                int realConditionNum = 0;
+                for (int i = 0; i < bounds.length; i++) {
+                    int from = row - observationMinute[i];
+                    if (from >= 0 && FixedPoint.compare(lastPrice, scale, bounds[i][from], PRICE_SCALE) * higherThanExpected[i] > 0) {
+                        realConditionNum++;
+                    }
+                }
+                if (realConditionNum >= conditionNum) {
+                    signals[row >>> 6] |= 1L << row;
+                }
+            }
+            return signals;
+        });
+    }
+
+    private long[] get(Key key, Supplier<long[]> compute) {
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                owner = true;
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        if (!owner) {
+            try {
+                return entry.value.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        // 在锁外计算，计算中可以读取其他指标（如典型价）
+        long[] value;
+        try {
+            value = compute.get();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                entries.remove(key, entry);
+            }
+            entry.value.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            entry.bytes = 16 + 8L * value.length;
+            if (entries.get(key) == entry) {
+                usedBytes += entry.bytes;
+                evict();
+            }
+        }
+        entry.value.complete(value);
+        return value;
+    }
+
+    /** 淘汰最久未使用的已完成的列，直到不超过上限 */
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (usedBytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (eldest.bytes > 0) {
+                usedBytes -= eldest.bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    public synchronized long missCount() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        entries.values().removeIf(entry -> entry.bytes > 0);
+        usedBytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "IndicatorCache{entries=" + entries.size() + ", usedBytes=" + usedBytes + "/" + maxBytes
+                + ", hits=" + hits + ", misses=" + misses + "}";
+    }
+}
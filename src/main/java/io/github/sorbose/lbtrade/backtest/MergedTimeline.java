@@ -0,0 +1,107 @@
+package io.github.sorbose.lbtrade.backtest;
+
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+
+/**
+ * 把多个时间升序的CandleSeries多路归并成一个按时间升序的事件流。
+ * 用以股票下标为元素、以(当前行时间, 股票下标)为键的二叉小顶堆实现，
+ * 每次next()为O(log k)，遍历过程中不创建任何对象。
+ * 同一分钟的多个股票按它们在数组中的顺序依次输出
+ */
+public class MergedTimeline {
+    private final CandleSeries[] series;
+    /** 每个股票下一个要输出的行 */
+    private final int[] cursor;
+    /** 每个股票的结束行（不含） */
+    private final int[] end;
+    private final int[] heap;
+    private int heapSize;
+    private int symbolIndex = -1;
+    private int row = -1;
+
+    /**
+     * @param series 参与归并的序列，下标即symbolIndex
+     * @param beginMinute 起始时间（epoch分钟，含）
+     * @param endMinute 结束时间（epoch分钟，不含），传Long.MAX_VALUE表示不限
+     */
+    public MergedTimeline(CandleSeries[] series, long beginMinute, long endMinute) {
+        this.series = series;
+        cursor = new int[series.length];
+        end = new int[series.length];
+        heap = new int[series.length];
+        for (int i = 0; i < series.length; i++) {
+            cursor[i] = series[i].lowerBound(beginMinute);
+            end[i] = endMinute == Long.MAX_VALUE ? series[i].size() : series[i].lowerBound(endMinute);
+            if (cursor[i] < end[i]) {
+                heap[heapSize++] = i;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * 前进到下一个事件
+     * @return 没有更多事件时返回false
+     */
+    public boolean next() {
+        if (heapSize == 0) {
+            return false;
+        }
+        int top = heap[0];
+        symbolIndex = top;
+        row = cursor[top]++;
+        if (cursor[top] < end[top]) {
+            // 堆顶的键只会变大，原地下沉即可
+            siftDown(0);
+        } else {
+            heap[0] = heap[--heapSize];
+            siftDown(0);
+        }
+        return true;
+    }
+
+    /** 当前事件所属股票的下标 */
+    public int symbolIndex() {
+        return symbolIndex;
+    }
+
+    /** 当前事件在所属序列中的行号 */
+    public int row() {
+        return row;
+    }
+
+    /** 当前事件的时间（epoch分钟） */
+    public long time() {
+        return series[symbolIndex].time(row);
+    }
+
+    private boolean less(int a, int b) {
+        long ta = series[a].time(cursor[a]);
+        long tb = series[b].time(cursor[b]);
+        return ta < tb || (ta == tb && a < b);
+    }
+
+    private void siftDown(int i) {
+        if (heapSize == 0) {
+            return;
+        }
+        int item = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], item)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = item;
+    }
+}
@@ -0,0 +1,207 @@
+package io.github.sorbose.lbtrade.backtest;
+
+import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * SimpleRuleSimulator的参数扫描：对参数网格中的每一种组合并行运行一次回测，
+ * K线数据只加载一次并在所有回测之间只读共享，每次回测使用独立的模拟器和策略对象。
+ * 买入信号等指标由BacktestData的指标缓存在回测之间共享，买入参数相同的组合只计算一次
+ */
+public class ParameterSweep {
+    private static final Logger logger = LogManager.getLogger(ParameterSweep.class);
+
+    private final String[] symbols;
+    private final String currency;
+    private final BigDecimal initCash;
+    private final LocalDateTime beginTime;
+    private final LocalDateTime endTime;
+    private final BacktestData data;
+
+    /** 参数网格，每个参数给出若干候选值，扫描所有组合 */
+    public static class Grid {
+        final List<int[]> observationMinutes;
+        final List<BigDecimal[]> percentages;
+        final List<int[]> higherThanExpected;
+        final int[] conditionNums;
+        final List<BigDecimal> gapPrices;
+        final List<BigDecimal> winPercentages;
+        final List<BigDecimal> losePercentages;
+        final boolean[] stopLosses;
+
+        /** observationMinutes、percentages与higherThanExpected按下标一一对应，作为一个整体参与组合 */
+        public Grid(List<int[]> observationMinutes, List<BigDecimal[]> percentages, List<int[]> higherThanExpected,
+                    int[] conditionNums, List<BigDecimal> gapPrices, List<BigDecimal> winPercentages,
+                    List<BigDecimal> losePercentages, boolean[] stopLosses) {
+            if (observationMinutes.size() != percentages.size() || observationMinutes.size() != higherThanExpected.size()) {
+                throw new IllegalArgumentException("observationMinutes, percentages and higherThanExpected must have the same size");
+            }
+            this.observationMinutes = observationMinutes;
+            this.percentages = percentages;
+            this.higherThanExpected = higherThanExpected;
+            this.conditionNums = conditionNums;
+            this.gapPrices = gapPrices;
+            this.winPercentages = winPercentages;
+            this.losePercentages = losePercentages;
+            this.stopLosses = stopLosses;
+        }
+
+        public int size() {
+            return observationMinutes.size() * conditionNums.length * gapPrices.size()
+                    * winPercentages.size() * losePercentages.size() * stopLosses.length;
+        }
+
+        /** 按混合进制把组合编号解码为一组参数 */
+        Params get(int index) {
+            int stop = index % stopLosses.length; index /= stopLosses.length;
+            int lose = index % losePercentages.size(); index /= losePercentages.size();
+            int win = index % winPercentages.size(); index /= winPercentages.size();
+            int gap = index % gapPrices.size(); index /= gapPrices.size();
+            int cond = index % conditionNums.length; index /= conditionNums.length;
+            int obs = index;
+            return new Params(observationMinutes.get(obs), percentages.get(obs), higherThanExpected.get(obs),
+                    conditionNums[cond], gapPrices.get(gap), winPercentages.get(win), losePercentages.get(lose),
+                    stopLosses[stop]);
+        }
+    }
+
+    /** 一组SimpleRule参数 */
+    public static class Params {
+        public final int[] observationMinute;
+        public final BigDecimal[] percentage;
+        public final int[] higherThanExpected;
+        public final int conditionNum;
+        public final BigDecimal gapPrice;
+        public final BigDecimal winPercentage;
+        public final BigDecimal losePercentage;
+        public final boolean stopLoss;
+
+        public Params(int[] observationMinute, BigDecimal[] percentage, int[] higherThanExpected, int conditionNum,
+                      BigDecimal gapPrice, BigDecimal winPercentage, BigDecimal losePercentage, boolean stopLoss) {
+            this.observationMinute = observationMinute;
+            this.percentage = percentage;
+            this.higherThanExpected = higherThanExpected;
+            this.conditionNum = conditionNum;
+            this.gapPrice = gapPrice;
+            this.winPercentage = winPercentage;
+            this.losePercentage = losePercentage;
+            this.stopLoss = stopLoss;
+        }
+
+        @Override
+        public String toString() {
+            return "obs=" + Arrays.toString(observationMinute) + " pct=" + Arrays.toString(percentage)
+                    + " hte=" + Arrays.toString(higherThanExpected) + " cond=" + conditionNum + " gap=" + gapPrice
+                    + " win=" + winPercentage + " lose=" + losePercentage + " stopLoss=" + stopLoss;
+        }
+    }
+
+    /** 一次回测的结果 */
+    public static class Result {
+        public final Params params;
+        public final BigDecimal finalCash;
+        public final int tradeCount;
+        public final double maxDrawdown;
+
+        public Result(Params params, BigDecimal finalCash, int tradeCount, double maxDrawdown) {
+            this.params = params;
+            this.finalCash = finalCash;
+            this.tradeCount = tradeCount;
+            this.maxDrawdown = maxDrawdown;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%12s %6d %7.2f%%  %s", finalCash.toPlainString(), tradeCount, maxDrawdown * 100, params);
+        }
+    }
+
+    public ParameterSweep(String[] symbols, String currency, BigDecimal initCash,
+                          LocalDateTime beginTime, LocalDateTime endTime, BacktestData data) {
+        this.symbols = symbols;
+        this.currency = currency;
+        this.initCash = initCash;
+        this.beginTime = beginTime;
+        this.endTime = endTime;
+        this.data = data;
+    }
+
+    public Result runOne(Params p) {
+        SimpleRuleSimulator simulator = new SimpleRuleSimulator(symbols, currency, initCash, beginTime, endTime, data,
+                p.observationMinute, p.percentage, p.higherThanExpected, p.conditionNum,
+                p.gapPrice, p.winPercentage, p.losePercentage, p.stopLoss);
+        simulator.setLogTrades(false);
+        simulator.run();
+        return new Result(p, simulator.getCash(), simulator.getTradeCount(), simulator.getMaxDrawdown());
+    }
+
+    /**
+     * 在pool上并行运行网格中的所有组合
+     * @return 按最终现金降序、最大回撤升序排列的结果
+     */
+    public List<Result> run(Grid grid, ForkJoinPool pool) {
+        try {
+            List<Result> results = pool.submit(() -> IntStream.range(0, grid.size()).parallel()
+                    .mapToObj(i -> runOne(grid.get(i)))
+                    .collect(Collectors.toList())).get();
+            results.sort(Comparator.comparing((Result r) -> r.finalCash).reversed()
+                    .thenComparingDouble(r -> r.maxDrawdown));
+            return results;
+        } catch (InterruptedException | ExecutionException e) {
+            logger.error("Parameter sweep failed: {}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    public List<Result> run(Grid grid) {
+        return run(grid, ForkJoinPool.commonPool());
+    }
+
+    public static void main(String[] args) {
+        String[] symbols = new String[]{"MSTX"};
+        CandlestickLoader candlestickLoader = new CandlestickLoader();
+        HashMap<String, List<Candlestick>> candlesticksMap = new HashMap<>();
+        for (String symbol : symbols) {
+            candlesticksMap.put(symbol, candlestickLoader.fromCsv(CandlestickLoader.symbolToPath.get(symbol),
+                    LocalDateTime.of(2024, 10, 30, 0, 0), LocalDateTime.now()));
+        }
+        BacktestData data = BacktestData.of(candlesticksMap, FixedPoint.DEFAULT_SCALE);
+        ParameterSweep sweep = new ParameterSweep(symbols, "USD", new BigDecimal("2000"),
+                LocalDateTime.of(2024, 11, 18, 0, 0), LocalDateTime.now(), data);
+
+        List<int[]> observationMinutes = new ArrayList<>();
+        List<BigDecimal[]> percentages = new ArrayList<>();
+        List<int[]> higherThanExpected = new ArrayList<>();
+        for (int first = 2; first <= 5; first++) {
+            for (String p1 : new String[]{"98", "98.5", "99", "99.25"}) {
+                for (String p2 : new String[]{"99", "99.5"}) {
+                    observationMinutes.add(new int[]{first, 1});
+                    percentages.add(new BigDecimal[]{new BigDecimal(p1), new BigDecimal(p2)});
+                    higherThanExpected.add(new int[]{-1, -1});
+                }
+            }
+        }
+        Grid grid = new Grid(observationMinutes, percentages, higherThanExpected, new int[]{1, 2},
+                Arrays.asList(new BigDecimal("0"), new BigDecimal("0.1")),
+                Arrays.asList(new BigDecimal("101"), new BigDecimal("102"), new BigDecimal("103")),
+                Arrays.asList(new BigDecimal("98"), new BigDecimal("102")),
+                new boolean[]{false, true});
+
+        long startTime = System.currentTimeMillis();
+        List<Result> results = sweep.run(grid);
+        long endTime = System.currentTimeMillis();
+        System.out.println(grid.size() + " configurations in " + (endTime - startTime) / 1000f + " s, " + data.indicators());
+        System.out.println(String.format("%12s %6s %8s  %s", "cash", "trades", "drawdown", "params"));
+        results.stream().limit(20).forEach(System.out::println);
+    }
+}
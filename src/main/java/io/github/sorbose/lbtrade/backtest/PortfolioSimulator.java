@@ -0,0 +1,125 @@
+package io.github.sorbose.lbtrade.backtest;
+
+import com.longport.Market;
+import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.strategy.SimpleRule;
+import io.github.sorbose.lbtrade.strategy.SimpleRuleBatch;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 多股票组合回测：所有股票的K线按时间多路归并成一个事件流，
+ * 每个股票在自己的分钟上独立运行SimpleRule，现金在股票之间共享。
+ * 买入时可用现金按未持仓的股票数平均分配，和Agent同时交易多个股票的方式一致
+ */
+public class PortfolioSimulator extends SimpleRuleSimulator {
+
+    public PortfolioSimulator(String[] symbols, String currency, BigDecimal initCash, LocalDateTime beginTime, LocalDateTime endTime, BacktestData data,
+                              int[] observationMinute, BigDecimal[] percentage, int[] highThanExpected, int conditionNum, BigDecimal gapPrice, BigDecimal winPercentage, BigDecimal losePercentage, boolean stopLoss) {
+        super(symbols, currency, initCash, beginTime, endTime, data,
+                observationMinute, percentage, highThanExpected, conditionNum, gapPrice, winPercentage, losePercentage, stopLoss);
+    }
+
+    @Override
+    public void run() {
+        strategy = new SimpleRule(new HashMap<>(), observationMinute, percentage, highThanExpected, conditionNum, gapPrice, winPercentage, losePercentage);
+        int n = symbols.length;
+        CandleSeries[] series = new CandleSeries[n];
+        MyStockPosition[] positions = new MyStockPosition[n];
+        long[][] buySignals = new long[n][];
+        for (int i = 0; i < n; i++) {
+            series[i] = data.get(symbols[i]);
+            if (series[i] == null) {
+                throw new IllegalArgumentException("No candlesticks for symbol " + symbols[i]);
+            }
+            positions[i] = stockPositions.get(symbols[i]);
+            buySignals[i] = data.indicators().buySignals(symbols[i], series[i], observationMinute, percentage, highThanExpected, conditionNum);
+        }
+        // 各股票的时区偏移一致，取第一个换算即可
+        long beginMinute = series[0].toEpochMinute(beginTime);
+        long endMinute = endTime == null ? Long.MAX_VALUE : series[0].toEpochMinute(endTime);
+        MergedTimeline timeline = new MergedTimeline(series, beginMinute, endMinute);
+
+        int[] buyIndex = new int[n];
+        long[] buyingPrice = new long[n];
+        int[] lastRow = new int[n];
+        Arrays.fill(lastRow, -1);
+        // 每个股票按最近一次收盘价计算的持仓市值，用于增量计算总资产
+        double[] holdingValue = new double[n];
+        double totalHoldingValue = 0;
+        int heldCount = 0;
+        double peak = initCash.doubleValue();
+        while (timeline.next()) {
+            int s = timeline.symbolIndex();
+            int row = timeline.row();
+            CandleSeries cs = series[s];
+            MyStockPosition position = positions[s];
+            int scale = cs.scale();
+            lastRow[s] = row;
+            boolean sold = false;
+            if (position.quantity.signum() > 0) {
+                boolean shouldSell = strategy.shouldSellAt(symbols[s], cs, buyIndex[s], row, buyingPrice[s], cs.high(row), stopLoss);
+                if (shouldSell) {
+                    sold = sell(symbols[s], position.quantity, FixedPoint.fromFixed(cs.low(row), scale),
+                            cs.localDateTime(row), position.costPrice);
+                    if (sold) {
+                        heldCount--;
+                    }
+                }
+            }
+            if (!sold && position.quantity.signum() == 0) {
+                long lastPrice = cs.low(row);
+                if (SimpleRuleBatch.isSet(buySignals[s], row)) {
+                    BigDecimal budget = cash.divide(BigDecimal.valueOf(n - heldCount), cash.scale(), RoundingMode.DOWN);
+                    BigDecimal quantity = budget.subtract(getBuyFee(Market.US, budget))
+                            .divide(FixedPoint.fromFixed(lastPrice, scale), 0, RoundingMode.DOWN);
+                    boolean haveBought = buy(symbols[s], quantity,
+                            FixedPoint.fromFixed(cs.high(row), scale), cs.localDateTime(row));
+                    if (haveBought) {
+                        buyIndex[s] = row;
+                        buyingPrice[s] = FixedPoint.toFixed(position.costPrice, scale);
+                        heldCount++;
+                    }
+                }
+            }
+            double value = position.quantity.doubleValue() * cs.close(row) / FixedPoint.pow10(scale);
+            totalHoldingValue += value - holdingValue[s];
+            holdingValue[s] = value;
+            double equity = cash.doubleValue() + totalHoldingValue;
+            peak = Math.max(peak, equity);
+            maxDrawdown = Math.max(maxDrawdown, (peak - equity) / peak);
+        }
+        for (int s = 0; s < n; s++) {
+            if (positions[s].quantity.signum() > 0) {
+                CandleSeries cs = series[s];
+                sell(symbols[s], positions[s].quantity, FixedPoint.fromFixed(cs.close(lastRow[s]), cs.scale()),
+                        cs.localDateTime(lastRow[s]), positions[s].costPrice);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        String[] symbols = new String[]{"SMST", "MSTX"};
+        CandlestickLoader candlestickLoader = new CandlestickLoader();
+        HashMap<String, List<Candlestick>> candlesticksMap = new HashMap<>();
+        for (String symbol : symbols) {
+            candlesticksMap.put(symbol, candlestickLoader.fromCsv(CandlestickLoader.symbolToPath.get(symbol),
+                    LocalDateTime.of(2024, 10, 30, 0, 0), LocalDateTime.now()));
+        }
+        PortfolioSimulator simulator = new PortfolioSimulator(symbols, "USD", new BigDecimal("2000"),
+                LocalDateTime.of(2024, 11, 18, 0, 0), LocalDateTime.now(),
+                BacktestData.of(candlesticksMap, FixedPoint.DEFAULT_SCALE),
+                new int[]{3, 1}, new BigDecimal[]{new BigDecimal("98"), new BigDecimal("99")}, new int[]{-1, -1}, 2,
+                new BigDecimal("0.1"), new BigDecimal("102"), new BigDecimal("102"), false);
+        simulator.run();
+        System.out.println(Arrays.toString(symbols) + " Trade count: " + simulator.getTradeCount());
+        System.out.println("Final cash: " + simulator.getCash() + ", max drawdown: " + simulator.getMaxDrawdown());
+    }
+}
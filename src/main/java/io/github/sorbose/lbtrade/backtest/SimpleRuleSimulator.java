@@ -2,9 +2,10 @@ package io.github.sorbose.lbtrade.backtest;
 
 import com.longport.Market;
 import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
 import io.github.sorbose.lbtrade.strategy.SimpleRule;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import io.github.sorbose.lbtrade.strategy.SimpleRuleBatch;
+import io.github.sorbose.lbtrade.util.FixedPoint;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -15,7 +16,7 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public class SimpleRuleSimulator extends AbstractSimulator {
-    private SimpleRule strategy;
+    SimpleRule strategy;
     int[] observationMinute;
     BigDecimal[] percentage;
     int[] highThanExpected;
@@ -26,12 +27,9 @@ public class SimpleRuleSimulator extends AbstractSimulator {
     boolean stopLoss;
     private static final BigDecimal fixedBuyFee = new BigDecimal("1.5");
     private static final BigDecimal fixedSellFee = new BigDecimal("1.5");
-    private static final Logger logger = LogManager.getLogger(SimpleRuleSimulator.class);
-    private int tradeCount = 0;
-
-    public SimpleRuleSimulator(String[] symbols, String currency, BigDecimal initCash, LocalDateTime beginTime, LocalDateTime endTime, HashMap<String, List<Candlestick>> candlesticksMap,
+    public SimpleRuleSimulator(String[] symbols, String currency, BigDecimal initCash, LocalDateTime beginTime, LocalDateTime endTime, BacktestData data,
                                int[] observationMinute, BigDecimal[] percentage, int[] highThanExpected, int conditionNum, BigDecimal gapPrice, BigDecimal winPercentage, BigDecimal losePercentage, boolean stopLoss) {
-        super(symbols, currency, initCash, beginTime, endTime, candlesticksMap);
+        super(symbols, currency, initCash, beginTime, endTime, data);
         this.observationMinute = observationMinute;
         this.percentage = percentage;
         this.highThanExpected = highThanExpected;
@@ -42,6 +40,12 @@ public class SimpleRuleSimulator extends AbstractSimulator {
         this.stopLoss = stopLoss;
     }
 
+    public SimpleRuleSimulator(String[] symbols, String currency, BigDecimal initCash, LocalDateTime beginTime, LocalDateTime endTime, HashMap<String, List<Candlestick>> candlesticksMap,
+                               int[] observationMinute, BigDecimal[] percentage, int[] highThanExpected, int conditionNum, BigDecimal gapPrice, BigDecimal winPercentage, BigDecimal losePercentage, boolean stopLoss) {
+        this(symbols, currency, initCash, beginTime, endTime, BacktestData.of(candlesticksMap, FixedPoint.DEFAULT_SCALE),
+                observationMinute, percentage, highThanExpected, conditionNum, gapPrice, winPercentage, losePercentage, stopLoss);
+    }
+
     @Override
     protected BigDecimal getBuyFee(Market market, BigDecimal estTotalPrice) {
         // 模拟时按照当前分钟的最高价买入，最低价卖出，默认均可成交，不再计算下单价和最新价之间的价格差
@@ -55,91 +59,60 @@ public class SimpleRuleSimulator extends AbstractSimulator {
 
     @Override
     public void run() {
-        List<Candlestick> candlesticks = candlesticksMap.get(symbols[0]);
-        strategy = new SimpleRule(candlesticksMap, observationMinute, percentage, highThanExpected, conditionNum, gapPrice, winPercentage, losePercentage);
-        for (Candlestick candlestick : candlesticks) {
-            LocalDateTime now = candlestick.getTimestamp().toLocalDateTime();
-            if (now.isBefore(beginTime)) {
+        // 策略只使用定点数序列，不需要共享的K线列表
+        strategy = new SimpleRule(new HashMap<>(), observationMinute, percentage, highThanExpected, conditionNum, gapPrice, winPercentage, losePercentage);
+        CandleSeries series = data.get(symbols[0]);
+        int scale = series.scale();
+        double priceUnit = FixedPoint.pow10(scale);
+        long beginMinute = series.toEpochMinute(beginTime);
+        MyStockPosition position = stockPositions.get(symbols[0]);
+        // 买入信号只取决于买入参数，同一份数据上的其他回测已经算过时直接复用
+        long[] buySignals = data.indicators().buySignals(symbols[0], series, observationMinute, percentage, highThanExpected, conditionNum);
+        int buyIndex = -1;
+        long buyingPrice = 0;
+        double peak = initCash.doubleValue();
+        for (int row = 0; row < series.size(); row++) {
+            if (series.time(row) < beginMinute) {
                 continue;
             }
             // 一分钟内买入或卖出只能操作一次
-            if (getTotalStocksAmount() > 0) {
+            boolean sold = false;
+            if (position.quantity.signum() > 0) {
                 // 还有持仓股票，优先考虑卖出
-                BigDecimal lastPrice = candlestick.getHigh();
-                BigDecimal buyingPrice = stockPositions.get(symbols[0]).costPrice;
-                LocalDateTime buyTime = getStockRecentBuyTime(symbols[0]);
-                boolean shouldSell = strategy.shouldSell(symbols[0], buyingPrice, buyTime, lastPrice, now, stopLoss);
+                boolean shouldSell = strategy.shouldSellAt(symbols[0], series, buyIndex, row, buyingPrice, series.high(row), stopLoss);
                 if (shouldSell) {
-                    BigDecimal quantity = stockPositions.get(symbols[0]).quantity;
                     // TODO: 模拟时卖出价格欠考虑，不应该用最高价
-                    sellAndPrint(quantity, candlestick.getLow(),
-                             now, buyingPrice);
-                    continue;
+                    sellAndPrint(position.quantity, FixedPoint.fromFixed(series.low(row), scale),
+                             series.localDateTime(row), position.costPrice);
+                    sold = true;
                 }
             }
-            BigDecimal lastPrice = candlestick.getLow();
-            boolean shouldBuy = strategy.shouldBuy(symbols[0], lastPrice, now);
-            if (shouldBuy) {
-                BigDecimal quantity = cash.subtract(getBuyFee(Market.US, cash)).
-                        divide(lastPrice, 0, RoundingMode.DOWN);
-                boolean haveBought = buy(symbols[0], quantity,
-                        candlestick.getHigh(), now);
+            if (!sold) {
+                long lastPrice = series.low(row);
+                boolean shouldBuy = SimpleRuleBatch.isSet(buySignals, row);
+                if (shouldBuy) {
+                    BigDecimal quantity = cash.subtract(getBuyFee(Market.US, cash)).
+                            divide(FixedPoint.fromFixed(lastPrice, scale), 0, RoundingMode.DOWN);
+                    boolean haveBought = buy(symbols[0], quantity,
+                            FixedPoint.fromFixed(series.high(row), scale), series.localDateTime(row));
+                    if (haveBought) {
+                        buyIndex = row;
+                        buyingPrice = FixedPoint.toFixed(position.costPrice, scale);
+                    }
+                }
             }
+            double equity = cash.doubleValue() + position.quantity.doubleValue() * series.close(row) / priceUnit;
+            peak = Math.max(peak, equity);
+            maxDrawdown = Math.max(maxDrawdown, (peak - equity) / peak);
         }
-        sellAndPrint(stockPositions.get(symbols[0]).quantity, candlesticks.get(candlesticks.size() - 1).getClose(), candlesticks.get(candlesticks.size() - 1).getTimestamp().toLocalDateTime(), stockPositions.get(symbols[0]).costPrice);
+        int last = series.size() - 1;
+        sellAndPrint(position.quantity, FixedPoint.fromFixed(series.close(last), scale), series.localDateTime(last), position.costPrice);
     }
 
     private void sellAndPrint(BigDecimal quantity, BigDecimal lastPrice, LocalDateTime now, BigDecimal buyingPrice) {
         sell(symbols[0], quantity, lastPrice, now, buyingPrice);
     }
 
-    private boolean buy(String symbol, BigDecimal quantity, BigDecimal lastPrice, LocalDateTime now) {
-        if (quantity.compareTo(BigDecimal.ZERO) <= 0) {
-            return false;
-        }
-        MyStockPosition stockPosition = stockPositions.get(symbol);
-        BigDecimal estCost = quantity.multiply(lastPrice);
-        BigDecimal buyFee = getBuyFee(Market.US, estCost);
-        BigDecimal realQuantity = cash.subtract(buyFee).divide(lastPrice, 0, RoundingMode.DOWN);
-        BigDecimal cost = realQuantity.multiply(lastPrice);
-        cash = cash.subtract(cost).subtract(buyFee);
-        stockPosition.costPrice = stockPosition.costPrice.multiply(stockPosition.quantity)
-                .add(lastPrice.multiply(realQuantity)).divide(stockPosition.quantity.add(realQuantity), 3, RoundingMode.HALF_UP);
-        stockPosition.quantity = stockPosition.quantity.add(realQuantity);
-        tradeRecords.add(new TradeRecord(now, lastPrice, realQuantity, TradeRecord.Direction.BUY, symbol));
-        logger.info("\n Buy " + symbol + " at " + lastPrice + " quantity "+ realQuantity + " at " + now);
-        logger.info("Balance After Buying: " + cash);
-        tradeCount++;
-        return true;
-    }
-
-    private boolean sell(String symbol, BigDecimal quantity, BigDecimal lastPrice,
-                         LocalDateTime localDateTime, BigDecimal buyingPrice) {
-        MyStockPosition stockPosition = stockPositions.get(symbol);
-        if (quantity.compareTo(BigDecimal.ZERO) <= 0 ||
-                stockPosition.quantity.compareTo(quantity) < 0) {
-            return false;
-        }
-        if (stockPosition.quantity.compareTo(quantity) == 0) {
-            stockPosition.costPrice = BigDecimal.ZERO;
-        } else {
-            stockPosition.costPrice = stockPosition.costPrice.multiply(stockPosition.quantity)
-                    .subtract(lastPrice.multiply(quantity)).divide(stockPosition.quantity.subtract(quantity), 3, RoundingMode.HALF_UP);
-        }
-
-        stockPosition.quantity = stockPosition.quantity.subtract(quantity);
-        BigDecimal sellAmount = quantity.multiply(lastPrice);
-        BigDecimal sellFee = getSellFee(Market.US, sellAmount);
-        cash = cash.add(sellAmount).subtract(sellFee);
-        tradeRecords.add(new TradeRecord(localDateTime, lastPrice, quantity, TradeRecord.Direction.SELL, symbol));
-
-        logger.info("\n Sell " + symbols[0] + " at " + lastPrice + " at " + localDateTime +
-                " with profit " + (lastPrice.subtract(buyingPrice)).multiply(quantity));
-        logger.info("Balance: " + cash);
-        tradeCount++;
-        return true;
-    }
-
     public static void main(String[] args) {
         String[] symbols = new String[]{"MSTX"};
         String[] inPaths = Arrays.stream(symbols).map(s -> CandlestickLoader.symbolToPath.get(s)).toArray(String[]::new);
@@ -0,0 +1,698 @@
+package io.github.sorbose.lbtrade.backtest;
+
+import com.longport.quote.*;
+import com.longport.trade.*;
+import io.github.sorbose.lbtrade.gateway.ApiGateway;
+import io.github.sorbose.lbtrade.gateway.QuoteGateway;
+import io.github.sorbose.lbtrade.gateway.TradeGateway;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.trade.Agent;
+import io.github.sorbose.lbtrade.trade.OrderTracker;
+import io.github.sorbose.lbtrade.trade.PipelineMetrics;
+import io.github.sorbose.lbtrade.util.Candlesticks;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+import io.github.sorbose.lbtrade.util.SdkObjects;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的模拟交易所，同时实现QuoteGateway和TradeGateway，Agent不需要任何修改就可以离线运行。
+ * 按时间顺序回放BacktestData中的1分钟K线，每根K线拆成四个报价推送：阳线依次为开、低、高、收，阴线为开、高、低、收，
+ * 收盘的报价之后再推送这根K线。每个报价撮合该股票的挂单：限价买单在报价不高于委托价时以报价全部成交，卖单反之，
+ * 成交、撤单都会推送订单变化。起始时间之前的K线作为历史数据，供拉取K线时使用。
+ * <p>
+ * 时间以回放到的时间为准（clock()），但OrderTracker的到期撤单仍按真实时间计时。
+ * 推送在单独的线程上按产生的顺序发出，队列满时回放等待。推送只是交给Agent，Agent异步决策，
+ * 回放不会等决策结束，所以决策时交易所可能已经回放到之后的报价。需要逐个报价同步时用setBarrier()，
+ * 每个报价的推送发出后等屏障（如Agent.awaitIdle）返回再回放下一个
+ */
+public class SimulatedExchange implements QuoteGateway, TradeGateway, AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(SimulatedExchange.class);
+    private static final String CURRENCY = "USD";
+    private static final int TICKS_PER_BAR = 4;
+    private static final long TICK_MILLIS = 60_000 / TICKS_PER_BAR;
+
+    /** 模拟的订单，只在持有交易所的锁时访问 */
+    private static final class SimOrder {
+        final String orderId;
+        final String symbol;
+        final OrderSide side;
+        final BigDecimal quantity;
+        final BigDecimal price;
+        final OffsetDateTime submittedAt;
+        OrderStatus status = OrderStatus.New;
+        BigDecimal executedQuantity = BigDecimal.ZERO;
+        BigDecimal executedPrice;
+        OffsetDateTime updatedAt;
+
+        SimOrder(String orderId, String symbol, OrderSide side, BigDecimal quantity, BigDecimal price, OffsetDateTime submittedAt) {
+            this.orderId = orderId;
+            this.symbol = symbol;
+            this.side = side;
+            this.quantity = quantity;
+            this.price = price;
+            this.submittedAt = submittedAt;
+            this.updatedAt = submittedAt;
+        }
+    }
+
+    /** 持仓，只在持有交易所的锁时访问 */
+    private static final class Holding {
+        BigDecimal quantity = BigDecimal.ZERO;
+        BigDecimal availableQuantity = BigDecimal.ZERO;
+        BigDecimal costPrice = BigDecimal.ZERO;
+    }
+
+    private final String[] symbols;
+    private final CandleSeries[] series;
+    private final Map<String, Integer> symbolIndex = new HashMap<>();
+    private final long beginMinute;
+    private final long endMinute;
+    private final double speedup;
+    private final ApiGateway limits = ApiGateway.unlimited();
+
+    // 以下回放状态只在持有锁时访问
+    /** 每个股票当前回放到的行，-1表示还没有开始 */
+    private final int[] row;
+    /** 当前K线到目前为止的最新价、最高价、最低价（定点数），没有报价时最新价为-1 */
+    private final long[] last;
+    private final long[] high;
+    private final long[] low;
+    private volatile long nowMillis;
+
+    // 账户，只在持有锁时访问
+    private BigDecimal cash;
+    private final BigDecimal financeLimit;
+    private final Map<String, Holding> holdings = new HashMap<>();
+    private final Map<String, SimOrder> orders = new LinkedHashMap<>();
+    private final Map<String, List<SimOrder>> openOrders = new HashMap<>();
+    private long nextOrderId = 1;
+
+    private volatile QuoteHandler quoteHandler;
+    private volatile CandlestickHandler candlestickHandler;
+    private volatile OrderChangedHandler orderHandler;
+    private final Set<String> quoteSubscriptions = Collections.synchronizedSet(new HashSet<>());
+    private final Set<String> candlestickSubscriptions = Collections.synchronizedSet(new HashSet<>());
+    private volatile boolean privateSubscribed;
+
+    /** 持有锁时产生、尚未放入推送队列的推送，保持产生的顺序 */
+    private final List<Runnable> pending = new ArrayList<>();
+    private final BlockingQueue<Runnable> pushes = new ArrayBlockingQueue<>(4096);
+    private final Thread pusher;
+    private volatile boolean closed;
+    private long ticks;
+    private long fills;
+    private volatile Barrier barrier;
+
+    /** 每个报价的推送发出后等待的屏障 */
+    public interface Barrier {
+        void await() throws InterruptedException;
+    }
+
+    /**
+     * @param data 回放的数据，[beginMinute, endMinute)之间的K线逐根回放，之前的作为历史
+     * @param speedup 相对真实时间的倍数，如60表示1秒回放1分钟；为0时不等待，尽快回放
+     * @param cash 初始现金
+     * @param financeLimit 融资额度，现金为负时占用
+     */
+    public SimulatedExchange(BacktestData data, LocalDateTime begin, LocalDateTime end, double speedup,
+                             BigDecimal cash, BigDecimal financeLimit) {
+        List<String> names = new ArrayList<>(data.symbols());
+        Collections.sort(names);
+        this.symbols = names.toArray(new String[0]);
+        this.series = new CandleSeries[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            series[i] = data.get(symbols[i]);
+            symbolIndex.put(symbols[i], i);
+        }
+        ZoneOffset offset = series.length == 0 ? ZoneOffset.UTC : series[0].offset();
+        this.beginMinute = begin.toEpochSecond(offset) / 60;
+        this.endMinute = end == null ? Long.MAX_VALUE : end.toEpochSecond(offset) / 60;
+        this.speedup = speedup;
+        this.cash = cash;
+        this.financeLimit = financeLimit;
+        this.row = new int[symbols.length];
+        this.last = new long[symbols.length];
+        this.high = new long[symbols.length];
+        this.low = new long[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            row[i] = series[i].lowerBound(beginMinute) - 1;
+            last[i] = row[i] >= 0 ? series[i].close(row[i]) : -1;
+            high[i] = low[i] = last[i];
+        }
+        this.nowMillis = beginMinute * 60_000 - 1;
+        pusher = new Thread(this::deliverPushes, "exchange-push");
+        pusher.setDaemon(true);
+        pusher.start();
+    }
+
+    public String[] symbols() {
+        return symbols.clone();
+    }
+
+    /** 设置后每个报价的推送发出后都调用barrier.await()，返回后再回放下一个报价，为null时不等待 */
+    public void setBarrier(Barrier barrier) {
+        this.barrier = barrier;
+    }
+
+    // ---------------- 回放 ----------------
+
+    /**
+     * 在当前线程上回放到结束时间，返回发出的报价数。结束后等待所有推送发出
+     */
+    public long run() throws InterruptedException {
+        CandleSeries[] ranges = series;
+        MergedTimeline timeline = new MergedTimeline(ranges, beginMinute, endMinute);
+        long wallBegin = System.nanoTime();
+        long simBegin = beginMinute * 60_000;
+        while (!closed && timeline.next()) {
+            int s = timeline.symbolIndex();
+            int r = timeline.row();
+            CandleSeries c = series[s];
+            long open = c.open(r);
+            long close = c.close(r);
+            long[] path = close >= open
+                    ? new long[]{open, c.low(r), c.high(r), close}
+                    : new long[]{open, c.high(r), c.low(r), close};
+            for (int k = 0; k < TICKS_PER_BAR; k++) {
+                long time = c.time(r) * 60_000 + k * TICK_MILLIS;
+                pace(wallBegin, simBegin, time);
+                synchronized (this) {
+                    tick(s, r, k, path[k], time);
+                }
+                publish();
+                Barrier barrier = this.barrier;
+                if (barrier != null) {
+                    awaitPushes();
+                    barrier.await();
+                }
+            }
+        }
+        awaitPushes();
+        double seconds = (System.nanoTime() - wallBegin) / 1e9;
+        logger.info("Replayed {} ticks in {} s ({} ticks/s), {} fills, {} orders",
+                ticks, String.format("%.2f", seconds), String.format("%.0f", ticks / Math.max(seconds, 1e-9)), fills, orders.size());
+        return ticks;
+    }
+
+    /** 按speedup等到回放时间time对应的真实时间 */
+    private void pace(long wallBegin, long simBegin, long time) throws InterruptedException {
+        if (speedup <= 0) {
+            return;
+        }
+        long due = wallBegin + (long) ((time - simBegin) * 1_000_000 / speedup);
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /** 回放一个报价：更新当前K线，推送报价，撮合挂单，收盘时推送K线。需持有锁 */
+    private void tick(int s, int r, int k, long price, long time) {
+        nowMillis = Math.max(nowMillis, time);
+        if (k == 0) {
+            row[s] = r;
+            high[s] = low[s] = price;
+        }
+        last[s] = price;
+        high[s] = Math.max(high[s], price);
+        low[s] = Math.min(low[s], price);
+        ticks++;
+        String symbol = symbols[s];
+        if (quoteHandler != null && quoteSubscriptions.contains(symbol)) {
+            PushQuote quote = SdkObjects.create(PushQuote.class,
+                    "lastDone", decimal(s, price), "open", decimal(s, series[s].open(r)),
+                    "high", decimal(s, high[s]), "low", decimal(s, low[s]),
+                    "volume", k == TICKS_PER_BAR - 1 ? series[s].volume(r) : 0L,
+                    "timestamp", timestamp(s, time));
+            QuoteHandler handler = quoteHandler;
+            pending.add(() -> handler.onQuote(symbol, quote));
+        }
+        match(s, price);
+        if (k == TICKS_PER_BAR - 1 && candlestickHandler != null && candlestickSubscriptions.contains(symbol)) {
+            PushCandlestick push = SdkObjects.create(PushCandlestick.class,
+                    "period", Period.Min_1, "candlestick", candlestick(s, r));
+            CandlestickHandler handler = candlestickHandler;
+            pending.add(() -> handler.onCandlestick(symbol, push));
+        }
+    }
+
+    /** 用最新价撮合该股票的挂单，需持有锁 */
+    private void match(int s, long price) {
+        List<SimOrder> open = openOrders.get(symbols[s]);
+        if (open == null || open.isEmpty()) {
+            return;
+        }
+        BigDecimal tradePrice = decimal(s, price);
+        Iterator<SimOrder> it = open.iterator();
+        while (it.hasNext()) {
+            SimOrder order = it.next();
+            boolean crossed = order.side == OrderSide.Buy
+                    ? tradePrice.compareTo(order.price) <= 0
+                    : tradePrice.compareTo(order.price) >= 0;
+            if (crossed) {
+                it.remove();
+                fill(order, tradePrice);
+            }
+        }
+    }
+
+    /** 全部成交，更新账户并推送，需持有锁 */
+    private void fill(SimOrder order, BigDecimal price) {
+        BigDecimal amount = order.quantity.multiply(price);
+        Holding holding = holdings.computeIfAbsent(order.symbol, k -> new Holding());
+        if (order.side == OrderSide.Buy) {
+            BigDecimal quantity = holding.quantity.add(order.quantity);
+            holding.costPrice = holding.quantity.multiply(holding.costPrice).add(amount)
+                    .divide(quantity, 4, RoundingMode.HALF_UP);
+            holding.quantity = quantity;
+            holding.availableQuantity = holding.availableQuantity.add(order.quantity);
+            cash = cash.subtract(amount);
+        } else {
+            // 可卖数量在挂单时已经扣除
+            holding.quantity = holding.quantity.subtract(order.quantity);
+            if (holding.quantity.signum() <= 0) {
+                holdings.remove(order.symbol);
+            }
+            cash = cash.add(amount);
+        }
+        order.status = OrderStatus.Filled;
+        order.executedQuantity = order.quantity;
+        order.executedPrice = price;
+        order.updatedAt = now();
+        fills++;
+        emit(order, order.quantity, price);
+    }
+
+    /** 产生一条订单推送，需持有锁 */
+    private void emit(SimOrder order, BigDecimal lastShare, BigDecimal lastPrice) {
+        if (orderHandler == null || !privateSubscribed) {
+            return;
+        }
+        PushOrderChanged push = SdkObjects.create(PushOrderChanged.class,
+                "side", order.side, "symbol", order.symbol, "orderId", order.orderId, "status", order.status,
+                "submittedQuantity", order.quantity, "executedQuantity", order.executedQuantity,
+                "submittedPrice", order.price, "executedPrice", order.executedPrice,
+                "submittedAt", order.submittedAt, "updatedAt", order.updatedAt, "currency", CURRENCY,
+                "lastShare", lastShare, "lastPrice", lastPrice);
+        OrderChangedHandler handler = orderHandler;
+        pending.add(() -> handler.onOrderChanged(push));
+    }
+
+    /** 把持有锁时产生的推送按顺序放入推送队列，不能在持有锁时调用 */
+    private void publish() throws InterruptedException {
+        List<Runnable> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (Runnable push : batch) {
+            pushes.put(push);
+        }
+    }
+
+    private void publishQuietly() {
+        try {
+            publish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deliverPushes() {
+        while (!closed) {
+            try {
+                Runnable push = pushes.take();
+                push.run();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                logger.error("Error delivering push: {}", e.getMessage());
+            }
+        }
+    }
+
+    /** 等待推送队列中的推送全部发出 */
+    public void awaitPushes() throws InterruptedException {
+        CompletableFuture<Void> marker = new CompletableFuture<>();
+        pushes.put(() -> marker.complete(null));
+        marker.join();
+    }
+
+    // ---------------- 行情 ----------------
+
+    @Override
+    public synchronized CompletableFuture<SecurityQuote[]> getQuote(String[] symbols) {
+        List<SecurityQuote> quotes = new ArrayList<>();
+        for (String symbol : symbols) {
+            Integer s = symbolIndex.get(symbol);
+            if (s == null || last[s] < 0) {
+                continue;
+            }
+            quotes.add(SdkObjects.create(SecurityQuote.class, "symbol", symbol, "lastDone", decimal(s, last[s]),
+                    "open", decimal(s, series[s].open(row[s])), "high", decimal(s, high[s]), "low", decimal(s, low[s]),
+                    "timestamp", timestamp(s, nowMillis)));
+        }
+        return CompletableFuture.completedFuture(quotes.toArray(new SecurityQuote[0]));
+    }
+
+    @Override
+    public CompletableFuture<SecurityCalcIndex[]> getCalcIndexes(String[] symbols, CalcIndex[] indexes) {
+        return CompletableFuture.completedFuture(new SecurityCalcIndex[0]);
+    }
+
+    /** 最近count根K线，最后一根是当前正在回放的K线，只包含已经回放的报价 */
+    @Override
+    public synchronized CompletableFuture<Candlestick[]> getCandlesticks(String symbol, Period period, int count, AdjustType adjustType) {
+        Integer s = symbolIndex.get(symbol);
+        if (s == null || period != Period.Min_1) {
+            return failed(new IllegalArgumentException("Unsupported candlesticks " + symbol + " " + period));
+        }
+        int to = row[s] + 1;
+        int from = Math.max(0, to - count);
+        Candlestick[] candlesticks = new Candlestick[to - from];
+        for (int r = from; r < to; r++) {
+            candlesticks[r - from] = candlestick(s, r);
+        }
+        return CompletableFuture.completedFuture(candlesticks);
+    }
+
+    @Override
+    public void setOnQuote(QuoteHandler handler) {
+        quoteHandler = handler;
+    }
+
+    @Override
+    public void setOnCandlestick(CandlestickHandler handler) {
+        candlestickHandler = handler;
+    }
+
+    @Override
+    public CompletableFuture<Void> subscribe(String[] symbols, int flags, boolean isFirstPush) {
+        quoteSubscriptions.addAll(Arrays.asList(symbols));
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Candlestick[]> subscribeCandlesticks(String symbol, Period period) {
+        candlestickSubscriptions.add(symbol);
+        return getCandlesticks(symbol, period, 1, AdjustType.ForwardAdjust);
+    }
+
+    @Override
+    public Clock clock() {
+        return new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return Clock.fixed(instant(), zone);
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(nowMillis);
+            }
+        };
+    }
+
+    @Override
+    public ApiGateway limits() {
+        return limits;
+    }
+
+    // ---------------- 交易 ----------------
+
+    /** 只支持限价单。买入不能超过现金加剩余融资额度，卖出不能超过可卖数量，能成交的立即以最新价成交 */
+    @Override
+    public CompletableFuture<SubmitOrderResponse> submitOrder(SubmitOrderOptions options) {
+        String symbol = SdkObjects.get(options, "symbol");
+        OrderSide side = SdkObjects.get(options, "side");
+        BigDecimal quantity = SdkObjects.get(options, "submittedQuantity");
+        BigDecimal price = SdkObjects.get(options, "submittedPrice");
+        OrderType type = SdkObjects.get(options, "orderType");
+        SubmitOrderResponse response;
+        synchronized (this) {
+            Integer s = symbolIndex.get(symbol);
+            if (s == null || type != OrderType.LO || price == null || quantity == null || quantity.signum() <= 0) {
+                return failed(new IllegalArgumentException("Unsupported order " + symbol + " " + type + " " + quantity + "@" + price));
+            }
+            if (side == OrderSide.Buy && quantity.multiply(price).compareTo(buyingPower()) > 0) {
+                return failed(new IllegalStateException("Insufficient buying power for " + quantity + " " + symbol));
+            }
+            if (side == OrderSide.Sell) {
+                Holding holding = holdings.get(symbol);
+                if (holding == null || holding.availableQuantity.compareTo(quantity) < 0) {
+                    return failed(new IllegalStateException("Insufficient available quantity for " + quantity + " " + symbol));
+                }
+                holding.availableQuantity = holding.availableQuantity.subtract(quantity);
+            }
+            SimOrder order = new SimOrder("SIM" + nextOrderId++, symbol, side, quantity, price, now());
+            orders.put(order.orderId, order);
+            openOrders.computeIfAbsent(symbol, k -> new ArrayList<>()).add(order);
+            emit(order, null, null);
+            if (last[s] >= 0) {
+                match(s, last[s]);
+            }
+            response = SdkObjects.create(SubmitOrderResponse.class, "orderId", order.orderId);
+        }
+        publishQuietly();
+        return CompletableFuture.completedFuture(response);
+    }
+
+    @Override
+    public CompletableFuture<Void> cancelOrder(String orderId) {
+        synchronized (this) {
+            SimOrder order = orders.get(orderId);
+            if (order == null || OrderTracker.isFinished(order.status)) {
+                return failed(new IllegalStateException("Order " + orderId + " is not open"));
+            }
+            openOrders.get(order.symbol).remove(order);
+            if (order.side == OrderSide.Sell) {
+                Holding holding = holdings.get(order.symbol);
+                if (holding != null) {
+                    holding.availableQuantity = holding.availableQuantity.add(order.quantity);
+                }
+            }
+            order.status = OrderStatus.Canceled;
+            order.updatedAt = now();
+            emit(order, null, null);
+        }
+        publishQuietly();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /** 按股票、状态和方向过滤，最近更新的在前 */
+    @Override
+    public synchronized CompletableFuture<Order[]> getTodayOrders(GetTodayOrdersOptions options) {
+        String symbol = SdkObjects.get(options, "symbol");
+        OrderStatus[] statuses = SdkObjects.get(options, "status");
+        OrderSide side = SdkObjects.get(options, "side");
+        List<Order> result = new ArrayList<>();
+        for (SimOrder order : orders.values()) {
+            if ((symbol == null || symbol.equals(order.symbol)) && (side == null || side == order.side)
+                    && (statuses == null || Arrays.asList(statuses).contains(order.status))) {
+                result.add(SdkObjects.create(Order.class, "orderId", order.orderId, "status", order.status,
+                        "symbol", order.symbol, "side", order.side, "quantity", order.quantity,
+                        "executedQuantity", order.executedQuantity, "price", order.price,
+                        "executedPrice", order.executedPrice, "submittedAt", order.submittedAt, "updatedAt", order.updatedAt));
+            }
+        }
+        Collections.reverse(result);
+        result.sort((a, b) -> b.getUpdatedAt().compareTo(a.getUpdatedAt()));
+        return CompletableFuture.completedFuture(result.toArray(new Order[0]));
+    }
+
+    @Override
+    public synchronized CompletableFuture<OrderDetail> getOrderDetail(String orderId) {
+        SimOrder order = orders.get(orderId);
+        if (order == null) {
+            return failed(new IllegalArgumentException("Unknown order " + orderId));
+        }
+        return CompletableFuture.completedFuture(SdkObjects.create(OrderDetail.class, "orderId", order.orderId,
+                "status", order.status, "symbol", order.symbol, "side", order.side, "quantity", order.quantity,
+                "executedQuantity", order.executedQuantity, "price", order.price, "executedPrice", order.executedPrice,
+                "submittedAt", order.submittedAt, "updatedAt", order.updatedAt));
+    }
+
+    @Override
+    public synchronized CompletableFuture<AccountBalance[]> getAccountBalance(String currency) {
+        BigDecimal marketValue = BigDecimal.ZERO;
+        for (Map.Entry<String, Holding> entry : holdings.entrySet()) {
+            int s = symbolIndex.get(entry.getKey());
+            marketValue = marketValue.add(entry.getValue().quantity.multiply(decimal(s, last[s])));
+        }
+        AccountBalance balance = SdkObjects.create(AccountBalance.class, "totalCash", cash,
+                "remainingFinanceAmount", remainingFinanceAmount(), "maxFinanceAmount", financeLimit,
+                "netAssets", cash.add(marketValue), "buyPower", buyingPower(), "currency", CURRENCY);
+        return CompletableFuture.completedFuture(new AccountBalance[]{balance});
+    }
+
+    @Override
+    public synchronized CompletableFuture<StockPositionsResponse> getStockPositions(GetStockPositionsOptions options) {
+        String[] filter = SdkObjects.get(options, "symbols");
+        List<String> wanted = filter == null ? null : Arrays.asList(filter);
+        List<StockPosition> positions = new ArrayList<>();
+        for (Map.Entry<String, Holding> entry : holdings.entrySet()) {
+            if (wanted == null || wanted.contains(entry.getKey())) {
+                Holding holding = entry.getValue();
+                positions.add(SdkObjects.create(StockPosition.class, "symbol", entry.getKey(),
+                        "quantity", holding.quantity, "availableQuantity", holding.availableQuantity,
+                        "costPrice", holding.costPrice, "currency", CURRENCY));
+            }
+        }
+        StockPositionChannel channel = SdkObjects.create(StockPositionChannel.class,
+                "accountChannel", "lb", "positions", positions.toArray(new StockPosition[0]));
+        return CompletableFuture.completedFuture(SdkObjects.create(StockPositionsResponse.class,
+                "channels", new StockPositionChannel[]{channel}));
+    }
+
+    /** 按最新价（或指定的价格）计算，margin包括剩余融资额度 */
+    @Override
+    public synchronized CompletableFuture<EstimateMaxPurchaseQuantityResponse> getEstimateMaxPurchaseQuantity(EstimateMaxPurchaseQuantityOptions options) {
+        String symbol = SdkObjects.get(options, "symbol");
+        BigDecimal price = SdkObjects.get(options, "price");
+        Integer s = symbolIndex.get(symbol);
+        if (price == null && s != null && last[s] >= 0) {
+            price = decimal(s, last[s]);
+        }
+        if (price == null || price.signum() <= 0) {
+            return failed(new IllegalArgumentException("No price for " + symbol));
+        }
+        BigDecimal cashMax = cash.max(BigDecimal.ZERO).divide(price, 0, RoundingMode.FLOOR);
+        BigDecimal marginMax = buyingPower().max(BigDecimal.ZERO).divide(price, 0, RoundingMode.FLOOR);
+        return CompletableFuture.completedFuture(SdkObjects.create(EstimateMaxPurchaseQuantityResponse.class,
+                "cashMaxQty", cashMax, "marginMaxQty", marginMax));
+    }
+
+    @Override
+    public void setOnOrderChange(OrderChangedHandler handler) {
+        orderHandler = handler;
+    }
+
+    @Override
+    public CompletableFuture<Void> subscribe(TopicType[] topics) {
+        privateSubscribed = true;
+        return CompletableFuture.completedFuture(null);
+    }
+
+    // ---------------- 账户 ----------------
+
+    /** 剩余融资额度，需持有锁 */
+    private BigDecimal remainingFinanceAmount() {
+        return financeLimit.subtract(cash.negate().max(BigDecimal.ZERO));
+    }
+
+    /** 现金加剩余融资额度，减去挂单中的买单金额，需持有锁 */
+    private BigDecimal buyingPower() {
+        BigDecimal power = cash.max(BigDecimal.ZERO).add(remainingFinanceAmount());
+        for (List<SimOrder> open : openOrders.values()) {
+            for (SimOrder order : open) {
+                if (order.side == OrderSide.Buy) {
+                    power = power.subtract(order.quantity.multiply(order.price));
+                }
+            }
+        }
+        return power;
+    }
+
+    public synchronized BigDecimal cash() {
+        return cash;
+    }
+
+    public synchronized long fills() {
+        return fills;
+    }
+
+    // ---------------- 工具 ----------------
+
+    private BigDecimal decimal(int s, long fixed) {
+        return FixedPoint.fromFixed(fixed, series[s].scale());
+    }
+
+    private OffsetDateTime timestamp(int s, long millis) {
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), series[s].offset());
+    }
+
+    private OffsetDateTime now() {
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(nowMillis), ZoneOffset.UTC);
+    }
+
+    /** 第r行的K线，当前正在回放的K线只包含已经回放的报价。需持有锁 */
+    private Candlestick candlestick(int s, int r) {
+        CandleSeries c = series[s];
+        boolean current = r == row[s];
+        return Candlesticks.create(
+                decimal(s, c.open(r)),
+                decimal(s, current ? high[s] : c.high(r)),
+                decimal(s, current ? low[s] : c.low(r)),
+                decimal(s, current ? last[s] : c.close(r)),
+                c.volume(r),
+                BigDecimal.ZERO,
+                c.timestamp(r));
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        pusher.interrupt();
+    }
+
+    /** 用列式存储中的历史数据离线运行Agent，输出回放速度和各阶段延迟 */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> symbolToDir = new HashMap<>();
+        for (Map.Entry<String, String> entry : CandlestickLoader.symbolToPath.entrySet()) {
+            symbolToDir.put(entry.getKey() + ".US", CandlestickLoader.toColumnarPath(entry.getValue()));
+        }
+        LocalDateTime begin = LocalDateTime.of(2024, 3, 1, 0, 0);
+        LocalDateTime end = LocalDateTime.of(2024, 3, 8, 0, 0);
+        // 留出一天作为拉取K线时的历史数据
+        BacktestData data = BacktestData.fromColumnar(symbolToDir, begin.minusDays(1), end);
+        try (SimulatedExchange exchange = new SimulatedExchange(data, begin, end, 0,
+                new BigDecimal("100000"), new BigDecimal("500000"))) {
+            Agent agent = new Agent(exchange, exchange, exchange.symbols(),
+                    new BigDecimal("0.015"), new BigDecimal("0.015"), new BigDecimal("408000"),
+                    new int[]{2, 1}, new BigDecimal[]{new BigDecimal("99.25"), new BigDecimal("99.5")},
+                    new int[]{-1, -1}, 2, new BigDecimal("0.1"), new BigDecimal("102"), new BigDecimal("102"), false,
+                    new BigDecimal("7"), new BigDecimal("7"), new BigDecimal("3"), 70, 30);
+            agent.prepare(300);
+            agent.runBySubscribe();
+            // 每个报价都决策完再回放下一个，决策看不到之后的报价
+            exchange.setBarrier(() -> {
+                if (!agent.awaitIdle(30, TimeUnit.SECONDS)) {
+                    logger.warn("Agent still busy after 30 s at {}", exchange.clock().instant());
+                }
+            });
+            exchange.run();
+            PipelineMetrics.DEFAULT.report(null);
+            agent.stop();
+            logger.info("Final cash {}", exchange.cash());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package io.github.sorbose.lbtrade.gateway;
+
+import io.github.sorbose.lbtrade.util.RateLimiter;
+import io.github.sorbose.lbtrade.util.SingleFlight;
+import io.github.sorbose.lbtrade.util.SlidingWindow;
+import io.github.sorbose.lbtrade.util.TokenBucket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OpenAPI请求的统一出口：按接口类别用令牌桶或滑动窗口限流，超出速率的请求排队而不是被服务端拒绝；
+ * 同一类别中下单、撤单优先于查询；带key的请求在进行中时，相同key的请求共享结果。
+ * 调用方不会被阻塞，请求在取到令牌时发出
+ */
+public class ApiGateway {
+    private static final Logger logger = LogManager.getLogger(ApiGateway.class);
+
+    /**
+     * 默认限流：行情接口任意1秒内10次；交易接口任意30秒内30次，两次间隔不小于20毫秒。
+     * 用滑动窗口而不是令牌桶：令牌桶在满额突发后还会放行窗口内补充的令牌，会超过服务端的限制
+     */
+    public static final ApiGateway DEFAULT = new ApiGateway(
+            new SlidingWindow(10, 1, TimeUnit.SECONDS),
+            new SlidingWindow(30, 30, TimeUnit.SECONDS, 20, TimeUnit.MILLISECONDS));
+
+    /** 接口类别，决定使用哪个令牌桶和排队的优先级 */
+    public enum Endpoint {
+        /** 行情查询 */
+        QUOTE(0, 1),
+        /** 下单、撤单 */
+        ORDER(1, 0),
+        /** 账户、持仓、订单等交易查询，与下单共用交易接口的限额 */
+        TRADE_QUERY(1, 1);
+
+        final int lane;
+        /** 0最优先 */
+        final int priority;
+
+        Endpoint(int lane, int priority) {
+            this.lane = lane;
+            this.priority = priority;
+        }
+    }
+
+    private static final int PRIORITIES = 2;
+
+    /** 共用一个令牌桶的请求队列 */
+    private static final class Lane {
+        final RateLimiter bucket;
+        @SuppressWarnings("unchecked")
+        final ArrayDeque<Runnable>[] queues = new ArrayDeque[PRIORITIES];
+        /** 已经安排了一次等待令牌后的处理 */
+        boolean drainScheduled;
+
+        Lane(RateLimiter bucket) {
+            this.bucket = bucket;
+            for (int i = 0; i < PRIORITIES; i++) {
+                queues[i] = new ArrayDeque<>();
+            }
+        }
+
+        ArrayDeque<Runnable> highest() {
+            for (ArrayDeque<Runnable> queue : queues) {
+                if (!queue.isEmpty()) {
+                    return queue;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Lane[] lanes;
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "api-gateway");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LongAdder throttled = new LongAdder();
+
+    public ApiGateway(RateLimiter quoteBucket, RateLimiter tradeBucket) {
+        lanes = new Lane[]{new Lane(quoteBucket), new Lane(tradeBucket)};
+    }
+
+    /** 不限流，只保留合并相同请求，用于离线模拟 */
+    public static ApiGateway unlimited() {
+        return new ApiGateway(new TokenBucket(Integer.MAX_VALUE, 1e12), new TokenBucket(Integer.MAX_VALUE, 1e12));
+    }
+
+    /**
+     * 限流后发出请求
+     * @param request 发出请求，可以抛出受检异常（如OpenApiException），异常会使返回的future异常完成
+     */
+    public <T> CompletableFuture<T> call(Endpoint endpoint, Callable<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Lane lane = lanes[endpoint.lane];
+        Runnable start = () -> {
+            try {
+                request.call().whenComplete((value, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        };
+        boolean drainNow;
+        synchronized (lane) {
+            lane.queues[endpoint.priority].add(start);
+            drainNow = !lane.drainScheduled;
+        }
+        if (drainNow) {
+            drain(lane);
+        }
+        return result;
+    }
+
+    /**
+     * 与call()相同，但key相同的请求在进行中时直接共享它的结果，只用于没有副作用的查询
+     * @param key 区分请求类型和参数，如"positions:TSLA.US"
+     */
+    public <T> CompletableFuture<T> call(Endpoint endpoint, Object key, Callable<CompletableFuture<T>> request) {
+        return singleFlight.run(key, () -> call(endpoint, request));
+    }
+
+    /** 在令牌允许的范围内按优先级发出排队的请求，令牌不足时安排在补充后再处理 */
+    private void drain(Lane lane) {
+        List<Runnable> ready = new ArrayList<>();
+        long waitNanos = 0;
+        synchronized (lane) {
+            lane.drainScheduled = false;
+            ArrayDeque<Runnable> queue;
+            while ((queue = lane.highest()) != null) {
+                waitNanos = lane.bucket.tryAcquire();
+                if (waitNanos > 0) {
+                    lane.drainScheduled = true;
+                    break;
+                }
+                ready.add(queue.poll());
+            }
+        }
+        if (waitNanos > 0) {
+            throttled.increment();
+            timer.schedule(() -> drain(lane), waitNanos, TimeUnit.NANOSECONDS);
+        }
+        for (Runnable start : ready) {
+            start.run();
+        }
+    }
+
+    /** 排队等待令牌的请求数 */
+    public int queued() {
+        int count = 0;
+        for (Lane lane : lanes) {
+            synchronized (lane) {
+                for (ArrayDeque<Runnable> queue : lane.queues) {
+                    count += queue.size();
+                }
+            }
+        }
+        return count;
+    }
+
+    /** 因为令牌不足而推迟处理的次数 */
+    public long throttledCount() {
+        return throttled.sum();
+    }
+
+    /** 因为相同请求在进行中而被合并的请求数 */
+    public long coalescedCount() {
+        return singleFlight.coalescedCount();
+    }
+
+    public void logStats() {
+        logger.info("ApiGateway queued {}, throttled {}, coalesced {}", queued(), throttledCount(), coalescedCount());
+    }
+}
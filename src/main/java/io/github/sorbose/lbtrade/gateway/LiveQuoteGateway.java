@@ -0,0 +1,67 @@
+package io.github.sorbose.lbtrade.gateway;
+
+import com.longport.OpenApiException;
+import com.longport.quote.*;
+import io.github.sorbose.lbtrade.TradeMain;
+
+import java.util.concurrent.CompletableFuture;
+
+/** 实盘行情，直接转给QuoteContext */
+public class LiveQuoteGateway implements QuoteGateway {
+    private static volatile LiveQuoteGateway instance;
+    private final QuoteContext context;
+
+    public LiveQuoteGateway(QuoteContext context) {
+        this.context = context;
+    }
+
+    /** 使用TradeMain中行情连接的共享实例。第一次调用时才建立连接，连接失败时抛出异常，下次调用重新尝试 */
+    public static LiveQuoteGateway instance() {
+        LiveQuoteGateway current = instance;
+        if (current == null) {
+            synchronized (LiveQuoteGateway.class) {
+                current = instance;
+                if (current == null) {
+                    current = new LiveQuoteGateway(TradeMain.quoteContext());
+                    instance = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public CompletableFuture<SecurityQuote[]> getQuote(String[] symbols) throws OpenApiException {
+        return context.getQuote(symbols);
+    }
+
+    @Override
+    public CompletableFuture<SecurityCalcIndex[]> getCalcIndexes(String[] symbols, CalcIndex[] indexes) throws OpenApiException {
+        return context.getCalcIndexes(symbols, indexes);
+    }
+
+    @Override
+    public CompletableFuture<Candlestick[]> getCandlesticks(String symbol, Period period, int count, AdjustType adjustType) throws OpenApiException {
+        return context.getCandlesticks(symbol, period, count, adjustType);
+    }
+
+    @Override
+    public void setOnQuote(QuoteHandler handler) {
+        context.setOnQuote(handler);
+    }
+
+    @Override
+    public void setOnCandlestick(CandlestickHandler handler) {
+        context.setOnCandlestick(handler);
+    }
+
+    @Override
+    public CompletableFuture<Void> subscribe(String[] symbols, int flags, boolean isFirstPush) throws OpenApiException {
+        return context.subscribe(symbols, flags, isFirstPush);
+    }
+
+    @Override
+    public CompletableFuture<Candlestick[]> subscribeCandlesticks(String symbol, Period period) throws OpenApiException {
+        return context.subscribeCandlesticks(symbol, period);
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.sorbose.lbtrade.gateway;
+
+import com.longport.OpenApiException;
+import com.longport.trade.*;
+import io.github.sorbose.lbtrade.TradeMain;
+
+import java.util.concurrent.CompletableFuture;
+
+/** 实盘交易，直接转给TradeContext */
+public class LiveTradeGateway implements TradeGateway {
+    private static volatile LiveTradeGateway instance;
+    private final TradeContext context;
+
+    public LiveTradeGateway(TradeContext context) {
+        this.context = context;
+    }
+
+    /** 使用TradeMain中交易连接的共享实例，所有使用者共用同一个订单推送回调。第一次调用时才建立连接，连接失败时抛出异常，下次调用重新尝试 */
+    public static LiveTradeGateway instance() {
+        LiveTradeGateway current = instance;
+        if (current == null) {
+            synchronized (LiveTradeGateway.class) {
+                current = instance;
+                if (current == null) {
+                    current = new LiveTradeGateway(TradeMain.tradeContext());
+                    instance = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public CompletableFuture<SubmitOrderResponse> submitOrder(SubmitOrderOptions options) throws OpenApiException {
+        return context.submitOrder(options);
+    }
+
+    @Override
+    public CompletableFuture<Void> cancelOrder(String orderId) throws OpenApiException {
+        return context.cancelOrder(orderId);
+    }
+
+    @Override
+    public CompletableFuture<Order[]> getTodayOrders(GetTodayOrdersOptions options) throws OpenApiException {
+        return context.getTodayOrders(options);
+    }
+
+    @Override
+    public CompletableFuture<OrderDetail> getOrderDetail(String orderId) throws OpenApiException {
+        return context.getOrderDetail(orderId);
+    }
+
+    @Override
+    public CompletableFuture<AccountBalance[]> getAccountBalance(String currency) throws OpenApiException {
+        return context.getAccountBalance(currency);
+    }
+
+    @Override
+    public CompletableFuture<StockPositionsResponse> getStockPositions(GetStockPositionsOptions options) throws OpenApiException {
+        return context.getStockPositions(options);
+    }
+
+    @Override
+    public CompletableFuture<EstimateMaxPurchaseQuantityResponse> getEstimateMaxPurchaseQuantity(EstimateMaxPurchaseQuantityOptions options) throws OpenApiException {
+        return context.getEstimateMaxPurchaseQuantity(options);
+    }
+
+    @Override
+    public void setOnOrderChange(OrderChangedHandler handler) {
+        context.setOnOrderChange(handler);
+    }
+
+    @Override
+    public CompletableFuture<Void> subscribe(TopicType[] topics) throws OpenApiException {
+        return context.subscribe(topics);
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.sorbose.lbtrade.gateway;
+
+import com.longport.OpenApiException;
+import com.longport.quote.*;
+
+import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 行情接口，方法与QuoteContext一一对应。实盘使用LiveQuoteGateway，
+ * 离线压测使用回放历史K线的SimulatedExchange，Quoter不需要区分两者
+ */
+public interface QuoteGateway {
+    CompletableFuture<SecurityQuote[]> getQuote(String[] symbols) throws OpenApiException;
+
+    CompletableFuture<SecurityCalcIndex[]> getCalcIndexes(String[] symbols, CalcIndex[] indexes) throws OpenApiException;
+
+    CompletableFuture<Candlestick[]> getCandlesticks(String symbol, Period period, int count, AdjustType adjustType) throws OpenApiException;
+
+    void setOnQuote(QuoteHandler handler);
+
+    void setOnCandlestick(CandlestickHandler handler);
+
+    CompletableFuture<Void> subscribe(String[] symbols, int flags, boolean isFirstPush) throws OpenApiException;
+
+    CompletableFuture<Candlestick[]> subscribeCandlesticks(String symbol, Period period) throws OpenApiException;
+
+    /** 请求经过的限流，默认与实盘相同 */
+    default ApiGateway limits() {
+        return ApiGateway.DEFAULT;
+    }
+
+    /** 行情的当前时间，回放时为回放到的时间 */
+    default Clock clock() {
+        return Clock.systemUTC();
+    }
+}
@@ -0,0 +1,36 @@
+package io.github.sorbose.lbtrade.gateway;
+
+import com.longport.OpenApiException;
+import com.longport.trade.*;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 交易接口，方法与TradeContext一一对应。实盘使用LiveTradeGateway，
+ * 离线压测使用撮合回放价格的SimulatedExchange
+ */
+public interface TradeGateway {
+    CompletableFuture<SubmitOrderResponse> submitOrder(SubmitOrderOptions options) throws OpenApiException;
+
+    CompletableFuture<Void> cancelOrder(String orderId) throws OpenApiException;
+
+    CompletableFuture<Order[]> getTodayOrders(GetTodayOrdersOptions options) throws OpenApiException;
+
+    CompletableFuture<OrderDetail> getOrderDetail(String orderId) throws OpenApiException;
+
+    CompletableFuture<AccountBalance[]> getAccountBalance(String currency) throws OpenApiException;
+
+    CompletableFuture<StockPositionsResponse> getStockPositions(GetStockPositionsOptions options) throws OpenApiException;
+
+    CompletableFuture<EstimateMaxPurchaseQuantityResponse> getEstimateMaxPurchaseQuantity(EstimateMaxPurchaseQuantityOptions options) throws OpenApiException;
+
+    /** 只能设置一个回调，需要多个监听者时使用OrderPushes */
+    void setOnOrderChange(OrderChangedHandler handler);
+
+    CompletableFuture<Void> subscribe(TopicType[] topics) throws OpenApiException;
+
+    /** 请求经过的限流，默认与实盘相同 */
+    default ApiGateway limits() {
+        return ApiGateway.DEFAULT;
+    }
+}
@@ -0,0 +1,182 @@
+package io.github.sorbose.lbtrade.quote;
+
+import com.longport.quote.Candlestick;
+import com.longport.quote.PushQuote;
+import io.github.sorbose.lbtrade.util.ColumnarCandleStore;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+
+import java.time.ZoneOffset;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 单个股票的实时1分钟K线环形缓冲区，容量固定，写满后覆盖最旧的K线。
+ * 先用历史K线填充一次，之后由推送的K线和报价增量更新。
+ * 写入之间互斥；读取使用StampedLock的乐观读，不加锁、不阻塞写入，读到被覆盖的数据时自动重试
+ */
+public class CandleRing {
+    private final int capacity;
+    private final int scale;
+    private volatile ZoneOffset offset = ZoneOffset.UTC;
+    private final long[] time;
+    private final long[] open;
+    private final long[] high;
+    private final long[] low;
+    private final long[] close;
+    private final long[] volume;
+    /** 已写入的K线总数，最新一根位于(count-1) % capacity */
+    private long count;
+    private final StampedLock lock = new StampedLock();
+
+    public CandleRing(int capacity, int scale) {
+        this.capacity = capacity;
+        this.scale = scale;
+        time = new long[capacity];
+        open = new long[capacity];
+        high = new long[capacity];
+        low = new long[capacity];
+        close = new long[capacity];
+        volume = new long[capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int scale() {
+        return scale;
+    }
+
+    /** 当前保存的K线数量，不超过capacity */
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int size = (int) Math.min(count, capacity);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                size = (int) Math.min(count, capacity);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 合并一根完整的K线：与最新一根同一分钟时替换它，更新时追加，更早的K线忽略。
+     * 用于历史K线填充和K线推送
+     */
+    public void update(Candlestick c) {
+        long minute = ColumnarCandleStore.toEpochMinute(c.getTimestamp());
+        long stamp = lock.writeLock();
+        try {
+            if (count == 0) {
+                offset = c.getTimestamp().getOffset();
+            }
+            int slot = slotFor(minute);
+            if (slot < 0) {
+                return;
+            }
+            time[slot] = minute;
+            open[slot] = FixedPoint.toFixed(c.getOpen(), scale);
+            high[slot] = FixedPoint.toFixed(c.getHigh(), scale);
+            low[slot] = FixedPoint.toFixed(c.getLow(), scale);
+            close[slot] = FixedPoint.toFixed(c.getClose(), scale);
+            volume[slot] = c.getVolume();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** 按时间升序合并一批K线 */
+    public void update(Candlestick[] candlesticks) {
+        for (Candlestick c : candlesticks) {
+            update(c);
+        }
+    }
+
+    /**
+     * 用推送的最新成交价更新当前分钟的K线：同一分钟时更新最高、最低和收盘价，
+     * 进入新的一分钟时以成交价开始一根新K线（成交量为0，等K线推送时再修正）
+     */
+    public void onQuote(PushQuote quote) {
+        if (quote.getLastDone() == null || quote.getTimestamp() == null) {
+            return;
+        }
+        long minute = ColumnarCandleStore.toEpochMinute(quote.getTimestamp());
+        long price = FixedPoint.toFixed(quote.getLastDone(), scale);
+        long stamp = lock.writeLock();
+        try {
+            if (count > 0 && time[(int) ((count - 1) % capacity)] == minute) {
+                int slot = (int) ((count - 1) % capacity);
+                high[slot] = Math.max(high[slot], price);
+                low[slot] = Math.min(low[slot], price);
+                close[slot] = price;
+                return;
+            }
+            if (count == 0) {
+                offset = quote.getTimestamp().getOffset();
+            }
+            int slot = slotFor(minute);
+            if (slot < 0) {
+                return;
+            }
+            time[slot] = minute;
+            open[slot] = high[slot] = low[slot] = close[slot] = price;
+            volume[slot] = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** 写入minute对应的槽位，需持有写锁。与最新一根同一分钟时复用它的槽位，更早时返回-1 */
+    private int slotFor(long minute) {
+        if (count > 0) {
+            int last = (int) ((count - 1) % capacity);
+            if (minute == time[last]) {
+                return last;
+            }
+            if (minute < time[last]) {
+                return -1;
+            }
+        }
+        return (int) (count++ % capacity);
+    }
+
+    /** 创建一个可以传给last()重复使用的序列 */
+    public CandleSeries newSeries(int n) {
+        return new CandleSeries(Math.min(n, capacity), scale, offset);
+    }
+
+    /**
+     * 把最新的n根K线（不足n根时为全部）按时间升序复制到into中，不分配新对象
+     * @param into newSeries()创建的序列，原有数据会被清空；为null时新建一个
+     * @return into
+     */
+    public CandleSeries last(int n, CandleSeries into) {
+        if (into == null || into.scale() != scale || !into.offset().equals(offset)) {
+            into = newSeries(n);
+        }
+        long stamp = lock.tryOptimisticRead();
+        copyLast(n, into);
+        if (!lock.validate(stamp)) {
+            // 复制期间有写入，退回到读锁重新复制
+            stamp = lock.readLock();
+            try {
+                copyLast(n, into);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return into;
+    }
+
+    private void copyLast(int n, CandleSeries into) {
+        into.clear();
+        long end = count;
+        long begin = Math.max(0, end - Math.min(n, capacity));
+        for (long i = begin; i < end; i++) {
+            int slot = (int) (i % capacity);
+            into.append(time[slot], open[slot], high[slot], low[slot], close[slot], volume[slot]);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package io.github.sorbose.lbtrade.quote;
+
+import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.util.ColumnarCandleStore;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 结构化数组形式的1分钟K线序列，按时间升序。价格为定点数long（放大10^scale倍），
+ * 时间为epoch分钟，成交量为long。策略在此类型上计算时不需要创建任何对象
+ */
+public class CandleSeries {
+    private final int scale;
+    private final ZoneOffset offset;
+    private long[] time;
+    private long[] open;
+    private long[] high;
+    private long[] low;
+    private long[] close;
+    private long[] volume;
+    private int size;
+
+    /**
+     * @param capacity 初始容量，append时会自动扩容
+     * @param scale 价格定点数精度（小数位数）
+     * @param offset 时间转换为LocalDateTime时使用的时区偏移
+     */
+    public CandleSeries(int capacity, int scale, ZoneOffset offset) {
+        this.scale = scale;
+        this.offset = offset;
+        time = new long[capacity];
+        open = new long[capacity];
+        high = new long[capacity];
+        low = new long[capacity];
+        close = new long[capacity];
+        volume = new long[capacity];
+    }
+
+    public static CandleSeries of(List<Candlestick> candlesticks, int scale) {
+        ZoneOffset offset = candlesticks.isEmpty() ? ZoneOffset.UTC : candlesticks.get(0).getTimestamp().getOffset();
+        CandleSeries series = new CandleSeries(candlesticks.size(), scale, offset);
+        for (Candlestick c : candlesticks) {
+            series.append(c);
+        }
+        return series;
+    }
+
+    public static CandleSeries of(Candlestick[] candlesticks, int scale) {
+        return of(Arrays.asList(candlesticks), scale);
+    }
+
+    /** 从列式存储中批量复制[from, to)行 */
+    public static CandleSeries fromStore(ColumnarCandleStore store, int from, int to) {
+        int n = to - from;
+        CandleSeries series = new CandleSeries(n, store.scale(), store.offset());
+        store.column(ColumnarCandleStore.Column.TIME, from, to).get(series.time, 0, n);
+        store.column(ColumnarCandleStore.Column.OPEN, from, to).get(series.open, 0, n);
+        store.column(ColumnarCandleStore.Column.HIGH, from, to).get(series.high, 0, n);
+        store.column(ColumnarCandleStore.Column.LOW, from, to).get(series.low, 0, n);
+        store.column(ColumnarCandleStore.Column.CLOSE, from, to).get(series.close, 0, n);
+        store.column(ColumnarCandleStore.Column.VOLUME, from, to).get(series.volume, 0, n);
+        series.size = n;
+        return series;
+    }
+
+    public void append(Candlestick c) {
+        append(ColumnarCandleStore.toEpochMinute(c.getTimestamp()),
+                FixedPoint.toFixed(c.getOpen(), scale), FixedPoint.toFixed(c.getHigh(), scale),
+                FixedPoint.toFixed(c.getLow(), scale), FixedPoint.toFixed(c.getClose(), scale), c.getVolume());
+    }
+
+    public void append(long epochMinute, long open, long high, long low, long close, long volume) {
+        if (size == time.length) {
+            int capacity = Math.max(16, size * 2);
+            time = Arrays.copyOf(time, capacity);
+            this.open = Arrays.copyOf(this.open, capacity);
+            this.high = Arrays.copyOf(this.high, capacity);
+            this.low = Arrays.copyOf(this.low, capacity);
+            this.close = Arrays.copyOf(this.close, capacity);
+            this.volume = Arrays.copyOf(this.volume, capacity);
+        }
+        time[size] = epochMinute;
+        this.open[size] = open;
+        this.high[size] = high;
+        this.low[size] = low;
+        this.close[size] = close;
+        this.volume[size] = volume;
+        size++;
+    }
+
+    /** 清空数据但保留已分配的数组，便于重复使用同一个对象 */
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int scale() {
+        return scale;
+    }
+
+    public ZoneOffset offset() {
+        return offset;
+    }
+
+    public long time(int i) {
+        return time[i];
+    }
+
+    public long open(int i) {
+        return open[i];
+    }
+
+    public long high(int i) {
+        return high[i];
+    }
+
+    public long low(int i) {
+        return low[i];
+    }
+
+    public long close(int i) {
+        return close[i];
+    }
+
+    public long volume(int i) {
+        return volume[i];
+    }
+
+    /** 底层数组，只有前size()个元素有效，供紧凑循环直接访问 */
+    public long[] highs() {
+        return high;
+    }
+
+    public long[] times() {
+        return time;
+    }
+
+    public long toEpochMinute(LocalDateTime localDateTime) {
+        return Math.floorDiv(localDateTime.toEpochSecond(offset), 60);
+    }
+
+    public LocalDateTime localDateTime(int i) {
+        return LocalDateTime.ofEpochSecond(time[i] * 60, 0, offset);
+    }
+
+    public OffsetDateTime timestamp(int i) {
+        return OffsetDateTime.of(localDateTime(i), offset);
+    }
+
+    /** 第一个时间不早于epochMinute的下标，都更早时返回size() */
+    public int lowerBound(long epochMinute) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (time[mid] < epochMinute) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
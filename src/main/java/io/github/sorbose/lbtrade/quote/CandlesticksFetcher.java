@@ -7,68 +7,269 @@ import com.longport.quote.Candlestick;
 import com.longport.quote.Period;
 import com.longport.quote.QuoteContext;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 
-import io.github.sorbose.lbtrade.util.CSVSerializer;
+import io.github.sorbose.lbtrade.gateway.ApiGateway;
+import io.github.sorbose.lbtrade.gateway.ApiGateway.Endpoint;
+import io.github.sorbose.lbtrade.util.CsvCodec;
+import io.github.sorbose.lbtrade.util.ColumnarCandleStore;
+import io.github.sorbose.lbtrade.util.ParallelCsvReader;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-public class CandlesticksFetcher {
+/**
+ * 历史1分钟K线下载。所有股票共用一个QuoteContext，请求经过ApiGateway限流，多个股票并行下载。
+ * 每一页直接追加写入CSV，不在内存中累积；再次下载同一个文件时从已保存的最后一根K线之后继续
+ */
+public class CandlesticksFetcher implements AutoCloseable {
     private static final Logger logger = LogManager.getLogger(CandlesticksFetcher.class);
+    private static final int PAGE_SIZE = 1000;
+    private static final int PAGE_TIMEOUT_SECOND = 100;
 
-    private List<Candlestick> fetch1Min(String symbol, LocalDateTime start) {
+    private final QuoteContext quoteContext;
+    /** fromEnv()创建时由本对象关闭，否则为null */
+    private final Config ownedConfig;
+    private final ApiGateway gateway = ApiGateway.DEFAULT;
+
+    /** 使用已有的连接，不负责关闭 */
+    public CandlesticksFetcher(QuoteContext quoteContext) {
+        this(quoteContext, null);
+    }
+
+    private CandlesticksFetcher(QuoteContext quoteContext, Config ownedConfig) {
+        this.quoteContext = quoteContext;
+        this.ownedConfig = ownedConfig;
+    }
+
+    /** 用环境变量中的配置建立一个专用的行情连接，close()时关闭 */
+    public static CandlesticksFetcher fromEnv() {
+        Config config = null;
+        try {
+            config = Config.fromEnv();
+            return new CandlesticksFetcher(QuoteContext.create(config).get(), config);
+        } catch (Exception e) {
+            if (config != null) {
+                try {
+                    config.close();
+                } catch (Exception ignored) {
+                }
+            }
+            throw new RuntimeException("Failed to connect quote context", e);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (ownedConfig != null) {
+            quoteContext.close();
+            ownedConfig.close();
+        }
+    }
+
+    /**
+     * 从start开始按页拉取到最新，每页交给consumer。相邻两页的重叠部分和早于after的K线会被去掉
+     * @param after 只保留晚于它的K线，为null时不限制
+     * @return 最后一根K线的时间，没有新K线时为after
+     */
+    private OffsetDateTime fetch1Min(String symbol, LocalDateTime start, OffsetDateTime after,
+                                     Consumer<List<Candlestick>> consumer) throws Exception {
         LocalDateTime current = start;
-        List<Candlestick> list = new ArrayList<>();
-        try (Config config = Config.fromEnv(); QuoteContext quoteContext =QuoteContext.create(config).get()) {
-            int count=1000;
-            while(count>0){
-                CompletableFuture<Candlestick[]> future = quoteContext.getHistoryCandlesticksByOffset(
-                        symbol, Period.Min_1, AdjustType.ForwardAdjust, true, current, 1000
-                );
-                Candlestick[] result = future.get(100, TimeUnit.SECONDS);
-                count=result==null?0:result.length;
-                if (result != null) {
-                    if(result[result.length-1].getTimestamp().toLocalDateTime().isBefore(current)){
-                        break;
-                    }
-                    list.addAll(Arrays.asList(result));
+        OffsetDateTime last = after;
+        while (true) {
+            LocalDateTime from = current;
+            Candlestick[] page = gateway.call(Endpoint.QUOTE, () -> quoteContext.getHistoryCandlesticksByOffset(
+                    symbol, Period.Min_1, AdjustType.ForwardAdjust, true, from, PAGE_SIZE))
+                    .get(PAGE_TIMEOUT_SECOND, TimeUnit.SECONDS);
+            if (page == null || page.length == 0) {
+                break;
+            }
+            List<Candlestick> fresh = new ArrayList<>(page.length);
+            for (Candlestick c : page) {
+                if (last == null || c.getTimestamp().isAfter(last)) {
+                    fresh.add(c);
+                    last = c.getTimestamp();
+                }
+            }
+            if (fresh.isEmpty()) {
+                break;
+            }
+            consumer.accept(fresh);
+            logger.debug("{} fetched {} candlesticks up to {}", symbol, fresh.size(), last);
+            if (page.length < PAGE_SIZE) {
+                break;
+            }
+            current = last.toLocalDateTime().plusMinutes(1);
+        }
+        return last;
+    }
+
+    /**
+     * 下载symbol从start开始的1分钟K线并追加到csvPath。文件已存在时从其中最后一根K线之后继续，
+     * 末尾不完整的行（上次写入中断）会先被截掉
+     * @return 新写入的K线数量
+     * @throws RuntimeException 下载没有完成（如某一页超时），已经写入的页保留在文件中，再次调用时从中断处继续
+     */
+    public long downloadCsv(String symbol, LocalDateTime start, String csvPath) {
+        CsvCodec<Candlestick> codec = CsvCodec.of(Candlestick.class);
+        long[] written = new long[1];
+        try {
+            OffsetDateTime lastStored = lastStoredTimestamp(csvPath, codec);
+            LocalDateTime from = lastStored == null ? start : lastStored.toLocalDateTime().plusMinutes(1);
+            boolean writeHeader = new File(csvPath).length() == 0;
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvPath, true))) {
+                StringBuilder line = new StringBuilder();
+                if (writeHeader) {
+                    codec.writeHeader(line);
+                    writer.append(line);
+                    writer.newLine();
                 }
-                current=list.get(list.size()-1).getTimestamp().toLocalDateTime().plusMinutes(1);
-                System.out.println(current);
-                System.out.println(count);
+                fetch1Min(symbol, from, lastStored, page -> {
+                    try {
+                        for (Candlestick c : page) {
+                            line.setLength(0);
+                            codec.writeRow(c, line);
+                            writer.append(line);
+                            writer.newLine();
+                        }
+                        // 每页写完就落盘，中断后可以从这里继续
+                        writer.flush();
+                        written[0] += page.size();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
             }
+            logger.info("{}: {} new candlesticks written to {}", symbol, written[0], csvPath);
+            return written[0];
         } catch (TimeoutException e) {
-            logger.warn("Fetching data timed out for symbol: {}", symbol, e);
+            // 不能当作已经下载到最新：已写入的部分保留，由调用方稍后继续
+            logger.warn("Fetching data timed out for symbol {} after {} new candlesticks written to {}", symbol, written[0], csvPath);
+            throw new RuntimeException("Fetching data timed out for symbol " + symbol + " after "
+                    + written[0] + " new candlesticks", e);
         } catch (Exception e) {
             logger.error("Error fetching data for symbol: {}", symbol, e);
             throw new RuntimeException("Error fetching data for symbol: " + symbol, e);
         }
-        return list;
+    }
+
+    /**
+     * CSV中最后一根K线的时间，文件不存在或没有数据行时为null。
+     * 文件末尾有不完整的行时把它截掉
+     */
+    private static OffsetDateTime lastStoredTimestamp(String csvPath, CsvCodec<Candlestick> codec) throws IOException {
+        File file = new File(csvPath);
+        if (!file.exists() || file.length() == 0) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            String header = raf.readLine();
+            long headerEnd = raf.getFilePointer();
+            long length = raf.length();
+            long end = length;
+            // 去掉末尾没有换行符的不完整行
+            while (end > headerEnd && readByte(raf, end - 1) != '\n') {
+                end--;
+            }
+            if (end < length) {
+                logger.warn("Truncating incomplete line at the end of {}", csvPath);
+                raf.setLength(end);
+            }
+            if (end <= headerEnd) {
+                return null;
+            }
+            long lineStart = end - 1;
+            while (lineStart > headerEnd && readByte(raf, lineStart - 1) != '\n') {
+                lineStart--;
+            }
+            byte[] bytes = new byte[(int) (end - lineStart)];
+            raf.seek(lineStart);
+            raf.readFully(bytes);
+            char[] chars = new String(bytes, StandardCharsets.UTF_8).trim().toCharArray();
+            return codec.bind(header).parseLine(chars, 0, chars.length).getTimestamp();
+        }
+    }
+
+    private static int readByte(RandomAccessFile raf, long position) throws IOException {
+        raf.seek(position);
+        return raf.read();
+    }
+
+    /**
+     * 并行下载多个股票，最多parallelism个股票同时进行，每个股票的分页依次拉取
+     * @return 每个股票新写入的K线数量，失败或没有下载完（如超时）的股票为-1，再次下载时从文件中断处继续
+     */
+    public Map<String, Long> downloadAll(String[] symbols, LocalDateTime start, int parallelism) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, symbols.length)));
+        try {
+            Map<String, Future<Long>> futures = new LinkedHashMap<>();
+            for (String symbol : symbols) {
+                futures.put(symbol, pool.submit(() -> downloadCsv(symbol, start, csvPath(symbol, start))));
+            }
+            Map<String, Long> written = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<Long>> entry : futures.entrySet()) {
+                try {
+                    written.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    logger.error("Download failed for {}: {}", entry.getKey(), e.getCause().getMessage());
+                    written.put(entry.getKey(), -1L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            return written;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static String csvPath(String symbol, LocalDateTime start) {
+        return ("data/"+symbol+start).replaceAll(":", "");
     }
 
     public void toConsole(String symbol, LocalDateTime start) {
-        fetch1Min(symbol, start).forEach(System.out::println);
+        try {
+            fetch1Min(symbol, start, null, page -> page.forEach(System.out::println));
+        } catch (Exception e) {
+            throw new RuntimeException("Error fetching data for symbol: " + symbol, e);
+        }
     }
 
     public void toCsv(String symbol, LocalDateTime start) {
-        CSVSerializer.writeObjectsToCsv(fetch1Min(symbol, start),
-                ("data/"+symbol+start).replaceAll(":", ""));
+        downloadCsv(symbol, start, csvPath(symbol, start));
     }
 
-    public static void main(String[] args) {
+    /** 先增量下载到CSV，再把整个CSV转换为列式存储 */
+    public void toColumnar(String symbol, LocalDateTime start) {
+        String csv = csvPath(symbol, start);
+        downloadCsv(symbol, start, csv);
+        ColumnarCandleStore.write(ParallelCsvReader.read(Candlestick.class, csv, null), csv + ".col");
+    }
+
+    public static void main(String[] args) throws Exception {
         logger.debug(System.getProperty("os.arch"));
         logger.info("start");
-        CandlesticksFetcher fetcher = new CandlesticksFetcher();
         long startTime = System.currentTimeMillis();
-        fetcher.toCsv("SMST.US",
-                LocalDate.of(2023, 12, 4).atStartOfDay());
+        try (CandlesticksFetcher fetcher = CandlesticksFetcher.fromEnv()) {
+            Map<String, Long> written = fetcher.downloadAll(
+                    new String[]{"SMST.US", "MSTX.US", "MSTR.US", "TSLL.US", "TSLQ.US", "YINN.US", "YANG.US"},
+                    LocalDate.of(2023, 12, 4).atStartOfDay(), 4);
+            logger.info("written: {}", written);
+        }
         long endTime = System.currentTimeMillis();
         logger.info("end");
         logger.info("Time taken (s): " + (endTime - startTime)/1000f);
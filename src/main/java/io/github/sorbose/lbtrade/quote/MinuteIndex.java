@@ -0,0 +1,66 @@
+package io.github.sorbose.lbtrade.quote;
+
+import java.util.Arrays;
+
+/**
+ * 分钟到K线下标的稠密索引：以第一根K线的epoch分钟为起点，每一分钟对应数组中的一个元素，
+ * 记录时间不早于该分钟的第一根K线的下标。查找为O(1)，不需要二分也不需要时间对象转换。
+ * 非交易分钟（休市、停牌等没有K线的分钟）可以通过indexOf()区分出来，而不是被当成上一根K线
+ */
+public class MinuteIndex {
+    private final long[] minutes;
+    private final int size;
+    private final long firstMinute;
+    /** ceil[m - firstMinute]为时间不早于m的第一根K线的下标 */
+    private final int[] ceil;
+
+    /**
+     * @param minutes 时间升序的epoch分钟，只使用前size个元素，构造后不能修改
+     * @param size K线数量
+     */
+    public MinuteIndex(long[] minutes, int size) {
+        this.minutes = minutes;
+        this.size = size;
+        if (size == 0) {
+            firstMinute = 0;
+            ceil = new int[0];
+            return;
+        }
+        firstMinute = minutes[0];
+        long span = minutes[size - 1] - firstMinute + 1;
+        if (span > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Time span too large for a dense minute index: " + span);
+        }
+        ceil = new int[(int) span];
+        int row = 0;
+        for (int m = 0; m < ceil.length; m++) {
+            while (minutes[row] < firstMinute + m) {
+                row++;
+            }
+            ceil[m] = row;
+        }
+    }
+
+    public static MinuteIndex of(CandleSeries series) {
+        return new MinuteIndex(Arrays.copyOf(series.times(), series.size()), series.size());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** 第一根时间不早于epochMinute的K线下标，都更早时返回size() */
+    public int lowerBound(long epochMinute) {
+        if (size == 0 || epochMinute <= firstMinute) {
+            return 0;
+        }
+        long m = epochMinute - firstMinute;
+        return m >= ceil.length ? size : ceil[(int) m];
+    }
+
+    /** 时间恰好为epochMinute的K线下标，这一分钟没有K线时返回-1 */
+    public int indexOf(long epochMinute) {
+        int row = lowerBound(epochMinute);
+        return row < size && minutes[row] == epochMinute ? row : -1;
+    }
+}
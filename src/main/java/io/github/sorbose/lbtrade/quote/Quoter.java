@@ -1,64 +1,91 @@
 package io.github.sorbose.lbtrade.quote;
 
-import com.longport.Config;
 import com.longport.OpenApiException;
 import com.longport.quote.*;
-import io.github.sorbose.lbtrade.TradeMain;
+import io.github.sorbose.lbtrade.gateway.ApiGateway;
+import io.github.sorbose.lbtrade.gateway.ApiGateway.Endpoint;
+import io.github.sorbose.lbtrade.gateway.LiveQuoteGateway;
+import io.github.sorbose.lbtrade.gateway.QuoteGateway;
 import io.github.sorbose.lbtrade.trade.Trader;
+import io.github.sorbose.lbtrade.util.FixedPoint;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.time.Clock;
 import java.util.Arrays;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 public class Quoter {
-    private static final Config config= TradeMain.config;
-    private static final QuoteContext context= TradeMain.quoteContext;
+    private final QuoteGateway context;
+    private final ApiGateway gateway;
     private static final Logger logger = LogManager.getLogger(Trader.class);
     public final int expireSecond;
     public final int timeoutSecond;
     public String[] symbols;
     public CalcIndex[] calcIndices;
+    /** 每个股票的实时1分钟K线，startLiveCandlesticks()之后才有 */
+    private final ConcurrentHashMap<String, CandleRing> rings = new ConcurrentHashMap<>();
 
-    public Quoter(String[] symbols, int expireSecond, int timeoutSecond, CalcIndex[] calcIndices) {
+    public Quoter(QuoteGateway context, String[] symbols, int expireSecond, int timeoutSecond, CalcIndex[] calcIndices) {
+        this.context = context;
+        this.gateway = context.limits();
         this.symbols=symbols;
         this.expireSecond = expireSecond;
         this.timeoutSecond = timeoutSecond;
         this.calcIndices = calcIndices;
     }
+    public Quoter(String[] symbols, int expireSecond, int timeoutSecond, CalcIndex[] calcIndices) {
+        this(LiveQuoteGateway.instance(), symbols, expireSecond, timeoutSecond, calcIndices);
+    }
     public Quoter(String[] symbols, int expireSecond, int timeoutSecond) {
         this(symbols, expireSecond, timeoutSecond, null);
     }
+    public Quoter(QuoteGateway context, String[] symbols, int expireSecond, int timeoutSecond) {
+        this(context, symbols, expireSecond, timeoutSecond, null);
+    }
+
+    /** 行情的当前时间，回放时为回放到的时间 */
+    public Clock clock() {
+        return context.clock();
+    }
 
     public CompletableFuture<SecurityQuote[]> pullRealtimeQuote() throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
-        return context.getQuote(symbols);
+        return gateway.call(Endpoint.QUOTE, "quote:" + String.join(",", symbols), () -> context.getQuote(symbols));
     }
 
     public CompletableFuture<SecurityCalcIndex[]> pullRealtimeCalcIndex() throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
-        return context.getCalcIndexes(symbols, calcIndices);
+        return gateway.call(Endpoint.QUOTE, "calcIndex:" + String.join(",", symbols) + Arrays.toString(calcIndices),
+                () -> context.getCalcIndexes(symbols, calcIndices));
+    }
+
+    /** 最近count根1分钟K线，经过gateway限流，相同的请求进行中时共享结果 */
+    private CompletableFuture<Candlestick[]> pullCandlesticks(String symbol, int count) {
+        return gateway.call(Endpoint.QUOTE, "candlesticks:" + symbol + ":" + count,
+                () -> context.getCandlesticks(symbol, Period.Min_1, count, AdjustType.ForwardAdjust));
     }
 
     // TODO: 此方法获取不到夜盘数据！
     public Candlestick[] pullRealtime1MinCandlestick(String symbol, int count) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
-        return context.getCandlesticks(symbol, Period.Min_1, count, AdjustType.ForwardAdjust).get(timeoutSecond, TimeUnit.SECONDS);
+        return pullCandlesticks(symbol, count).get(timeoutSecond, TimeUnit.SECONDS);
     }
 
     public CompletableFuture<Candlestick[]> pullRealtime1MinCandlestickFuture(String symbol, int count) throws OpenApiException {
-        return context.getCandlesticks(symbol, Period.Min_1, count, AdjustType.ForwardAdjust);
+        return pullCandlesticks(symbol, count);
     }
 
 
     public void pullRealtime1MinCandlestickAccept(String symbol, int count) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
-        context.getCandlesticks(symbol, Period.Min_1, count, AdjustType.ForwardAdjust).thenAccept(candlesticks -> {
+        pullCandlesticks(symbol, count).thenAccept(candlesticks -> {
             System.out.println("thenAccept: "+ Arrays.toString(candlesticks));
         });
     }
 
     public Candlestick[] pullRealtime1MinCandlestickApply(String symbol, int count) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
-        CompletableFuture<Candlestick[]> future = context.getCandlesticks(symbol, Period.Min_1, count, AdjustType.ForwardAdjust).thenApply(candlesticks -> {
+        CompletableFuture<Candlestick[]> future = pullCandlesticks(symbol, count).thenApply(candlesticks -> {
             System.out.println("thenApply: "+ Arrays.toString(candlesticks));
             return candlesticks;
         });
@@ -67,10 +94,46 @@ public class Quoter {
 
 
     public void subscribe(QuoteHandler handler) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
-        context.setOnQuote(handler);
+        context.setOnQuote((symbol, event) -> {
+            CandleRing ring = rings.get(symbol);
+            if (ring != null) {
+                ring.onQuote(event);
+            }
+            handler.onQuote(symbol, event);
+        });
         context.subscribe(symbols, 1, true);
     }
 
+    /**
+     * 为每个股票建立容量为capacity的实时1分钟K线缓冲区：先拉取一次历史K线填充，
+     * 之后订阅K线推送增量更新，不再需要每次都重新拉取整段K线。
+     * 订阅返回的最近K线也会合并进来，补上拉取历史和开始推送之间可能漏掉的K线
+     */
+    public void startLiveCandlesticks(int capacity) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
+        for (String symbol : symbols) {
+            CandleRing ring = new CandleRing(capacity, FixedPoint.DEFAULT_SCALE);
+            ring.update(pullCandlesticks(symbol, capacity)
+                    .get(timeoutSecond, TimeUnit.SECONDS));
+            rings.put(symbol, ring);
+        }
+        context.setOnCandlestick((symbol, event) -> {
+            CandleRing ring = rings.get(symbol);
+            if (ring != null && event.getPeriod() == Period.Min_1) {
+                ring.update(event.getCandlestick());
+            }
+        });
+        for (String symbol : symbols) {
+            rings.get(symbol).update(gateway.call(Endpoint.QUOTE,
+                    () -> context.subscribeCandlesticks(symbol, Period.Min_1)).get(timeoutSecond, TimeUnit.SECONDS));
+        }
+        logger.info("Live candlesticks started for {} symbols", symbols.length);
+    }
+
+    /** 股票的实时K线缓冲区，没有调用startLiveCandlesticks()时返回null */
+    public CandleRing liveCandlesticks(String symbol) {
+        return rings.get(symbol);
+    }
+
     public static void handleException(Exception e, String msg){
         if (e instanceof OpenApiException){
             OpenApiException oe = (OpenApiException) e;
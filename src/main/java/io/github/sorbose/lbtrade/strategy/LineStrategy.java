@@ -1,31 +1,195 @@
 package io.github.sorbose.lbtrade.strategy;
 
 import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.util.FixedPoint;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 斜线突破：对每个观测点，现价高于观测点K线的最高价，并且两者之间所有K线的最高价都严格位于
+ * 从观测点最高价到现价的斜线（/）段的下方时买入。横坐标是K线的序号（不计非交易时间），现价位于最后一根K线之后。
+ * 卖出交给exitRule，如SimpleRule的浮动止盈止损。
+ * <p>
+ * 每个股票增量维护已收盘K线最高价的上凸包（UpperHullIndex），斜线上方是否有K线只需查询从观测点出发斜率最大的点，
+ * 每个观测点O(log² n)，而不是扫描中间所有K线。中间K线较少（不超过64根）时直接扫描更快，只有更远的观测点才用凸包。
+ * 最后一根K线可能还在变化，不放入凸包，单独判断。
+ * 同一个股票的调用需在同一个线程上（如Agent的分片线程），不同股票可以并发
+ */
 public class LineStrategy implements RuleStrategy {
+    /** 中间K线不超过这个数量时直接扫描，比查询凸包快 */
+    private static final int SCAN_LIMIT = 64;
+    /** 观测点，为距离现在的分钟数，1表示最后一根K线 */
+    private final int[] observationMinute;
+    private final int maxObservationMinute;
+    /** 卖出规则，为null时不卖出 */
+    private final RuleStrategy exitRule;
+    private final ConcurrentHashMap<String, SymbolHull> hulls = new ConcurrentHashMap<>();
+
+    /** 一个股票已收盘K线的凸包，按时间记录已放入的位置，实盘每次传入的series是滑动的窗口 */
+    private static class SymbolHull {
+        final UpperHullIndex index;
+        /** 最后放入凸包的K线的epoch分钟 */
+        long lastTime = Long.MIN_VALUE;
+
+        SymbolHull(int retain) {
+            index = new UpperHullIndex(retain);
+        }
+
+        /** 放入series中[0, closed)范围内新收盘的K线，series回退（如换了一段数据）时重建 */
+        void sync(CandleSeries series, int closed) {
+            if (closed <= 0) {
+                return;
+            }
+            long[] times = series.times();
+            int from = 0;
+            if (lastTime != Long.MIN_VALUE) {
+                if (times[closed - 1] < lastTime || times[0] > lastTime) {
+                    // 回退，或者与已放入的K线不连续
+                    index.clear();
+                } else {
+                    // 一般只有0或1根新K线，从后往前找比二分快
+                    from = closed;
+                    while (from > 0 && times[from - 1] > lastTime) {
+                        from--;
+                    }
+                }
+            }
+            long[] highs = series.highs();
+            for (int row = from; row < closed; row++) {
+                index.append(highs[row]);
+            }
+            lastTime = times[closed - 1];
+        }
+    }
+
+    public LineStrategy(int[] observationMinute, RuleStrategy exitRule) {
+        this.observationMinute = observationMinute.clone();
+        this.maxObservationMinute = Arrays.stream(observationMinute).max().orElse(1);
+        if (Arrays.stream(observationMinute).anyMatch(m -> m < 1)) {
+            throw new IllegalArgumentException("Observation minutes must be positive: " + Arrays.toString(observationMinute));
+        }
+        this.exitRule = exitRule;
+    }
+
+    /** 清除symbol的凸包，下次判断时从传入的K线重建，一般不需要调用 */
+    public void reset(String symbol) {
+        hulls.remove(symbol);
+    }
 
     @Override
+    @Deprecated
     public boolean shouldBuy(String symbol, BigDecimal lastPrice, LocalDateTime now) {
         throw new UnsupportedOperationException("Not implemented");
     }
 
     @Override
+    @Deprecated
     public boolean shouldSell(String symbol, BigDecimal buyingPrice, LocalDateTime buyingTime, BigDecimal lastPrice, LocalDateTime now, boolean stopLoss) {
         throw new UnsupportedOperationException("Not implemented");
     }
 
-    @Override
     /** 如果观测点K线的最高值全部位于现价与观测点连成的斜线（/）段的下方，返回true  */
+    @Override
     public boolean shouldBuy(Candlestick[] candlesticks, String symbol, BigDecimal lastPrice) {
-        return false;
+        CandleSeries series = CandleSeries.of(candlesticks, FixedPoint.DEFAULT_SCALE);
+        return shouldBuy(series, series.size(), symbol, FixedPoint.toFixed(lastPrice, series.scale()));
     }
 
     @Override
     public boolean shouldSell(Candlestick[] candlesticks, BigDecimal buyingPrice, OffsetDateTime buyingTime, String symbol, BigDecimal lastPrice, boolean stopLoss) {
-        return false;
+        return exitRule != null && exitRule.shouldSell(candlesticks, buyingPrice, buyingTime, symbol, lastPrice, stopLoss);
+    }
+
+    /** 与shouldBuy(Candlestick[], String, BigDecimal)等价，只使用series中[0, end)的K线 */
+    @Override
+    public boolean shouldBuy(CandleSeries series, int end, String symbol, long lastPrice) {
+        if (end < maxObservationMinute) {
+            return false;
+        }
+        int closed = end - 1;
+        long lastHigh = series.high(closed);
+        // 先做代价低的判断：斜线向上、观测点后的第一根和最后一根K线在斜线下方，大部分时候在这里就能否定
+        for (int minute : observationMinute) {
+            int row = end - minute;
+            long ay = series.high(row);
+            if (lastPrice <= ay) {
+                return false;
+            }
+            if (row < closed && (!belowLine(row, ay, end, lastPrice, closed, lastHigh)
+                    || !belowLine(row, ay, end, lastPrice, row + 1, series.high(row + 1)))) {
+                return false;
+            }
+        }
+        // 再检查观测点到最后一根K线之间的K线，近的直接扫描，远的在凸包上查询斜率最大的K线
+        UpperHullIndex index = null;
+        int n = 0;
+        for (int minute : observationMinute) {
+            int row = end - minute;
+            if (row >= closed - 1) {
+                continue;
+            }
+            if (closed - row <= SCAN_LIMIT) {
+                long ay = series.high(row);
+                for (int k = row + 2; k < closed; k++) {
+                    if (!belowLine(row, ay, end, lastPrice, k, series.high(k))) {
+                        return false;
+                    }
+                }
+                continue;
+            }
+            if (index == null) {
+                SymbolHull hull = hulls.computeIfAbsent(symbol, k -> new SymbolHull(maxObservationMinute));
+                hull.sync(series, closed);
+                index = hull.index;
+                // 已收盘的K线在凸包中的序号为n-(closed-row)，最后一根K线为n，现价为n+1
+                n = index.size();
+            }
+            long ax = n - (closed - row);
+            if (ax < 0) {
+                // 凸包刚重建，历史不够
+                return false;
+            }
+            long ay = series.high(row);
+            int best = index.maxSlope(ax, ay, (int) ax + 1, n);
+            if (best >= 0 && !belowLine(ax, ay, n + 1, lastPrice, best, index.y(best))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** (x, y)是否严格位于(ax, ay)到(qx, qy)的连线下方，ax < x < qx */
+    private static boolean belowLine(long ax, long ay, long qx, long qy, long x, long y) {
+        return (y - ay) * (qx - ax) < (qy - ay) * (x - ax);
+    }
+
+    @Override
+    public boolean shouldSell(CandleSeries series, int end, long buyingPrice, long buyingEpochSecond, String symbol, long lastPrice, boolean stopLoss) {
+        return exitRule != null && exitRule.shouldSell(series, end, buyingPrice, buyingEpochSecond, symbol, lastPrice, stopLoss);
+    }
+
+    /** 逐根扫描中间K线的判断，与shouldBuy(CandleSeries, ...)结果相同，用于对照 */
+    public static boolean shouldBuyByScan(int[] observationMinute, CandleSeries series, int end, long lastPrice) {
+        for (int minute : observationMinute) {
+            int row = end - minute;
+            if (row < 0) {
+                return false;
+            }
+            long ay = series.high(row);
+            if (lastPrice <= ay) {
+                return false;
+            }
+            for (int k = row + 1; k < end; k++) {
+                if (!belowLine(row, ay, end, lastPrice, k, series.high(k))) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 }
@@ -1,6 +1,7 @@
 package io.github.sorbose.lbtrade.strategy;
 
 import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -15,4 +16,15 @@ public interface RuleStrategy {
     boolean shouldBuy(Candlestick[] candlesticks, String symbol, BigDecimal lastPrice);
     boolean shouldSell(Candlestick[] candlesticks, BigDecimal buyingPrice, OffsetDateTime buyingTime, String symbol, BigDecimal lastPrice, boolean stopLoss);
 
+    /**
+     * 与shouldBuy(Candlestick[], String, BigDecimal)等价，只使用series中[0, end)的K线
+     * @param lastPrice 现价，精度为series.scale()的定点数
+     */
+    boolean shouldBuy(CandleSeries series, int end, String symbol, long lastPrice);
+    /**
+     * 与shouldSell(Candlestick[], ...)等价，只使用series中[0, end)的K线，价格均为series.scale()精度的定点数
+     * @param buyingEpochSecond 最近一次买入时间（epoch秒）
+     */
+    boolean shouldSell(CandleSeries series, int end, long buyingPrice, long buyingEpochSecond, String symbol, long lastPrice, boolean stopLoss);
+
 }
@@ -0,0 +1,99 @@
+package io.github.sorbose.lbtrade.strategy;
+
+import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * 单个股票自最近一次买入以来的最高价，增量维护。
+ * 每次调用只扫描上次之后新增的K线，买入点（成交）变化时自动重置，
+ * 使逐分钟的卖出判断为均摊O(1)，而不是每次都从买入点扫描到现在。非线程安全，每个股票一个实例，
+ * 同一实例只应使用一种调用方式（over或since），交替调用会互相重置
+ */
+public class RunningHigh {
+    /** since()使用的数据源标记，实盘每次传入的series都是新对象 */
+    private static final Object LIVE = new Object();
+    /** 当前跟踪的数据源，数据源变化时重置 */
+    private Object source;
+    /** 买入点，下标或epoch秒，变化时重置 */
+    private long anchor = Long.MIN_VALUE;
+    /** 已扫描到的位置，下标或epoch分钟 */
+    private long scanned;
+    private long highest;
+    private BigDecimal highestDecimal;
+
+    public void reset() {
+        source = null;
+        anchor = Long.MIN_VALUE;
+    }
+
+    /**
+     * series中[from, to)行的最高价，from不变且to不减少时只扫描新增的行
+     * @return 最高价，范围为空时返回0
+     */
+    public long over(CandleSeries series, int from, int to) {
+        if (source != series || anchor != from || to < scanned) {
+            source = series;
+            anchor = from;
+            scanned = from;
+            highest = 0;
+        }
+        long[] highs = series.highs();
+        for (int row = (int) scanned; row < to; row++) {
+            if (highs[row] > highest) {
+                highest = highs[row];
+            }
+        }
+        scanned = Math.max(scanned, to);
+        return highest;
+    }
+
+    /**
+     * series中[0, end)范围内、时间晚于epochSecond的K线的最高价。实盘中series每次都是新拉取的最近K线，
+     * 所以按时间而不是下标记录扫描位置：只扫描时间不早于上次最后一根的K线（最后一根可能还在变化）。
+     * 窗口滑出的旧K线仍计入最高价
+     * @return 最高价，没有符合条件的K线时返回0
+     */
+    public long since(CandleSeries series, int end, long epochSecond) {
+        if (source != LIVE || anchor != epochSecond) {
+            source = LIVE;
+            anchor = epochSecond;
+            scanned = Long.MIN_VALUE;
+            highest = 0;
+        }
+        long[] times = series.times();
+        long[] highs = series.highs();
+        for (int row = end - 1; row >= 0 && times[row] >= scanned && times[row] * 60 > epochSecond; row--) {
+            if (highs[row] > highest) {
+                highest = highs[row];
+            }
+        }
+        if (end > 0) {
+            scanned = Math.max(scanned, times[end - 1]);
+        }
+        return highest;
+    }
+
+    /**
+     * candlesticks中[from, to)的最高价，from不变且to不减少时只扫描新增的K线
+     * @return 最高价，范围为空时返回null
+     */
+    public BigDecimal over(List<Candlestick> candlesticks, int from, int to) {
+        if (source != candlesticks || anchor != from || to < scanned) {
+            source = candlesticks;
+            anchor = from;
+            scanned = from;
+            highestDecimal = null;
+        }
+        for (int row = (int) scanned; row < to; row++) {
+            BigDecimal high = candlesticks.get(row).getHigh();
+            if (highestDecimal == null || high.compareTo(highestDecimal) > 0) {
+                highestDecimal = high;
+            }
+        }
+        scanned = Math.max(scanned, to);
+        return highestDecimal;
+    }
+}
@@ -1,15 +1,19 @@
 package io.github.sorbose.lbtrade.strategy;
 
 import com.longport.quote.Candlestick;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.quote.MinuteIndex;
+import io.github.sorbose.lbtrade.util.FixedPoint;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
-import java.util.Collections;
-import java.util.Comparator;
+import java.time.ZoneOffset;
 import java.util.HashMap;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SimpleRule implements RuleStrategy {
     /**实时1分钟K线，使用candlestick.high作为这一分钟的价格，
@@ -30,6 +34,21 @@ public class SimpleRule implements RuleStrategy {
     /**98表示在亏损状态下允许有2%的回撤*/
     BigDecimal losePercentage;
 
+    // 以下为定点数形式的参数，在构造时预先计算，供CandleSeries版本的方法使用
+    private final long[] percentageUnscaled;
+    private final int[] percentageScale;
+    private final long gapUnscaled;
+    private final int gapScale;
+    /** winPercentage/100，保留3位小数 */
+    private final long winRatio;
+    /** losePercentage/100，保留3位小数 */
+    private final long loseRatio;
+    private static final int RATIO_SCALE = 3;
+    /** 每个股票自最近一次买入以来的最高价 */
+    private final ConcurrentHashMap<String, RunningHigh> runningHighs = new ConcurrentHashMap<>();
+    /** candlesticksMap中每个股票的分钟索引 */
+    private final ConcurrentHashMap<String, ListIndex> listIndexes = new ConcurrentHashMap<>();
+
     public SimpleRule(HashMap<String, List<Candlestick>> candlesticksMap, int[] observationMinute, BigDecimal[] percentage, int[] higherThanExpected,
                       int conditionNum, BigDecimal gapPrice, BigDecimal winPercentage, BigDecimal losePercentage) {
         this.candlesticksMap = candlesticksMap;
@@ -43,6 +62,33 @@ public class SimpleRule implements RuleStrategy {
         for(List<Candlestick> list : candlesticksMap.values()) {
             list.sort((a, b)->a.getTimestamp().compareTo(b.getTimestamp()));
         }
+        this.percentageUnscaled = new long[percentage.length];
+        this.percentageScale = new int[percentage.length];
+        for (int i = 0; i < percentage.length; i++) {
+            BigDecimal p = nonNegativeScale(percentage[i]);
+            percentageUnscaled[i] = p.unscaledValue().longValueExact();
+            percentageScale[i] = p.scale();
+        }
+        BigDecimal gap = nonNegativeScale(gapPrice);
+        this.gapUnscaled = gap.unscaledValue().longValueExact();
+        this.gapScale = gap.scale();
+        BigDecimal win = nonNegativeScale(winPercentage);
+        this.winRatio = FixedPoint.divide(win.unscaledValue().longValueExact(), win.scale(), 100, RATIO_SCALE);
+        BigDecimal lose = nonNegativeScale(losePercentage);
+        this.loseRatio = FixedPoint.divide(lose.unscaledValue().longValueExact(), lose.scale(), 100, RATIO_SCALE);
+    }
+
+    private RunningHigh runningHigh(String symbol) {
+        return runningHighs.computeIfAbsent(symbol, k -> new RunningHigh());
+    }
+
+    /** 清除symbol的最高价状态，买入点变化时会自动重置，一般不需要调用 */
+    public void resetHighest(String symbol) {
+        runningHighs.remove(symbol);
+    }
+
+    private static BigDecimal nonNegativeScale(BigDecimal value) {
+        return value.scale() < 0 ? value.setScale(0) : value;
     }
 
     /**
@@ -57,19 +103,73 @@ public class SimpleRule implements RuleStrategy {
     public boolean shouldBuy(String symbol, BigDecimal lastPrice, LocalDateTime now) {
 //        return Math.random()<0.005;
         List<Candlestick> candlesticks = candlesticksMap.get(symbol);
-        int nowIndex = Collections.binarySearch(candlesticks, null, (a, b) -> a.getTimestamp().toLocalDateTime().compareTo(now));
+        ListIndex index = listIndex(symbol, candlesticks);
+        int nowIndex = index.indexOf(now);
         if (nowIndex < 0) {
-            nowIndex = -nowIndex - 2;
+            // 非交易分钟没有K线，不能用上一根K线代替
+            return false;
         }
         int realConditionNum = 0;
         for(int i=0;i<observationMinute.length;i++){
-            if(lastPrice.compareTo(getBuyBoundPrice(candlesticks, nowIndex, i))*higherThanExpected[i] > 0){
+            if(nowIndex >= observationMinute[i]
+                    && lastPrice.compareTo(getBuyBoundPrice(candlesticks, nowIndex, i))*higherThanExpected[i] > 0){
                 realConditionNum++;
             }
         }
         return realConditionNum >= conditionNum;
     }
 
+    /**
+     * candlesticksMap中某个股票的分钟索引，只在第一次使用或K线列表变化时构建。
+     * LocalDateTime按第一根K线的时区偏移换算成epoch分钟
+     */
+    private static class ListIndex {
+        final List<Candlestick> candlesticks;
+        final int size;
+        final ZoneOffset offset;
+        final MinuteIndex index;
+
+        ListIndex(List<Candlestick> candlesticks) {
+            this.candlesticks = candlesticks;
+            this.size = candlesticks.size();
+            this.offset = size == 0 ? ZoneOffset.UTC : candlesticks.get(0).getTimestamp().getOffset();
+            long[] minutes = new long[size];
+            for (int i = 0; i < size; i++) {
+                minutes[i] = Math.floorDiv(candlesticks.get(i).getTimestamp().toEpochSecond(), 60);
+            }
+            this.index = new MinuteIndex(minutes, size);
+        }
+
+        /** 第一根时间不早于time的K线下标，都更早时返回size */
+        int lowerBound(LocalDateTime time) {
+            long second = time.toEpochSecond(offset);
+            long minute = Math.floorDiv(second, 60);
+            // 不在整分钟上时，这一分钟的K线早于time
+            if (Math.floorMod(second, 60) != 0 || time.getNano() != 0) {
+                minute++;
+            }
+            return index.lowerBound(minute);
+        }
+
+        /** 时间恰好为time的K线下标，没有时返回-1 */
+        int indexOf(LocalDateTime time) {
+            long second = time.toEpochSecond(offset);
+            if (Math.floorMod(second, 60) != 0 || time.getNano() != 0) {
+                return -1;
+            }
+            return index.indexOf(Math.floorDiv(second, 60));
+        }
+    }
+
+    private ListIndex listIndex(String symbol, List<Candlestick> candlesticks) {
+        ListIndex index = listIndexes.get(symbol);
+        if (index == null || index.candlesticks != candlesticks || index.size != candlesticks.size()) {
+            index = new ListIndex(candlesticks);
+            listIndexes.put(symbol, index);
+        }
+        return index;
+    }
+
     public BigDecimal getBuyBoundPrice(List<Candlestick> candlesticks, int nowIndex, int i) {
         Candlestick nowCandlestick = candlesticks.get(nowIndex - observationMinute[i]);
         BigDecimal avgPrice = nowCandlestick.getHigh().add(nowCandlestick.getLow()).add(nowCandlestick.getClose()).add(nowCandlestick.getOpen()).divide(BigDecimal.valueOf(4), 3, RoundingMode.HALF_UP);
@@ -109,10 +209,13 @@ public class SimpleRule implements RuleStrategy {
 //        return Math.random()<0.02;
         boolean isProfit = lastPrice.compareTo(buyingPrice.add(gapPrice)) > 0;
         List<Candlestick> candlesticks = candlesticksMap.get(symbol);
-        BigDecimal highestPrice =  candlesticks.stream().filter(c->{
-            LocalDateTime t=c.getTimestamp().toLocalDateTime();
-            return t.isBefore(now)&& (t.isAfter(buyingTime)||t.isEqual(buyingTime));
-        }).max(Comparator.comparing(Candlestick::getHigh)).get().getHigh();
+        // [buyingTime, now)范围内的最高价，逐分钟回测时只扫描新增的K线
+        ListIndex index = listIndex(symbol, candlesticks);
+        BigDecimal highestPrice = runningHigh(symbol).over(candlesticks,
+                index.lowerBound(buyingTime), index.lowerBound(now));
+        if (highestPrice == null) {
+            throw new NoSuchElementException("No candlestick between buying time and now");
+        }
 
         int stopLossIndex = stopLoss?1:-1;  // 1表示止损，-1表示止盈
         BigDecimal standardPrice = stopLoss?highestPrice:buyingPrice; // 止损状态下，用最高价；止盈状态下，用买入价
@@ -161,4 +264,90 @@ public class SimpleRule implements RuleStrategy {
             return lastPrice.compareTo(lossThreshold)*stopLossIndex < 0;
         }
     }
+
+    /**
+     * 与shouldBuy(String, BigDecimal, LocalDateTime)等价，用于回测
+     * @param nowIndex 当前分钟在series中的下标
+     * @param lastPrice 现价，精度为series.scale()的定点数
+     */
+    public boolean shouldBuyAt(CandleSeries series, int nowIndex, long lastPrice) {
+        int scale = series.scale();
+        int realConditionNum = 0;
+        for(int i=0;i<observationMinute.length;i++){
+            int row = nowIndex - observationMinute[i];
+            if(row >= 0 && FixedPoint.compare(lastPrice, scale, getBuyBoundPrice(series, row, i), RATIO_SCALE)*higherThanExpected[i] > 0){
+                realConditionNum++;
+            }
+        }
+        return realConditionNum >= conditionNum;
+    }
+
+    /** 与getBuyBoundPrice(List, int, int)等价，返回3位小数的定点数 */
+    public long getBuyBoundPrice(CandleSeries series, int row, int i) {
+        int scale = series.scale();
+        long sum = series.high(row) + series.low(row) + series.close(row) + series.open(row);
+        long avgPrice = FixedPoint.divide(sum, scale, 4, RATIO_SCALE);
+        return FixedPoint.divide(avgPrice * percentageUnscaled[i], RATIO_SCALE + percentageScale[i], 100, RATIO_SCALE);
+    }
+
+    @Override
+    public boolean shouldBuy(CandleSeries series, int end, String symbol, long lastPrice) {
+        int scale = series.scale();
+        int realConditionNum = 0;
+        for(int i=0;i<observationMinute.length;i++){
+            long boundPrice = FixedPoint.divide(series.high(end-observationMinute[i]) * percentageUnscaled[i],
+                    scale + percentageScale[i], 100, RATIO_SCALE);
+            if(FixedPoint.compare(lastPrice, scale, boundPrice, RATIO_SCALE)*higherThanExpected[i] > 0){
+                realConditionNum++;
+            }
+        }
+        return realConditionNum >= conditionNum;
+    }
+
+    /**
+     * 与shouldSell(String, BigDecimal, LocalDateTime, BigDecimal, LocalDateTime, boolean)等价，用于回测，
+     * 最高价取[buyIndex, nowIndex)范围内的K线
+     * @param buyIndex 最近一次买入所在分钟在series中的下标
+     * @param nowIndex 当前分钟在series中的下标
+     */
+    public boolean shouldSellAt(CandleSeries series, int buyIndex, int nowIndex, long buyingPrice, long lastPrice, boolean stopLoss) {
+        if (buyIndex >= nowIndex) {
+            throw new NoSuchElementException("No candlestick between buying time and now");
+        }
+        long[] highs = series.highs();
+        long highestPrice = highs[buyIndex];
+        for (int row = buyIndex + 1; row < nowIndex; row++) {
+            highestPrice = Math.max(highestPrice, highs[row]);
+        }
+        return shouldSell(series.scale(), buyingPrice, highestPrice, lastPrice, stopLoss);
+    }
+
+    /**
+     * 与shouldSellAt(CandleSeries, int, int, long, long, boolean)相同，但按symbol增量维护最高价，
+     * 同一次持仓内nowIndex递增时每次调用为均摊O(1)，buyIndex变化（新的成交）时重新开始
+     */
+    public boolean shouldSellAt(String symbol, CandleSeries series, int buyIndex, int nowIndex, long buyingPrice, long lastPrice, boolean stopLoss) {
+        if (buyIndex >= nowIndex) {
+            throw new NoSuchElementException("No candlestick between buying time and now");
+        }
+        long highestPrice = runningHigh(symbol).over(series, buyIndex, nowIndex);
+        return shouldSell(series.scale(), buyingPrice, highestPrice, lastPrice, stopLoss);
+    }
+
+    /** 最高价按symbol增量维护，只扫描上次调用之后的新K线，buyingEpochSecond变化时重新开始 */
+    @Override
+    public boolean shouldSell(CandleSeries series, int end, long buyingPrice, long buyingEpochSecond, String symbol, long lastPrice, boolean stopLoss) {
+        long highestPrice = runningHigh(symbol).since(series, end, buyingEpochSecond);
+        return shouldSell(series.scale(), buyingPrice, highestPrice, lastPrice, stopLoss);
+    }
+
+    /** 定点数版本的止盈止损判断，价格精度均为scale */
+    private boolean shouldSell(int scale, long buyingPrice, long highestPrice, long lastPrice, boolean stopLoss) {
+        boolean isProfit = FixedPoint.compare(lastPrice - buyingPrice, scale, gapUnscaled, gapScale) > 0;
+        int stopLossIndex = stopLoss?1:-1;  // 1表示止损，-1表示止盈
+        long standardPrice = stopLoss?highestPrice:buyingPrice; // 止损状态下，用最高价；止盈状态下，用买入价
+        // 阈值精度为scale+3
+        long threshold = standardPrice * (isProfit ? winRatio : loseRatio);
+        return FixedPoint.compare(lastPrice, scale, threshold, scale + RATIO_SCALE)*stopLossIndex < 0;
+    }
 }
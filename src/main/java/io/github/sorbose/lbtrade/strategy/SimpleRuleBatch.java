@@ -0,0 +1,228 @@
+package io.github.sorbose.lbtrade.strategy;
+
+import io.github.sorbose.lbtrade.quote.CandleSeries;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+
+import java.math.BigDecimal;
+
+/**
+ * 一次判断整个关注列表的SimpleRule。输入是列式的快照（每个股票的现价、各观测点的最高价、持仓成本和买入后最高价），
+ * 输出是按行号排列的信号位图，结果与SimpleRule.shouldBuy(CandleSeries, ...)和shouldSell(CandleSeries, ...)逐个判断完全相同。
+ * <p>
+ * 构造时把百分比、价格差和回撤比例换算成指定精度下的整数系数，判断时没有除法和BigDecimal：
+ * 观测点价格按HALF_UP舍入到3位小数后与现价比较，等价于比较 high*P+D 与 2D*c，
+ * 其中c只与现价有关，每个股票算一次。每个观测点是对所有股票的一个简单循环，JIT可以自动向量化
+ */
+public class SimpleRuleBatch {
+    private static final int RATIO_SCALE = 3;
+
+    private final int scale;
+    private final int[] observationMinute;
+    private final int[] higherThanExpected;
+    private final int conditionNum;
+    /** 观测点价格 b = floor((high*coefficient[i] + offset[i]) / (2*offset[i])) */
+    private final long[] coefficient;
+    private final long[] offset;
+    /** 现价换算成与观测点价格可比的精度：lastPrice*lastMultiplier 与 b*boundMultiplier 比较 */
+    private final long lastMultiplier;
+    private final long boundMultiplier;
+    /** 盈利判断：(lastPrice-buyingPrice)*gapMultiplier > gap */
+    private final long gapMultiplier;
+    private final long gap;
+    private final long winRatio;
+    private final long loseRatio;
+
+    /**
+     * @param scale 快照中价格的精度
+     */
+    public SimpleRuleBatch(SimpleRule rule, int scale) {
+        this.scale = scale;
+        this.observationMinute = rule.observationMinute.clone();
+        this.higherThanExpected = rule.higherThanExpected.clone();
+        this.conditionNum = rule.conditionNum;
+        int n = observationMinute.length;
+        this.coefficient = new long[n];
+        this.offset = new long[n];
+        for (int i = 0; i < n; i++) {
+            BigDecimal p = nonNegativeScale(rule.percentage[i]);
+            // FixedPoint.divide(high*p, scale+p.scale(), 100, 3)，被除数和除数分别乘上10的幂
+            int shift = scale + p.scale() - RATIO_SCALE;
+            long divisor = 100 * FixedPoint.pow10(Math.max(0, shift));
+            coefficient[i] = 2 * p.unscaledValue().longValueExact() * FixedPoint.pow10(Math.max(0, -shift));
+            offset[i] = divisor;
+        }
+        this.lastMultiplier = FixedPoint.pow10(Math.max(0, RATIO_SCALE - scale));
+        this.boundMultiplier = FixedPoint.pow10(Math.max(0, scale - RATIO_SCALE));
+        BigDecimal gapPrice = nonNegativeScale(rule.gapPrice);
+        int gapScale = gapPrice.scale();
+        this.gapMultiplier = FixedPoint.pow10(Math.max(0, gapScale - scale));
+        this.gap = gapPrice.unscaledValue().longValueExact() * FixedPoint.pow10(Math.max(0, scale - gapScale));
+        BigDecimal win = nonNegativeScale(rule.winPercentage);
+        this.winRatio = FixedPoint.divide(win.unscaledValue().longValueExact(), win.scale(), 100, RATIO_SCALE);
+        BigDecimal lose = nonNegativeScale(rule.losePercentage);
+        this.loseRatio = FixedPoint.divide(lose.unscaledValue().longValueExact(), lose.scale(), 100, RATIO_SCALE);
+    }
+
+    private static BigDecimal nonNegativeScale(BigDecimal value) {
+        return value.scale() < 0 ? value.setScale(0) : value;
+    }
+
+    public int scale() {
+        return scale;
+    }
+
+    /** 可以容纳capacity个股票的快照 */
+    public Snapshot newSnapshot(int capacity) {
+        return new Snapshot(capacity, observationMinute.length);
+    }
+
+    /** 可以容纳capacity个信号的位图 */
+    public static long[] newSignals(int capacity) {
+        return new long[(capacity + 63) >>> 6];
+    }
+
+    public static boolean isSet(long[] signals, int row) {
+        return (signals[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * 列式快照，按行号对应关注列表中的股票，价格都是SimpleRuleBatch精度的定点数。
+     * 不是线程安全的，每个调用线程使用自己的快照
+     */
+    public final class Snapshot {
+        private final int capacity;
+        private int size;
+        /** 现价 */
+        public final long[] lastPrice;
+        /** lookbackHigh[i][row]为observationMinute[i]分钟前那根K线的最高价，没有时为-1 */
+        public final long[][] lookbackHigh;
+        /** 持仓成本，没有持仓时为0 */
+        public final long[] buyingPrice;
+        /** 买入以来的最高价 */
+        public final long[] highestPrice;
+        // 判断时的临时数组
+        private final int[] counts;
+        private final long[] aboveLimit;
+        private final long[] belowLimit;
+
+        private Snapshot(int capacity, int observations) {
+            this.capacity = capacity;
+            this.lastPrice = new long[capacity];
+            this.lookbackHigh = new long[observations][capacity];
+            this.buyingPrice = new long[capacity];
+            this.highestPrice = new long[capacity];
+            this.counts = new int[capacity];
+            this.aboveLimit = new long[capacity];
+            this.belowLimit = new long[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /** 参与判断的行数，即[0, size) */
+        public void setSize(int size) {
+            if (size < 0 || size > capacity) {
+                throw new IllegalArgumentException("Size " + size + " exceeds capacity " + capacity);
+            }
+            this.size = size;
+        }
+
+        /**
+         * 用series中[0, end)的K线填入row的观测点最高价，与SimpleRule.shouldBuy(CandleSeries, end, ...)取的K线相同
+         */
+        public void setQuote(int row, CandleSeries series, int end, long lastPrice) {
+            if (series.scale() != scale) {
+                throw new IllegalArgumentException("Series scale " + series.scale() + " differs from " + scale);
+            }
+            this.lastPrice[row] = lastPrice;
+            for (int i = 0; i < observationMinute.length; i++) {
+                int k = end - observationMinute[i];
+                lookbackHigh[i][row] = k >= 0 ? series.high(k) : -1;
+            }
+        }
+
+        /** 设置row的持仓，buyingPrice为0表示没有持仓 */
+        public void setPosition(int row, long buyingPrice, long highestPrice) {
+            this.buyingPrice[row] = buyingPrice;
+            this.highestPrice[row] = highestPrice;
+        }
+    }
+
+    /**
+     * 判断快照中所有股票是否应该买入，结果写入signals
+     * @return 应该买入的股票数
+     */
+    public int buySignals(Snapshot snapshot, long[] signals) {
+        int n = snapshot.size;
+        long[] last = snapshot.lastPrice;
+        int[] counts = snapshot.counts;
+        long[] above = snapshot.aboveLimit;
+        long[] below = snapshot.belowLimit;
+        // 现价高于观测点价格b 当且仅当 b < above；低于 当且仅当 b >= below
+        for (int j = 0; j < n; j++) {
+            long l = last[j] * lastMultiplier;
+            above[j] = (l - 1) / boundMultiplier + 1;
+            below[j] = l / boundMultiplier + 1;
+            counts[j] = 0;
+        }
+        for (int i = 0; i < observationMinute.length; i++) {
+            long[] high = snapshot.lookbackHigh[i];
+            long p = coefficient[i];
+            long d = offset[i];
+            long twoD = 2 * d;
+            if (higherThanExpected[i] > 0) {
+                for (int j = 0; j < n; j++) {
+                    counts[j] += (high[j] >= 0 && high[j] * p + d < twoD * above[j]) ? 1 : 0;
+                }
+            } else if (higherThanExpected[i] < 0) {
+                for (int j = 0; j < n; j++) {
+                    counts[j] += (high[j] >= 0 && high[j] * p + d >= twoD * below[j]) ? 1 : 0;
+                }
+            }
+        }
+        return pack(counts, n, signals, conditionNum);
+    }
+
+    /**
+     * 判断快照中所有持仓是否应该卖出，结果写入signals，没有持仓的行不会有信号
+     * @return 应该卖出的股票数
+     */
+    public int sellSignals(Snapshot snapshot, boolean stopLoss, long[] signals) {
+        int n = snapshot.size;
+        long[] last = snapshot.lastPrice;
+        long[] buying = snapshot.buyingPrice;
+        // 止损时以买入后最高价为基准，止盈时以买入价为基准
+        long[] standard = stopLoss ? snapshot.highestPrice : buying;
+        int[] counts = snapshot.counts;
+        if (stopLoss) {
+            for (int j = 0; j < n; j++) {
+                long ratio = (last[j] - buying[j]) * gapMultiplier > gap ? winRatio : loseRatio;
+                counts[j] = (buying[j] > 0 && last[j] * 1000 < standard[j] * ratio) ? 1 : 0;
+            }
+        } else {
+            for (int j = 0; j < n; j++) {
+                long ratio = (last[j] - buying[j]) * gapMultiplier > gap ? winRatio : loseRatio;
+                counts[j] = (buying[j] > 0 && last[j] * 1000 > standard[j] * ratio) ? 1 : 0;
+            }
+        }
+        return pack(counts, n, signals, 1);
+    }
+
+    /** counts[j] >= threshold的行置位，返回置位的数量 */
+    private static int pack(int[] counts, int n, long[] signals, int threshold) {
+        int words = (n + 63) >>> 6;
+        int total = 0;
+        for (int w = 0; w < words; w++) {
+            long word = 0;
+            int base = w << 6;
+            int end = Math.min(64, n - base);
+            for (int b = 0; b < end; b++) {
+                word |= (counts[base + b] >= threshold ? 1L : 0L) << b;
+            }
+            signals[w] = word;
+            total += Long.bitCount(word);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.sorbose.lbtrade.strategy;
+
+/**
+ * 按顺序追加的点的上凸包索引，点的横坐标是追加的序号，纵坐标是价格。
+ * 用于查询从左侧某点A出发到一段连续点的最大斜率，即这段点中最“高出”射线的那个点。
+ * <p>
+ * 采用对数方法：序号对齐的2^L个点组成第L层的一个块，块填满时合并两个子块的凸包得到它的凸包，追加均摊O(log n)；
+ * 查询把区间分解为O(log n)个块，在每个块的凸包上二分切点，共O(log² n)。
+ * 只保留最近的点：点数达到容量时用最近retain个点重建，序号从0重新开始。非线程安全
+ */
+public class UpperHullIndex {
+    private final int retain;
+    private final int levels;
+    private final long[] y;
+    private int n;
+    /** hulls[L]依次保存第L层已填满的块的凸包顶点序号，offsets[L][b]为第b块在hulls[L]中的起点 */
+    private final int[][] hulls;
+    private final int[][] offsets;
+    private final int[] merged;
+
+    /**
+     * @param retain 查询最多用到的最近点数，容量为不小于其4倍的2的幂，重建的均摊代价不超过每次追加的1/3
+     */
+    public UpperHullIndex(int retain) {
+        this.retain = Math.max(1, retain);
+        int capacity = Integer.highestOneBit(Math.max(32, this.retain * 4 - 1)) << 1;
+        this.levels = Integer.numberOfTrailingZeros(capacity);
+        this.y = new long[capacity];
+        this.hulls = new int[levels + 1][];
+        this.offsets = new int[levels + 1][];
+        for (int level = 1; level <= levels; level++) {
+            hulls[level] = new int[capacity];
+            offsets[level] = new int[(capacity >> level) + 1];
+        }
+        this.merged = new int[capacity];
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public long y(int i) {
+        return y[i];
+    }
+
+    public void clear() {
+        n = 0;
+    }
+
+    /** 追加一个点，序号为追加前的size()，容量已满时先用最近retain个点重建 */
+    public void append(long value) {
+        if (n == y.length) {
+            int keep = Math.min(retain, n);
+            long[] recent = new long[keep];
+            System.arraycopy(y, n - keep, recent, 0, keep);
+            n = 0;
+            for (long v : recent) {
+                append(v);
+            }
+        }
+        int i = n++;
+        y[i] = value;
+        for (int level = 1; level <= levels && (n & ((1 << level) - 1)) == 0; level++) {
+            build(level, (n >> level) - 1);
+        }
+    }
+
+    /** 合并第level-1层的两个子块，得到第level层第block块的凸包 */
+    private void build(int level, int block) {
+        int count = 0;
+        for (int child = 2 * block; child <= 2 * block + 1; child++) {
+            if (level == 1) {
+                merged[count++] = child;
+            } else {
+                int[] hull = hulls[level - 1];
+                for (int k = offsets[level - 1][child]; k < offsets[level - 1][child + 1]; k++) {
+                    merged[count++] = hull[k];
+                }
+            }
+        }
+        // 单调链：去掉不在上凸包上的点（位于相邻两点连线上或下方）
+        int[] hull = hulls[level];
+        int start = offsets[level][block];
+        int size = 0;
+        for (int k = 0; k < count; k++) {
+            int c = merged[k];
+            while (size >= 2 && !above(hull[start + size - 2], hull[start + size - 1], c)) {
+                size--;
+            }
+            hull[start + size++] = c;
+        }
+        offsets[level][block + 1] = start + size;
+    }
+
+    /** b严格位于a和c的连线上方（a、b、c的序号递增） */
+    private boolean above(int a, int b, int c) {
+        return (y[b] - y[a]) * (c - a) > (y[c] - y[a]) * (b - a);
+    }
+
+    /** 从A=(ax, ay)看，p的斜率是否严格大于q */
+    public boolean steeper(long ax, long ay, int p, int q) {
+        return (y[p] - ay) * (q - ax) > (y[q] - ay) * (p - ax);
+    }
+
+    /**
+     * [from, to)中从A=(ax, ay)出发斜率最大的点，要求ax < from
+     * @return 点的序号，区间为空时返回-1
+     */
+    public int maxSlope(long ax, long ay, int from, int to) {
+        int best = -1;
+        while (from < to) {
+            int level = Math.min(levels, Integer.numberOfTrailingZeros(from));
+            while (from + (1 << level) > to) {
+                level--;
+            }
+            int candidate = level == 0 ? from : tangent(level, from >> level, ax, ay);
+            if (best < 0 || steeper(ax, ay, candidate, best)) {
+                best = candidate;
+            }
+            from += 1 << level;
+        }
+        return best;
+    }
+
+    /** 块内的切点：A在块左侧时，到上凸包各顶点的斜率先增后减，二分找最大值 */
+    private int tangent(int level, int block, long ax, long ay) {
+        int[] hull = hulls[level];
+        int lo = offsets[level][block];
+        int hi = offsets[level][block + 1] - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (steeper(ax, ay, hull[mid + 1], hull[mid])) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return hull[lo];
+    }
+}
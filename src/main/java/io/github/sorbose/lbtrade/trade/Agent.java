@@ -4,27 +4,34 @@ import com.longport.OpenApiException;
 import com.longport.quote.Candlestick;
 import com.longport.quote.PushQuote;
 import com.longport.quote.SecurityQuote;
-import com.longport.trade.EstimateMaxPurchaseQuantityResponse;
+import com.longport.trade.AccountBalance;
 import com.longport.trade.OrderSide;
 import com.longport.trade.StockPosition;
-import com.longport.trade.StockPositionsResponse;
-import com.sun.xml.internal.ws.api.ha.StickyFeature;
+import io.github.sorbose.lbtrade.TradeMain;
+import io.github.sorbose.lbtrade.gateway.ApiGateway;
+import io.github.sorbose.lbtrade.gateway.LiveQuoteGateway;
+import io.github.sorbose.lbtrade.gateway.LiveTradeGateway;
+import io.github.sorbose.lbtrade.gateway.QuoteGateway;
+import io.github.sorbose.lbtrade.gateway.TradeGateway;
+import io.github.sorbose.lbtrade.quote.CandleRing;
+import io.github.sorbose.lbtrade.quote.CandleSeries;
 import io.github.sorbose.lbtrade.quote.Quoter;
 import io.github.sorbose.lbtrade.strategy.RuleStrategy;
 import io.github.sorbose.lbtrade.strategy.SimpleRule;
+import io.github.sorbose.lbtrade.util.AsyncLimiter;
+import io.github.sorbose.lbtrade.util.ConflatingDispatcher;
+import io.github.sorbose.lbtrade.util.FixedPoint;
+import io.github.sorbose.lbtrade.util.ShardedExecutor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.sound.midi.Sequence;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.*;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 public class Agent {
     Quoter quoter;
@@ -35,25 +42,56 @@ public class Agent {
     BigDecimal sellGapRatio;
     BigDecimal minBuyQuantity;
     boolean stopLoss;
-    ThreadPoolExecutor executor = new ThreadPoolExecutor(
-            1,                // 核心线程数
-            2,               // 最大线程数
-            100,              // 线程空闲最大存活时间
-            TimeUnit.SECONDS, // 时间单位
-            new LinkedBlockingQueue<>(10),  // 队列容量
-            new ThreadPoolExecutor.DiscardOldestPolicy() // 拒绝策略
-    );
+    /**
+     * 按股票分片的单线程事件循环，同一个股票的决策总是在同一个线程上串行执行，
+     * 只属于某个股票的状态不需要加锁，不同分片的股票并行处理
+     */
+    final ShardedExecutor shards;
+    /** 定时拉取报价 */
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+    /** 每个股票只保留最新的一个待处理报价 */
+    private final ConflatingDispatcher<String, Tick> dispatcher;
+    private final PipelineMetrics metrics = PipelineMetrics.DEFAULT;
+    /** 交易接口的限流，用于输出统计 */
+    private final ApiGateway limits;
+
+    /** 一个报价和收到它的时间，用于统计从收到报价到下单的延迟 */
+    private static final class Tick {
+        final BigDecimal lastDone;
+        /** System.nanoTime() */
+        final long receivedNanos;
+
+        Tick(BigDecimal lastDone, long receivedNanos) {
+            this.lastDone = lastDone;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+    /** 同时进行中的网络请求上限，超出的排队 */
+    private static final int MAX_CONCURRENT_REQUESTS = 8;
+    private final AsyncLimiter requestLimiter = new AsyncLimiter(MAX_CONCURRENT_REQUESTS);
+    /** 网络请求的超时 */
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "agent-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
     private static final Logger logger = LogManager.getLogger(Agent.class);
-    private final ConcurrentHashMap<String, AtomicBoolean> symbolLocks = new ConcurrentHashMap<>();
+    /** 各阶段延迟的汇总周期和输出文件 */
+    private static final long METRICS_PERIOD_SECOND = 60;
+    private static final String METRICS_CSV = "data/latency.csv";
+    /** 每次决策使用的K线数量 */
+    private static final int CANDLESTICK_COUNT = 1000;
+    /** 每个股票复用的K线序列，只在该股票所在的分片线程上访问 */
+    private final ConcurrentHashMap<String, CandleSeries> liveSeries = new ConcurrentHashMap<>();
 
-    private Quoter initQuoter(String[] symbols, int expireSecond, int timeoutSecond) {
-        return new Quoter(symbols, expireSecond, timeoutSecond);
+    private Quoter initQuoter(QuoteGateway quotes, String[] symbols, int expireSecond, int timeoutSecond) {
+        return new Quoter(quotes, symbols, expireSecond, timeoutSecond);
     }
 
-    private Trader initTrader(int expireSecond, int timeoutSecond,
+    private Trader initTrader(TradeGateway trades, int expireSecond, int timeoutSecond,
                               BigDecimal cashBuyAvailableRatio, BigDecimal marginBuyAvailableRatio,
                               BigDecimal minRemainFinanceAmount) {
-        return new Trader(expireSecond, timeoutSecond, cashBuyAvailableRatio, marginBuyAvailableRatio, minRemainFinanceAmount);
+        return new Trader(trades, expireSecond, timeoutSecond, cashBuyAvailableRatio, marginBuyAvailableRatio, minRemainFinanceAmount);
     }
 
     private RuleStrategy initSimpleRule(int[] observationMinute, BigDecimal[] percentage, int[] highThanExpected , int conditionNum, BigDecimal gapPrice, BigDecimal winPercentage, BigDecimal losePercentage) {
@@ -61,6 +99,7 @@ public class Agent {
                 conditionNum, gapPrice, winPercentage, losePercentage);
     }
 
+    /** 使用实盘连接，尚未建立的连接依次阻塞建立，可以先调用TradeMain.connectAll()并行建立 */
     public Agent(String[] symbols, BigDecimal cashBuyAvailableRatio, BigDecimal marginBuyAvailableRatio,
                  BigDecimal minRemainFinanceAmount,
                  int[] observationMinute, BigDecimal[] percentage, int[] higherThanExpected, int conditionNum,
@@ -69,145 +108,328 @@ public class Agent {
                  BigDecimal buyOrderPriceGapTenThousandPercent, BigDecimal sellOrderPriceGapTenThousandPercent,
                  BigDecimal minBuyQuantity,
                  int submittedOrderExpireTimeSec, int getByNetworkTimeoutSecond) {
+        this(LiveQuoteGateway.instance(), LiveTradeGateway.instance(), symbols, cashBuyAvailableRatio, marginBuyAvailableRatio,
+                minRemainFinanceAmount, observationMinute, percentage, higherThanExpected, conditionNum,
+                simpleRuleProfitGapPrice, simpleRuleWinPercentage, simpleRuleLosePercentage, stopLoss,
+                buyOrderPriceGapTenThousandPercent, sellOrderPriceGapTenThousandPercent, minBuyQuantity,
+                submittedOrderExpireTimeSec, getByNetworkTimeoutSecond);
+    }
+
+    /** 使用指定的行情和交易接口，如离线压测时的SimulatedExchange */
+    public Agent(QuoteGateway quotes, TradeGateway trades,
+                 String[] symbols, BigDecimal cashBuyAvailableRatio, BigDecimal marginBuyAvailableRatio,
+                 BigDecimal minRemainFinanceAmount,
+                 int[] observationMinute, BigDecimal[] percentage, int[] higherThanExpected, int conditionNum,
+                 BigDecimal simpleRuleProfitGapPrice, BigDecimal simpleRuleWinPercentage, BigDecimal simpleRuleLosePercentage,
+                 boolean stopLoss,
+                 BigDecimal buyOrderPriceGapTenThousandPercent, BigDecimal sellOrderPriceGapTenThousandPercent,
+                 BigDecimal minBuyQuantity,
+                 int submittedOrderExpireTimeSec, int getByNetworkTimeoutSecond) {
         this.strategy = initSimpleRule(observationMinute, percentage, higherThanExpected, conditionNum, simpleRuleProfitGapPrice, simpleRuleWinPercentage, simpleRuleLosePercentage);
-        this.quoter = initQuoter(symbols, submittedOrderExpireTimeSec, getByNetworkTimeoutSecond);
-        this.trader = initTrader(submittedOrderExpireTimeSec, getByNetworkTimeoutSecond, cashBuyAvailableRatio, marginBuyAvailableRatio, minRemainFinanceAmount);
+        this.quoter = initQuoter(quotes, symbols, submittedOrderExpireTimeSec, getByNetworkTimeoutSecond);
+        this.trader = initTrader(trades, submittedOrderExpireTimeSec, getByNetworkTimeoutSecond, cashBuyAvailableRatio, marginBuyAvailableRatio, minRemainFinanceAmount);
         this.buyGapRatio = buyOrderPriceGapTenThousandPercent.divide(BigDecimal.valueOf(10000), 6, RoundingMode.HALF_UP);
         this.sellGapRatio = sellOrderPriceGapTenThousandPercent.divide(BigDecimal.valueOf(10000), 6, RoundingMode.HALF_UP);
         this.minBuyQuantity = minBuyQuantity;
-        this.assetManager = new AssetManager();
+        this.assetManager = new AssetManager(trades);
+        this.shards = ShardedExecutor.forKeys(symbols.length, "agent");
+        this.dispatcher = ConflatingDispatcher.async(shards, this::evaluate);
+        metrics.counter("conflated", dispatcher::conflatedCount);
+        this.limits = trades.limits();
+        metrics.counter("throttled", limits::throttledCount);
     }
 
-    private AtomicBoolean getLockForProduct(String productId) {
-        return symbolLocks.computeIfAbsent(productId, id -> new AtomicBoolean(false));
+    /** 替换构造时创建的SimpleRule，如使用LineStrategy，需在开始运行前调用 */
+    public void setStrategy(RuleStrategy strategy) {
+        this.strategy = strategy;
     }
 
-    // TODO: 丢弃来不及处理的数据
-    private boolean discardOld(String symbol, PushQuote pushQuote) {
-        return false;
+    /** 收到推送的报价时交给dispatcher，由所在分片异步决策 */
+    private void handleLatestPriceSubscribe(String symbol, PushQuote pushQuote) {
+        if(pushQuote.getLastDone()!=null){
+            dispatcher.offer(symbol, new Tick(pushQuote.getLastDone(), System.nanoTime()));
+        }
     }
 
-    private void handleLatestPriceSubscribe(String symbol, PushQuote pushQuote) {
+    /**
+     * 通过requestLimiter发出一个网络请求，超过timeoutSecond没有结果时以TimeoutException失败，
+     * 超时时还在排队的请求不再发出
+     */
+    private <T> CompletableFuture<T> request(Callable<CompletableFuture<T>> request, String what) {
+        CompletableFuture<T> future = requestLimiter.submit(request);
+        ScheduledFuture<?> timeout = timeouts.schedule(() -> future.completeExceptionally(
+                new TimeoutException(what + " timed out after " + trader.timeoutSecond + "s")),
+                trader.timeoutSecond, TimeUnit.SECONDS);
+        future.whenComplete((v, e) -> timeout.cancel(false));
+        return future;
+    }
+
+    /**
+     * 最近CANDLESTICK_COUNT根1分钟K线。启动了实时K线时从本地缓冲区复制，复用每个股票自己的序列对象，
+     * 需在该股票所在的分片线程上调用；否则通过网络异步拉取
+     */
+    private CompletableFuture<CandleSeries> pullCandlesticks(String symbol) {
+        CandleRing ring = quoter.liveCandlesticks(symbol);
+        if (ring == null) {
+            return request(() -> quoter.pullRealtime1MinCandlestickFuture(symbol, CANDLESTICK_COUNT), "candlesticks " + symbol)
+                    .thenApply(candlesticks -> CandleSeries.of(candlesticks, FixedPoint.DEFAULT_SCALE));
+        }
+        CandleSeries series = ring.last(CANDLESTICK_COUNT, liveSeries.get(symbol));
+        liveSeries.put(symbol, series);
+        return CompletableFuture.completedFuture(series);
+    }
+
+    /**
+     * 拉取所有股票的最新报价，各股票的请求同时发出（受requestLimiter限制），在各自的分片上决策，全部完成后返回。
+     * 与start()同时使用时同一个股票可能被并发决策，两者只用其一
+     */
+    public void runByAsking() {
         try {
-            System.out.println(symbol + " " + pushQuote.getLastDone()+" "+pushQuote.getTimestamp());
-            quoter.pullRealtimeCalcIndex().thenAccept(securityCalcIndices -> {
-                System.out.println("securityCalcIndices: "+ Arrays.toString(securityCalcIndices));
-            });
+            SecurityQuote[] securityQuotes = pullQuotes();
+            long receivedNanos = System.nanoTime();
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[securityQuotes.length];
+            for(int i=0;i<securityQuotes.length;i++){
+                String symbol=securityQuotes[i].getSymbol();
+                Tick tick=new Tick(securityQuotes[i].getLastDone(), receivedNanos);
+                futures[i] = CompletableFuture.supplyAsync(() -> evaluate(symbol, tick), shards.executorFor(symbol))
+                        .thenCompose(future -> future);
+            }
+            CompletableFuture.allOf(futures).join();
+        } catch (OpenApiException | ExecutionException | InterruptedException | TimeoutException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            CompletableFuture<StockPositionsResponse> positionsFuture = assetManager.pullStockPositions(symbol);
-
-            // TODO: 检查夜盘交易时段的K线是否最新
-            CompletableFuture<Candlestick[]> candlestickFuture = quoter.pullRealtime1MinCandlestickFuture(symbol, 40);
-            CompletableFuture<BigDecimal> estMaxOrderQtyFuture = trader.pullEstMarginMaxOrderQtyFuture(symbol);
-            CompletableFuture<Void> allOf = CompletableFuture.allOf(positionsFuture, candlestickFuture, estMaxOrderQtyFuture);
-            allOf.thenApply(v -> {
-                Candlestick[] candlesticks=candlestickFuture.join();
-                StockPositionsResponse positions=positionsFuture.join();
-                System.out.println(symbol+ " v "+v);
-                return "q";
-            });
-            // Candlestick[] candlesticks = quoter.pullRealtime1MinCandlestickFuture(symbol, 40).get();
-            Candlestick[] candlesticks =null;
-            // TODO: 简单起见，这里没有根据盈亏情况判断是否卖出，全部按盈利处理
-            // TODO: 简单起见，这里没有考虑买入时间
-//            if (buyOrSell(symbol, pushQuote, candlesticks)) return;
+    private SecurityQuote[] pullQuotes() throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
+        SecurityQuote[] securityQuotes= quoter.pullRealtimeQuote().get(trader.timeoutSecond, TimeUnit.SECONDS);
+        logger.debug("securityQuotes: {}", Arrays.toString(securityQuotes));
+        return securityQuotes;
+    }
+
+    /** 定时任务：拉取所有股票的最新报价并交给dispatcher，异常只记录，不能中断定时任务 */
+    private void pollQuotes() {
+        try {
+            SecurityQuote[] quotes = pullQuotes();
+            long receivedNanos = System.nanoTime();
+            for(SecurityQuote quote: quotes){
+                if(quote.getLastDone()!=null){
+                    dispatcher.offer(quote.getSymbol(), new Tick(quote.getLastDone(), receivedNanos));
+                }
+            }
         } catch (Exception e) {
-            throw new RuntimeException(e);
+            logger.error("Failed to poll quotes: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 用最新成交价对一个股票做一次买卖决策，在该股票所在的分片线程上调用，不阻塞。
+     * K线、持仓、最大可买数量和账户余额同时请求（持仓和余额有本地缓存时直接读缓存），都返回后再回到分片线程上判断，
+     * 所以一次决策的延迟约为一次网络往返。后两者只有买入时才用到，这里提前请求以免卖出不成立时再等一次往返。
+     * 各阶段的耗时记录在metrics中
+     * @return 提交的订单号，没有下单时为null
+     */
+    private CompletableFuture<String> evaluate(String symbol, Tick tick) {
+        metrics.recordSince(PipelineMetrics.Stage.QUEUE, tick.receivedNanos);
+        long fetchBegin = System.nanoTime();
+        try {
+            CompletableFuture<CandleSeries> candlesticksFuture = pullCandlesticks(symbol);
+            CompletableFuture<AssetManager.Position> positionFuture = pullPosition(symbol);
+            CompletableFuture<BigDecimal> estMaxOrderQtyFuture =
+                    request(() -> trader.pullEstMarginMaxOrderQtyFuture(symbol), "estimate max quantity " + symbol);
+            CompletableFuture<BigDecimal> financeFuture = pullRemainingFinanceAmount();
+            Executor shard = shards.executorFor(symbol);
+            return CompletableFuture.allOf(candlesticksFuture, positionFuture, estMaxOrderQtyFuture, financeFuture)
+                    .thenComposeAsync(v -> {
+                        metrics.recordSince(PipelineMetrics.Stage.FETCH, fetchBegin);
+                        CandleSeries candlesticks = candlesticksFuture.join();
+                        logger.debug("candlesticks length: {}", candlesticks.size());
+                        if(candlesticks.size()==0){
+                            logger.warn("No candlesticks for {}", symbol);
+                            metrics.skipped();
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        OffsetDateTime latestCandlestickTime=candlesticks.timestamp(candlesticks.size()-1);
+                        Duration duration= Duration.between(latestCandlestickTime, OffsetDateTime.now(quoter.clock()));
+                        if(duration.toMinutes()>2){
+                            logger.warn("Delayed candlesticks time (UTC+0) {}, duration {} min", latestCandlestickTime, duration.toMinutes());
+                        }
+                        return buyOrSell(symbol, tick, candlesticks, positionFuture.join(),
+                                estMaxOrderQtyFuture.join(), financeFuture.join(), shard);
+                    }, shard)
+                    .whenComplete((orderId, e) -> {
+                        if (e != null) {
+                            metrics.failed();
+                        } else if (orderId != null) {
+                            metrics.recordSince(PipelineMetrics.Stage.TICK_TO_TRADE, tick.receivedNanos);
+                            logger.info("orderId: {}", orderId);
+                        }
+                    });
+        } catch (Exception e) {
+            metrics.failed();
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
     }
 
+    /** 持仓，AssetManager已同步时读缓存，否则通过网络拉取。没有持仓时为null */
+    private CompletableFuture<AssetManager.Position> pullPosition(String symbol) {
+        if (assetManager.isSynced()) {
+            return CompletableFuture.completedFuture(assetManager.cachedPosition(symbol));
+        }
+        return request(() -> assetManager.pullStockPositions(symbol), "positions " + symbol).thenApply(res -> {
+            StockPosition[] positions = res.getChannels()[0].getPositions();
+            return positions.length == 0 ? null : AssetManager.Position.of(positions[0]);
+        });
+    }
 
-    private String buyIfNeeded(String symbol, BigDecimal lastDone, Candlestick[] candlesticks,
-                               BigDecimal estMarginMaxOrderQty, BigDecimal remainingFinanceAmount) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
+    /** 美元账户的剩余融资额度，AssetManager已同步时读缓存，否则通过网络拉取 */
+    private CompletableFuture<BigDecimal> pullRemainingFinanceAmount() {
+        AssetManager.Balance balance = assetManager.isSynced() ? assetManager.cachedBalance("USD") : null;
+        if (balance != null) {
+            return CompletableFuture.completedFuture(balance.remainingFinanceAmount);
+        }
+        return request(() -> assetManager.pullBalanceFuture("USD"), "balance")
+                .thenApply(AccountBalance::getRemainingFinanceAmount);
+    }
+
+    private CompletableFuture<String> buyIfNeeded(String symbol, Tick tick, CandleSeries candlesticks,
+                                                  BigDecimal estMarginMaxOrderQty, BigDecimal remainingFinanceAmount) throws OpenApiException {
         logger.debug("estMarginMaxOrderQty: {}", estMarginMaxOrderQty);
-        if (estMarginMaxOrderQty.compareTo(minBuyQuantity) >= 0
-                && remainingFinanceAmount.compareTo(trader.minRemainFinanceAmount) >= 0
-                && strategy.shouldBuy(candlesticks, symbol, lastDone)) {
+        BigDecimal lastDone = tick.lastDone;
+        // 上一个买单还没有结束时不重复下单
+        if (trader.orders.hasLiveOrder(symbol, OrderSide.Buy)
+                || estMarginMaxOrderQty.compareTo(minBuyQuantity) < 0
+                || remainingFinanceAmount.compareTo(trader.minRemainFinanceAmount) < 0) {
+            metrics.buyNotEligible();
+            return CompletableFuture.completedFuture(null);
+        }
+        long evaluateBegin = System.nanoTime();
+        boolean buy = strategy.shouldBuy(candlesticks, candlesticks.size(), symbol,
+                FixedPoint.toFixed(lastDone, candlesticks.scale()));
+        metrics.recordSince(PipelineMetrics.Stage.EVALUATE, evaluateBegin);
+        if (buy) {
             logger.debug("buyIfNeeded: {} {}", symbol, lastDone);
-            return trader.submitOrderLO(symbol, estMarginMaxOrderQty.intValue(),
+            trader.recordDecision(symbol, OrderSide.Buy, lastDone);
+            return trader.submitOrderLOAsync(symbol, estMarginMaxOrderQty.intValue(),
                     lastDone.multiply(BigDecimal.ONE.add(buyGapRatio)), OrderSide.Buy);
         }
-        return null;
-    }
-
-    private String sellIfNeeded(String symbol, BigDecimal lastDone, Candlestick[] candlesticks,
-                                 StockPositionsResponse res) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
-        StockPosition[] positions=res.getChannels()[0].getPositions();
-        if(positions.length==0){
-            return null;
-        }
-        StockPosition position=positions[0];
-        logger.debug("position = {}", position);
-        BigDecimal buyingPrice = position.getCostPrice();
-        BigDecimal quantity = position.getAvailableQuantity();
-        if(quantity.compareTo(BigDecimal.ZERO)>0){
-            OffsetDateTime buyingTimeUtc =
-                    trader.pullLatestFilledBuyOrderTime(symbol).get(trader.timeoutSecond, TimeUnit.SECONDS);
-            if(strategy.shouldSell(candlesticks, buyingPrice, buyingTimeUtc, symbol, lastDone, stopLoss)){
-                logger.debug("sellIfNeeded: {} {}  {}", symbol, lastDone, buyingTimeUtc);
-                return trader.submitOrderLO(symbol, quantity.intValue(),
-                        lastDone.multiply(BigDecimal.ONE.subtract(sellGapRatio)), OrderSide.Sell);
-            }
-        }
-        return null;
+        return CompletableFuture.completedFuture(null);
     }
 
-    private String buyOrSellSync(String symbol, BigDecimal lastDone, Candlestick[] candlesticks){
-        String orderId=null;
+    /**
+     * 有可卖持仓时取买入时间（有本地成交记录时直接读取）判断是否卖出，没有卖出时再判断是否买入。
+     * 拉取买入时间之后的判断回到shard上执行，因为candlesticks只能在该股票的分片线程上访问
+     */
+    private CompletableFuture<String> buyOrSell(String symbol, Tick tick, CandleSeries candlesticks,
+                                                AssetManager.Position position, BigDecimal estMarginMaxOrderQty,
+                                                BigDecimal remainingFinanceAmount, Executor shard) {
         try {
-            StockPositionsResponse stockPositionsResponse= assetManager.pullStockPositions(symbol).get(trader.timeoutSecond, TimeUnit.SECONDS);
-            orderId = sellIfNeeded(symbol, lastDone, candlesticks, stockPositionsResponse);
-            if(orderId==null){
-                BigDecimal estMarginMaxOrderQty=trader.pullEstMarginMaxOrderQtyFuture(symbol).get(trader.timeoutSecond, TimeUnit.SECONDS);
-                BigDecimal remainingFinanceAmount=assetManager.getBalanceUSD().getRemainingFinanceAmount();
-                orderId = buyIfNeeded(symbol, lastDone, candlesticks, estMarginMaxOrderQty, remainingFinanceAmount);
+            if(position==null || position.availableQuantity.compareTo(BigDecimal.ZERO)<=0
+                    || trader.orders.hasLiveOrder(symbol, OrderSide.Sell)){
+                return buyIfNeeded(symbol, tick, candlesticks, estMarginMaxOrderQty, remainingFinanceAmount);
             }
-            return orderId;
-        } catch (ExecutionException | InterruptedException | OpenApiException | TimeoutException e) {
-            logger.error("An error occurred {}", e.getMessage());
-            logger.error(Arrays.toString(e.getStackTrace()));
-            e.printStackTrace();
+            logger.debug("position = {}", position);
+            BigDecimal buyingPrice = position.costPrice;
+            BigDecimal quantity = position.availableQuantity;
+            CompletableFuture<OffsetDateTime> buyingTimeFuture = trader.fills.isSeeded()
+                    ? CompletableFuture.completedFuture(trader.fills.latestBuyTime(symbol))
+                    : request(() -> trader.pullLatestFilledBuyOrderTime(symbol), "buying time " + symbol);
+            return buyingTimeFuture
+                    .thenComposeAsync(buyingTimeUtc -> {
+                        try {
+                            int scale = candlesticks.scale();
+                            BigDecimal lastDone = tick.lastDone;
+                            long evaluateBegin = System.nanoTime();
+                            boolean sell = strategy.shouldSell(candlesticks, candlesticks.size(), FixedPoint.toFixed(buyingPrice, scale),
+                                    buyingTimeUtc.toEpochSecond(), symbol, FixedPoint.toFixed(lastDone, scale), stopLoss);
+                            metrics.recordSince(PipelineMetrics.Stage.EVALUATE, evaluateBegin);
+                            if(sell){
+                                logger.debug("sellIfNeeded: {} {}  {}", symbol, lastDone, buyingTimeUtc);
+                                trader.recordDecision(symbol, OrderSide.Sell, lastDone);
+                                return trader.submitOrderLOAsync(symbol, quantity.intValue(),
+                                        lastDone.multiply(BigDecimal.ONE.subtract(sellGapRatio)), OrderSide.Sell);
+                            }
+                            return buyIfNeeded(symbol, tick, candlesticks, estMarginMaxOrderQty, remainingFinanceAmount);
+                        } catch (OpenApiException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, shard);
+        } catch (OpenApiException e) {
+            throw new CompletionException(e);
         }
-        return orderId;
     }
 
-    public void runByAsking() {
+    /**
+     * 开始自动交易：每隔periodMillis拉取一次报价，同时订阅报价推送，两者都交给dispatcher。
+     * 每个股票最多只有一个待处理的报价，处理不过来时旧报价被新报价覆盖。各阶段的延迟每分钟汇总一次，追加到METRICS_CSV
+     */
+    public void start(long periodMillis) {
+        ticker.scheduleWithFixedDelay(this::pollQuotes, 0, periodMillis, TimeUnit.MILLISECONDS);
+        metrics.startReporting(METRICS_PERIOD_SECOND, METRICS_CSV);
+        runBySubscribe();
+    }
+
+    /**
+     * 等待已经收到的报价都决策完（包括决策中的下单），用于离线回放时逐个报价同步
+     * @return 超时时为false
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        return dispatcher.awaitIdle(timeout, unit);
+    }
+
+    public void stop() {
+        assetManager.stopSync();
+        ticker.shutdown();
+        shards.shutdown();
+        timeouts.shutdown();
+        logger.info("Agent stopped, {} quotes offered, {} conflated", dispatcher.offeredCount(), dispatcher.conflatedCount());
+        limits.logStats();
+        metrics.stopReporting(METRICS_CSV);
+    }
+
+    /**
+     * 预热：并行启动实时K线（订阅并拉取初始K线）和订单跟踪、资产缓存（拉取账户快照），两者都结束后才返回，
+     * 之后再开始交易。失败的部分退回到每次决策时通过网络拉取。使用交易日志时应在attachJournal()之后调用
+     * @param assetRefreshSecond 资产缓存全量校正的间隔
+     */
+    public void prepare(long assetRefreshSecond) throws InterruptedException {
+        long begin = System.nanoTime();
+        ExecutorService warmup = Executors.newFixedThreadPool(2);
         try {
-            SecurityQuote[] securityQuotes= quoter.pullRealtimeQuote().get(trader.timeoutSecond, TimeUnit.SECONDS);
-            logger.debug("securityQuotes: {}", Arrays.toString(securityQuotes));
-            for(SecurityQuote quote: securityQuotes){
-                String symbol=quote.getSymbol();
-                BigDecimal lastDone=quote.getLastDone();
-                Candlestick[] candlesticks= quoter.pullRealtime1MinCandlestickFuture(symbol, 1000).get(trader.timeoutSecond, TimeUnit.SECONDS);
-                logger.debug("candlesticks length: {}", candlesticks.length);
-                OffsetDateTime latestCandlestickTime=candlesticks[candlesticks.length-1].getTimestamp();
-                Duration duration= Duration.between(latestCandlestickTime, OffsetDateTime.now(ZoneId.of("UTC")));
-                if(duration.toMinutes()>2){
-                    logger.warn("Delayed candlesticks time (UTC+0) {}, duration {} min", latestCandlestickTime, duration.toMinutes());
+            Future<?> quotes = warmup.submit(() -> {
+                try {
+                    quoter.startLiveCandlesticks(CANDLESTICK_COUNT);
+                } catch (OpenApiException | ExecutionException | TimeoutException e) {
+                    logger.error("Failed to start live candlesticks, falling back to pulling: {}", e.getMessage());
                 }
-                AtomicBoolean lock = getLockForProduct(symbol);
-                if(lock.compareAndSet(false, true)){
-                    try {
-                        String orderId= buyOrSellSync(symbol, lastDone, candlesticks);
-                        if(orderId!=null){
-                            logger.info("orderId: {}", orderId);
-                        }
-                    }finally {
-                        lock.set(false);
-                    }
+                return null;
+            });
+            Future<?> assets = warmup.submit(() -> {
+                try {
+                    trader.startTracking();
+                    assetManager.startSync(assetRefreshSecond, "USD");
+                } catch (OpenApiException | ExecutionException | TimeoutException e) {
+                    logger.error("Failed to start asset cache, falling back to pulling: {}", e.getMessage());
                 }
-            }
-        } catch (OpenApiException | ExecutionException | InterruptedException | TimeoutException e) {
-            throw new RuntimeException(e);
+                return null;
+            });
+            quotes.get();
+            assets.get();
+        } catch (ExecutionException e) {
+            logger.error("Warm-up failed: {}", e.getCause().getMessage());
+        } finally {
+            warmup.shutdownNow();
         }
+        logger.info("Warm-up finished in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
     }
 
-    // TODO: 简单的草稿，还有许多需要检查完善的地方
+    /** 只根据报价推送交易 */
     public void runBySubscribe() {
         try {
             quoter.subscribe(this::handleLatestPriceSubscribe);
         } catch (Exception e) {
-            logger.error("An error occurred: {}", e.getMessage());
+            logger.error("Failed to subscribe quotes: {}", e.getMessage());
         }
     }
 
@@ -230,6 +452,12 @@ public class Agent {
         BigDecimal minBuyQuantity=new BigDecimal("3");
         int submittedOrderExpireTimeSec=70;
         int getByNetworkTimeoutSecond=30;
+        try {
+            TradeMain.connectAll(120);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.error("Failed to connect OpenAPI: {}", e.getMessage());
+            return;
+        }
         Agent agent=new Agent(symbols, cashBuyAvailableRatio, marginBuyAvailableRatio,
                 minRemainFinanceAmount,observationMinute, percentage, higherThanExpected, conditionNum,
                 simpleRuleProfitGapPrice, simpleRuleWinPercentage, simpleRuleLosePercentage, stopLoss,
@@ -237,17 +465,31 @@ public class Agent {
                 minBuyQuantity,
                 submittedOrderExpireTimeSec, getByNetworkTimeoutSecond);
         // agent.runBySubscribe();
+        TradeJournal journal = null;
+        try {
+            journal = new TradeJournal("data/trades.journal");
+            agent.trader.attachJournal(journal);
+        } catch (IOException e) {
+            logger.error("Failed to open trade journal, running without it: {}", e.getMessage());
+        }
+        agent.prepare(300);
         LocalDateTime endTime = LocalDateTime.of(2024, 11, 26, 5, 0);
         System.out.println(LocalDateTime.now().isBefore(endTime));
 
 
-        while (LocalDateTime.now().isBefore(endTime)) {
-            agent.executor.submit(agent::runByAsking);
-            // Thread.sleep(1000);
+        agent.start(1000);
+        long remaining = Duration.between(LocalDateTime.now(), endTime).toMillis();
+        if (remaining > 0) {
+            Thread.sleep(remaining);
+        }
+        agent.stop();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.error("Failed to close trade journal: {}", e.getMessage());
+            }
         }
-
-        // Thread.sleep(15000);
-        agent.executor.shutdown();
     }
 
 }
@@ -1,30 +1,136 @@
 package io.github.sorbose.lbtrade.trade;
 
-import com.longport.Config;
 import com.longport.OpenApiException;
 import com.longport.trade.*;
-import io.github.sorbose.lbtrade.TradeMain;
+import io.github.sorbose.lbtrade.gateway.ApiGateway;
+import io.github.sorbose.lbtrade.gateway.ApiGateway.Endpoint;
+import io.github.sorbose.lbtrade.gateway.LiveTradeGateway;
+import io.github.sorbose.lbtrade.gateway.TradeGateway;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDateTime;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 
+/**
+ * 账户余额和持仓。除了直接拉取，还可以用startSync()维护一份本地缓存：
+ * 订单推送到达时按成交增量更新，再定期全量拉取一次校正，决策时直接读缓存，不需要网络请求。
+ * 增量更新不计算手续费和融资利息，这些差异在下一次校正时消除
+ */
 public class AssetManager {
-    private static final Config config= TradeMain.config;
-    private static final TradeContext context= TradeMain.tradeContext;
+    private static final Logger logger = LogManager.getLogger(AssetManager.class);
+    private final TradeGateway context;
+    private final ApiGateway gateway;
     private AccountBalance balanceUsd;
     private StockPosition[] positions;
 
+    /** 缓存的持仓，不可变，更新时整体替换 */
+    public static final class Position {
+        public final BigDecimal quantity;
+        /** 可卖数量，不包括挂单中的卖出数量 */
+        public final BigDecimal availableQuantity;
+        public final BigDecimal costPrice;
+
+        public Position(BigDecimal quantity, BigDecimal availableQuantity, BigDecimal costPrice) {
+            this.quantity = quantity;
+            this.availableQuantity = availableQuantity;
+            this.costPrice = costPrice;
+        }
+
+        public static Position of(StockPosition position) {
+            return new Position(position.getQuantity(), position.getAvailableQuantity(), position.getCostPrice());
+        }
+
+        @Override
+        public String toString() {
+            return "Position{quantity=" + quantity + ", availableQuantity=" + availableQuantity + ", costPrice=" + costPrice + '}';
+        }
+    }
+
+    /** 缓存的余额，不可变，更新时整体替换 */
+    public static final class Balance {
+        public final BigDecimal totalCash;
+        public final BigDecimal remainingFinanceAmount;
+
+        public Balance(BigDecimal totalCash, BigDecimal remainingFinanceAmount) {
+            this.totalCash = totalCash;
+            this.remainingFinanceAmount = remainingFinanceAmount;
+        }
+
+        public static Balance of(AccountBalance balance) {
+            return new Balance(balance.getTotalCash(), balance.getRemainingFinanceAmount());
+        }
+
+        /** 买入amount：先用现金，不足的部分占用融资额度 */
+        Balance buy(BigDecimal amount) {
+            BigDecimal financed = amount.subtract(totalCash.max(BigDecimal.ZERO)).max(BigDecimal.ZERO);
+            return new Balance(totalCash.subtract(amount), remainingFinanceAmount.subtract(financed));
+        }
+
+        /** 卖出得到amount：先归还融资 */
+        Balance sell(BigDecimal amount) {
+            BigDecimal repaid = amount.min(totalCash.negate().max(BigDecimal.ZERO));
+            return new Balance(totalCash.add(amount), remainingFinanceAmount.add(repaid));
+        }
+
+        @Override
+        public String toString() {
+            return "Balance{totalCash=" + totalCash + ", remainingFinanceAmount=" + remainingFinanceAmount + '}';
+        }
+    }
+
+    /** 订单已经计入缓存的部分，用于从推送的累计成交数量算出增量 */
+    private static final class OrderProgress {
+        final OrderSide side;
+        BigDecimal executed = BigDecimal.ZERO;
+        /** 卖单冻结的可卖数量，撤单时归还 */
+        BigDecimal frozen = BigDecimal.ZERO;
+
+        OrderProgress(OrderSide side) {
+            this.side = side;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Position> positionCache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Balance> balanceCache = new ConcurrentHashMap<>();
+    /** 每个订单已经计入缓存的成交数量和冻结数量，只在持有本对象锁时访问 */
+    private final Map<String, OrderProgress> orderProgress = new HashMap<>();
+    /** 全量拉取期间收到的推送，拉取结果替换缓存后重放，不在拉取时为null。只在持有本对象锁时访问 */
+    private List<PushOrderChanged> replay;
+    /** 全量拉取同时只进行一次 */
+    private final Object refreshLock = new Object();
+    private volatile boolean synced;
+    private ScheduledExecutorService refresher;
+    private final OrderChangedHandler orderListener = this::onOrderChanged;
+
+    public AssetManager(TradeGateway context) {
+        this.context = context;
+        this.gateway = context.limits();
+    }
+
+    public AssetManager() {
+        this(LiveTradeGateway.instance());
+    }
+
     private AccountBalance pullBalance(String currency) {
         try{
-            AccountBalance[] accountBalances = context.getAccountBalance(currency).get(30, TimeUnit.SECONDS);
-            return accountBalances[0];
+            return pullBalanceFuture(currency).get(30, TimeUnit.SECONDS);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    public CompletableFuture<AccountBalance> pullBalanceFuture(String currency) throws OpenApiException {
+        return gateway.call(Endpoint.TRADE_QUERY, "balance:" + currency, () -> context.getAccountBalance(currency))
+                .thenApply(accountBalances -> accountBalances[0]);
+    }
+
     public AccountBalance getBalanceUSD() {
         balanceUsd = pullBalance("USD");
         return balanceUsd;
@@ -32,19 +138,217 @@ public class AssetManager {
 
 
     public CompletableFuture<StockPositionsResponse> pullStockPositions(String... symbols) throws OpenApiException {
-            return context.getStockPositions(new GetStockPositionsOptions().setSymbols(symbols));
+            return gateway.call(Endpoint.TRADE_QUERY, "positions:" + String.join(",", symbols),
+                    () -> context.getStockPositions(new GetStockPositionsOptions().setSymbols(symbols)));
     }
 
     private StockPosition[] getPositions(String... symbols) throws OpenApiException, ExecutionException, InterruptedException {
         return pullStockPositions(symbols).get().getChannels()[0].getPositions();
     }
 
+    /**
+     * 开始维护本地缓存：订阅订单推送，立即全量拉取一次，之后每隔refreshSecond秒校正一次
+     * @param currencies 需要缓存余额的币种
+     */
+    public void startSync(long refreshSecond, String... currencies) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
+        OrderPushes.of(context).listen(orderListener);
+        refresh(currencies);
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "asset-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh(currencies);
+            } catch (Exception e) {
+                logger.error("Failed to refresh assets: {}", e.getMessage());
+            }
+        }, refreshSecond, refreshSecond, TimeUnit.SECONDS);
+    }
+
+    public void stopSync() {
+        OrderPushes.of(context).remove(orderListener);
+        if (refresher != null) {
+            refresher.shutdown();
+        }
+        synced = false;
+    }
+
+    /** startSync()之后，缓存至少完成过一次全量拉取 */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    /** 缓存的持仓，没有持仓时为null */
+    public Position cachedPosition(String symbol) {
+        return positionCache.get(symbol);
+    }
+
+    /** 缓存的余额，没有该币种时为null */
+    public Balance cachedBalance(String currency) {
+        return balanceCache.get(currency);
+    }
+
+    /**
+     * 全量拉取当日订单、余额和持仓替换缓存，再重放拉取期间收到的推送。
+     * 每个订单已计入的成交数量取当日订单中的累计成交数量，重放时只计入超出的部分，
+     * 所以已经包含在结果中的成交不会因为推送晚到而重复计入，结果中没有的成交也不会丢失。
+     * 当日订单先于持仓和余额拉取：两次拉取之间挂出或成交的卖单已经反映在持仓中，重放时还会再冻结、再扣减一次；
+     * 这段时间的买入成交重放时只增加持仓数量，不增加可卖数量。所以可卖数量只会偏少，不会偏多，
+     * 偏差在下一次校正时消除
+     */
+    public void refresh(String... currencies) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
+        synchronized (refreshLock) {
+            synchronized (this) {
+                replay = new ArrayList<>();
+            }
+            try {
+                refreshOnce(currencies);
+            } finally {
+                synchronized (this) {
+                    replay = null;
+                }
+            }
+        }
+    }
+
+    private void refreshOnce(String... currencies) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
+        // 先拉取订单，之后的变化在持仓中多计而不是漏计
+        Order[] orders = gateway.call(Endpoint.TRADE_QUERY, "todayOrders:*",
+                () -> context.getTodayOrders(new GetTodayOrdersOptions())).get(30, TimeUnit.SECONDS);
+        Map<String, CompletableFuture<AccountBalance>> balanceFutures = new HashMap<>();
+        for (String currency : currencies) {
+            balanceFutures.put(currency, pullBalanceFuture(currency));
+        }
+        StockPositionsResponse response = gateway.call(Endpoint.TRADE_QUERY, "positions:*",
+                () -> context.getStockPositions(new GetStockPositionsOptions())).get(30, TimeUnit.SECONDS);
+        Map<String, Position> latestPositions = new HashMap<>();
+        for (StockPositionChannel channel : response.getChannels()) {
+            for (StockPosition position : channel.getPositions()) {
+                latestPositions.put(position.getSymbol(), Position.of(position));
+            }
+        }
+        Map<String, Balance> latestBalances = new HashMap<>();
+        for (Map.Entry<String, CompletableFuture<AccountBalance>> entry : balanceFutures.entrySet()) {
+            latestBalances.put(entry.getKey(), Balance.of(entry.getValue().get(30, TimeUnit.SECONDS)));
+        }
+        int replayed;
+        synchronized (this) {
+            positionCache.keySet().retainAll(latestPositions.keySet());
+            positionCache.putAll(latestPositions);
+            balanceCache.putAll(latestBalances);
+            // 结果中的订单：成交和卖单的冻结都已经反映在持仓中
+            orderProgress.clear();
+            for (Order order : orders) {
+                OrderProgress progress = new OrderProgress(order.getSide());
+                if (order.getExecutedQuantity() != null) {
+                    progress.executed = order.getExecutedQuantity();
+                }
+                if (order.getSide() == OrderSide.Sell && !OrderTracker.isFinished(order.getStatus())) {
+                    progress.frozen = order.getQuantity();
+                }
+                orderProgress.put(order.getOrderId(), progress);
+            }
+            replayed = replay.size();
+            for (PushOrderChanged event : replay) {
+                apply(event, true);
+            }
+            replay.clear();
+            synced = true;
+        }
+        logger.debug("Assets refreshed with {} orders, {} pushes replayed: {} {}", orders.length, replayed, latestPositions, latestBalances);
+    }
+
+    /** 订单推送：按累计成交数量的增量更新持仓和余额，卖单挂出时冻结可卖数量，结束时归还未成交的部分 */
+    public synchronized void onOrderChanged(PushOrderChanged event) {
+        if (replay != null) {
+            replay.add(event);
+        }
+        apply(event, false);
+    }
+
+    /** @param replaying 校正后重放，买入成交可能已经包含在持仓中，不增加可卖数量 */
+    private void apply(PushOrderChanged event, boolean replaying) {
+        String orderId = event.getOrderId();
+        OrderProgress progress = orderProgress.get(orderId);
+        if (progress == null) {
+            progress = new OrderProgress(event.getSide());
+            orderProgress.put(orderId, progress);
+        }
+        String symbol = event.getSymbol();
+        boolean changed = false;
+        if (progress.side == OrderSide.Sell && progress.frozen.signum() == 0 && !OrderTracker.isFinished(event.getStatus())
+                && progress.executed.signum() == 0) {
+            // 新的卖单，冻结可卖数量
+            progress.frozen = event.getSubmittedQuantity();
+            adjustAvailable(symbol, progress.frozen.negate());
+            changed = true;
+        }
+        BigDecimal executed = event.getExecutedQuantity() == null ? BigDecimal.ZERO : event.getExecutedQuantity();
+        BigDecimal delta = executed.subtract(progress.executed);
+        if (delta.signum() > 0) {
+            BigDecimal price = event.getLastPrice() != null ? event.getLastPrice() : event.getExecutedPrice();
+            applyFill(symbol, event.getCurrency(), progress, delta, price, replaying);
+            progress.executed = executed;
+            changed = true;
+        }
+        if (OrderTracker.isFinished(event.getStatus())) {
+            // 未成交的冻结数量归还
+            BigDecimal unfilled = progress.frozen.subtract(progress.executed).max(BigDecimal.ZERO);
+            if (progress.side == OrderSide.Sell && unfilled.signum() > 0) {
+                adjustAvailable(symbol, unfilled);
+                changed = true;
+            }
+            // 已结束的订单保留已计入的数量，晚到的重复推送不会再计入，下一次校正时清理
+            progress.frozen = BigDecimal.ZERO;
+        }
+        if (changed) {
+            logger.debug("Order {} {} {} executed {}, position {}", orderId, event.getStatus(), symbol, executed, positionCache.get(symbol));
+        }
+    }
+
+    private void applyFill(String symbol, String currency, OrderProgress progress, BigDecimal delta, BigDecimal price,
+                           boolean replaying) {
+        BigDecimal amount = delta.multiply(price);
+        if (progress.side == OrderSide.Buy) {
+            positionCache.compute(symbol, (k, old) -> {
+                BigDecimal availableDelta = replaying ? BigDecimal.ZERO : delta;
+                if (old == null || old.quantity.signum() <= 0) {
+                    return new Position(delta, availableDelta, price);
+                }
+                BigDecimal quantity = old.quantity.add(delta);
+                BigDecimal cost = old.quantity.multiply(old.costPrice).add(amount)
+                        .divide(quantity, Math.max(4, old.costPrice.scale()), RoundingMode.HALF_UP);
+                return new Position(quantity, old.availableQuantity.add(availableDelta), cost);
+            });
+            balanceCache.computeIfPresent(currency, (k, old) -> old.buy(amount));
+        } else {
+            // 可卖数量一般在挂单时已经冻结，成交时只减少持仓数量；没有收到挂单推送时一起减少
+            BigDecimal availableDelta = progress.frozen.signum() > 0 ? BigDecimal.ZERO : delta;
+            positionCache.computeIfPresent(symbol, (k, old) -> {
+                BigDecimal quantity = old.quantity.subtract(delta);
+                BigDecimal available = old.availableQuantity.subtract(availableDelta).min(quantity);
+                return quantity.signum() <= 0 ? null : new Position(quantity, available, old.costPrice);
+            });
+            balanceCache.computeIfPresent(currency, (k, old) -> old.sell(amount));
+        }
+    }
+
+    private void adjustAvailable(String symbol, BigDecimal delta) {
+        positionCache.computeIfPresent(symbol, (k, old) ->
+                new Position(old.quantity, old.availableQuantity.add(delta).max(BigDecimal.ZERO), old.costPrice));
+    }
+
 
-    public static void main(String[] args) throws OpenApiException, ExecutionException, InterruptedException {
+    public static void main(String[] args) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
         System.out.println(LocalDateTime.now());
         AssetManager assetManager = new AssetManager();
         System.out.println(assetManager.getBalanceUSD());
         StockPosition[] res= assetManager.getPositions("YINN.US", "YANG.US");
         assetManager.getBalanceUSD();
+        assetManager.startSync(60, "USD");
+        System.out.println(assetManager.cachedBalance("USD"));
+        System.out.println(assetManager.cachedPosition("YINN.US"));
     }
 }
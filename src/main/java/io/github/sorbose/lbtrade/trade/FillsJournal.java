@@ -0,0 +1,103 @@
+package io.github.sorbose.lbtrade.trade;
+
+import com.longport.trade.Order;
+import com.longport.trade.OrderSide;
+import com.longport.trade.PushOrderChanged;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地成交记录：每个股票最近一次买入成交的时间和价格。
+ * 启动时用当日已成交的买单填充一次，之后由订单推送更新，查询是O(1)的，不需要网络请求
+ */
+public class FillsJournal {
+    private static final Logger logger = LogManager.getLogger(FillsJournal.class);
+
+    /** 一次成交，不可变 */
+    public static final class Fill {
+        public final String orderId;
+        public final OffsetDateTime time;
+        public final BigDecimal price;
+        public final BigDecimal quantity;
+
+        public Fill(String orderId, OffsetDateTime time, BigDecimal price, BigDecimal quantity) {
+            this.orderId = orderId;
+            this.time = time;
+            this.price = price;
+            this.quantity = quantity;
+        }
+
+        @Override
+        public String toString() {
+            return "Fill{" + orderId + ' ' + quantity + '@' + price + ' ' + time + '}';
+        }
+    }
+
+    private final ConcurrentHashMap<String, Fill> latestBuy = new ConcurrentHashMap<>();
+    /** 每个未结束订单已经记录的累计成交数量，只在持有本对象锁时访问 */
+    private final Map<String, BigDecimal> executed = new HashMap<>();
+    private volatile boolean seeded;
+
+    /** 用当日已成交的买单填充，可以在开始接收推送之后调用，较早的记录不会覆盖推送中较新的成交 */
+    public void seed(Order[] filledBuyOrders) {
+        for (Order order : filledBuyOrders) {
+            if (order.getSide() == OrderSide.Buy && order.getUpdatedAt() != null) {
+                record(order.getSymbol(), new Fill(order.getOrderId(), order.getUpdatedAt(),
+                        order.getExecutedPrice(), order.getExecutedQuantity()));
+            }
+        }
+        seeded = true;
+        logger.info("Fills journal seeded with {} filled buy orders", filledBuyOrders.length);
+    }
+
+    /** 用交易日志中恢复的成交填充，之后的查询不必等待seed() */
+    public void restore(Map<String, Fill> latestBuys) {
+        latestBuys.forEach(this::record);
+        seeded = true;
+        logger.info("Fills journal restored {} symbols from trade journal", latestBuys.size());
+    }
+
+    /** 订单推送：买单的累计成交数量增加时记录一次成交 */
+    public synchronized void onOrderChanged(PushOrderChanged event) {
+        String orderId = event.getOrderId();
+        if (event.getSide() == OrderSide.Buy && event.getExecutedQuantity() != null) {
+            BigDecimal previous = executed.getOrDefault(orderId, BigDecimal.ZERO);
+            BigDecimal delta = event.getExecutedQuantity().subtract(previous);
+            if (delta.signum() > 0) {
+                executed.put(orderId, event.getExecutedQuantity());
+                BigDecimal price = event.getLastPrice() != null ? event.getLastPrice() : event.getExecutedPrice();
+                OffsetDateTime time = event.getUpdatedAt() != null ? event.getUpdatedAt() : OffsetDateTime.now();
+                record(event.getSymbol(), new Fill(orderId, time, price, delta));
+            }
+        }
+        if (OrderTracker.isFinished(event.getStatus())) {
+            executed.remove(orderId);
+        }
+    }
+
+    private void record(String symbol, Fill fill) {
+        latestBuy.merge(symbol, fill, (old, latest) -> latest.time.isBefore(old.time) ? old : latest);
+    }
+
+    /** 已经用当日订单填充过，之后的查询结果可靠 */
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    /** 最近一次买入成交，当日没有时为null */
+    public Fill latestBuy(String symbol) {
+        return latestBuy.get(symbol);
+    }
+
+    /** 最近一次买入成交的时间，当日没有时为OffsetDateTime.MIN，与Trader.pullLatestFilledBuyOrderTime()一致 */
+    public OffsetDateTime latestBuyTime(String symbol) {
+        Fill fill = latestBuy.get(symbol);
+        return fill == null ? OffsetDateTime.MIN : fill.time;
+    }
+}
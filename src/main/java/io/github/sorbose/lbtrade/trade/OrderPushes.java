@@ -0,0 +1,60 @@
+package io.github.sorbose.lbtrade.trade;
+
+import com.longport.OpenApiException;
+import com.longport.trade.OrderChangedHandler;
+import com.longport.trade.PushOrderChanged;
+import com.longport.trade.TopicType;
+import io.github.sorbose.lbtrade.gateway.TradeGateway;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 订单推送的分发：TradeGateway只能设置一个推送回调，这里把推送转给所有监听者。
+ * 每个TradeGateway一个实例，第一次添加监听者时订阅私有推送
+ */
+public class OrderPushes {
+    private static final Logger logger = LogManager.getLogger(OrderPushes.class);
+    private static final Map<TradeGateway, OrderPushes> instances = new ConcurrentHashMap<>();
+    private final TradeGateway context;
+    private final CopyOnWriteArrayList<OrderChangedHandler> handlers = new CopyOnWriteArrayList<>();
+    private boolean subscribed;
+
+    private OrderPushes(TradeGateway context) {
+        this.context = context;
+    }
+
+    /** context的推送分发，同一个context总是返回同一个实例 */
+    public static OrderPushes of(TradeGateway context) {
+        return instances.computeIfAbsent(context, OrderPushes::new);
+    }
+
+    public synchronized void listen(OrderChangedHandler handler) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
+        handlers.add(handler);
+        if (!subscribed) {
+            context.setOnOrderChange(this::dispatch);
+            context.subscribe(new TopicType[]{TopicType.Private}).get(30, TimeUnit.SECONDS);
+            subscribed = true;
+        }
+    }
+
+    public void remove(OrderChangedHandler handler) {
+        handlers.remove(handler);
+    }
+
+    private void dispatch(PushOrderChanged event) {
+        for (OrderChangedHandler handler : handlers) {
+            try {
+                handler.onOrderChanged(event);
+            } catch (Exception e) {
+                logger.error("Error handling order push {}: {}", event.getOrderId(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package io.github.sorbose.lbtrade.trade;
+
+import com.longport.trade.OrderSide;
+import com.longport.trade.OrderStatus;
+import com.longport.trade.PushOrderChanged;
+import io.github.sorbose.lbtrade.util.TimingWheel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 挂单的状态机：订单推送驱动状态变化，未结束的订单保存在live中供策略查询。
+ * 自己提交的订单在时间轮上登记到期时间，到期仍未结束时撤单，结束时立即从时间轮上取消，不需要轮询订单详情
+ */
+public class OrderTracker {
+    private static final Logger logger = LogManager.getLogger(OrderTracker.class);
+    /** 记住最近结束的订单数，用于处理推送先于下单返回到达的情况 */
+    private static final int FINISHED_MEMORY = 1024;
+    /** 撤单失败后第一次重试的间隔，之后每次加倍，不超过MAX_CANCEL_RETRY_MILLIS */
+    private static final long CANCEL_RETRY_MILLIS = 1000;
+    private static final long MAX_CANCEL_RETRY_MILLIS = 30_000;
+    /** 连续撤单失败这么多次后放弃，不再跟踪 */
+    private static final int MAX_CANCEL_ATTEMPTS = 10;
+    /** 撤单成功后等待结束推送的时间，超时（如未订阅推送）不再跟踪 */
+    private static final long CANCEL_CONFIRM_MILLIS = 30_000;
+
+    /** 订单某一时刻的状态，不可变 */
+    public static final class TrackedOrder {
+        public final String orderId;
+        public final String symbol;
+        public final OrderSide side;
+        public final OrderStatus status;
+        public final BigDecimal submittedQuantity;
+        public final BigDecimal executedQuantity;
+        public final BigDecimal submittedPrice;
+        /** 最后一次推送的时间，下单后还没有推送时为null */
+        public final OffsetDateTime updatedAt;
+
+        TrackedOrder(String orderId, String symbol, OrderSide side, OrderStatus status, BigDecimal submittedQuantity,
+                     BigDecimal executedQuantity, BigDecimal submittedPrice, OffsetDateTime updatedAt) {
+            this.orderId = orderId;
+            this.symbol = symbol;
+            this.side = side;
+            this.status = status;
+            this.submittedQuantity = submittedQuantity;
+            this.executedQuantity = executedQuantity;
+            this.submittedPrice = submittedPrice;
+            this.updatedAt = updatedAt;
+        }
+
+        static TrackedOrder of(PushOrderChanged event) {
+            return new TrackedOrder(event.getOrderId(), event.getSymbol(), event.getSide(), event.getStatus(),
+                    event.getSubmittedQuantity(),
+                    event.getExecutedQuantity() == null ? BigDecimal.ZERO : event.getExecutedQuantity(),
+                    event.getSubmittedPrice(), event.getUpdatedAt());
+        }
+
+        /** 未成交的数量 */
+        public BigDecimal remainingQuantity() {
+            return submittedQuantity.subtract(executedQuantity).max(BigDecimal.ZERO);
+        }
+
+        @Override
+        public String toString() {
+            return "TrackedOrder{" + orderId + ' ' + symbol + ' ' + side + ' ' + status
+                    + ' ' + executedQuantity + '/' + submittedQuantity + '@' + submittedPrice + '}';
+        }
+    }
+
+    private final ConcurrentHashMap<String, TrackedOrder> live = new ConcurrentHashMap<>();
+    /** 按股票索引的未结束订单号 */
+    private final ConcurrentHashMap<String, Set<String>> liveBySymbol = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TimingWheel.Timeout<String>> expiries = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> finished = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > FINISHED_MEMORY;
+        }
+    });
+    /** 刚提交、还没有收到推送的订单的登记时间（System.nanoTime()），用于统计确认延迟 */
+    private final ConcurrentHashMap<String, Long> awaitingAck = new ConcurrentHashMap<>();
+    /** 到期后已经发出撤单的次数 */
+    private final ConcurrentHashMap<String, Integer> cancelAttempts = new ConcurrentHashMap<>();
+    /** 撤单已被接受、等待结束推送的订单 */
+    private final Set<String> cancelAccepted = ConcurrentHashMap.newKeySet();
+    private final TimingWheel<String> wheel;
+    private final long expireMillis;
+    private final Function<String, CompletableFuture<Void>> canceller;
+    /** 没有收到结束推送但不再跟踪订单时调用，如写交易日志 */
+    private volatile Consumer<String> dropListener = orderId -> { };
+
+    /**
+     * @param expireSecond 自己提交的订单在多少秒后仍未结束时撤单
+     * @param canceller 撤单请求
+     */
+    public OrderTracker(int expireSecond, Function<String, CompletableFuture<Void>> canceller) {
+        this.expireMillis = TimeUnit.SECONDS.toMillis(expireSecond);
+        this.canceller = canceller;
+        // 100ms一格，一圈约51秒
+        this.wheel = new TimingWheel<>(100, TimeUnit.MILLISECONDS, 512, "order-expiry", this::expire);
+    }
+
+    /** 登记一个刚提交的订单并开始计时，到期仍未结束时撤单 */
+    public void track(String orderId, String symbol, OrderSide side, BigDecimal quantity, BigDecimal price) {
+        if (!live.containsKey(orderId) && !finished.containsKey(orderId)) {
+            awaitingAck.put(orderId, System.nanoTime());
+        }
+        track(orderId, symbol, side, quantity, price, expireMillis);
+    }
+
+    /** 登记一个订单，expireInMillis毫秒后仍未结束时撤单。重启后恢复订单时使用剩余的时间 */
+    public void track(String orderId, String symbol, OrderSide side, BigDecimal quantity, BigDecimal price, long expireInMillis) {
+        if (finished.containsKey(orderId)) {
+            // 推送比下单结果先到，订单已经结束
+            return;
+        }
+        if (live.putIfAbsent(orderId, new TrackedOrder(orderId, symbol, side, OrderStatus.NotReported,
+                quantity, BigDecimal.ZERO, price, null)) == null) {
+            index(symbol, orderId);
+        }
+        expiries.put(orderId, wheel.schedule(orderId, Math.max(0, expireInMillis), TimeUnit.MILLISECONDS));
+        // 登记期间可能收到了结束的推送
+        if (finished.containsKey(orderId)) {
+            forget(orderId);
+        }
+    }
+
+    /** 订单推送：更新状态，订单结束时移出live并取消到期撤单 */
+    public void onOrderChanged(PushOrderChanged event) {
+        String orderId = event.getOrderId();
+        Long trackedAt = awaitingAck.remove(orderId);
+        if (trackedAt != null) {
+            PipelineMetrics.DEFAULT.recordSince(PipelineMetrics.Stage.ACK, trackedAt);
+        }
+        TrackedOrder next = TrackedOrder.of(event);
+        if (isFinished(event.getStatus())) {
+            finished.put(orderId, Boolean.TRUE);
+            forget(orderId);
+            logger.debug("Order finished: {}", next);
+            return;
+        }
+        if (finished.containsKey(orderId)) {
+            // 结束之后才到达的旧推送
+            return;
+        }
+        live.merge(orderId, next, (old, latest) ->
+                // 乱序到达的旧推送不覆盖新状态
+                old.updatedAt != null && latest.updatedAt != null && latest.updatedAt.isBefore(old.updatedAt) ? old : latest);
+        index(next.symbol, orderId);
+    }
+
+    private void index(String symbol, String orderId) {
+        liveBySymbol.computeIfAbsent(symbol, k -> ConcurrentHashMap.newKeySet()).add(orderId);
+    }
+
+    private void forget(String orderId) {
+        remove(orderId);
+        TimingWheel.Timeout<String> timeout = expiries.remove(orderId);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        cancelAttempts.remove(orderId);
+        cancelAccepted.remove(orderId);
+    }
+
+    private void remove(String orderId) {
+        awaitingAck.remove(orderId);
+        TrackedOrder order = live.remove(orderId);
+        if (order != null) {
+            Set<String> ids = liveBySymbol.get(order.symbol);
+            if (ids != null) {
+                ids.remove(orderId);
+            }
+        }
+    }
+
+    /**
+     * 时间轮到期回调：订单仍未结束时撤单。订单以结束推送为准移出live：
+     * 撤单失败（如限流）时继续跟踪并按退避间隔重试；撤单成功后等待推送，超时仍没有推送才不再跟踪
+     */
+    private void expire(String orderId) {
+        expiries.remove(orderId);
+        TrackedOrder order = live.get(orderId);
+        if (order == null) {
+            return;
+        }
+        if (cancelAccepted.contains(orderId)) {
+            logger.warn("No finish push for order {} after it was cancelled, stop tracking it.", order);
+            drop(orderId);
+            return;
+        }
+        int attempt = cancelAttempts.merge(orderId, 1, Integer::sum);
+        canceller.apply(orderId).whenComplete((v, e) -> {
+            if (!live.containsKey(orderId)) {
+                // 撤单期间已经收到结束推送
+                return;
+            }
+            if (e == null) {
+                logger.info("Order {} expired and was cancelled.", order);
+                cancelAccepted.add(orderId);
+                reschedule(orderId, CANCEL_CONFIRM_MILLIS);
+            } else if (attempt >= MAX_CANCEL_ATTEMPTS) {
+                logger.error("Failed to cancel order {} after {} attempts, stop tracking it: {}", orderId, attempt, e.getMessage());
+                drop(orderId);
+            } else {
+                long delay = Math.min(CANCEL_RETRY_MILLIS << (attempt - 1), MAX_CANCEL_RETRY_MILLIS);
+                logger.warn("Failed to cancel order {}, retry in {} ms: {}", orderId, delay, e.getMessage());
+                reschedule(orderId, delay);
+            }
+        });
+    }
+
+    private void reschedule(String orderId, long delayMillis) {
+        expiries.put(orderId, wheel.schedule(orderId, delayMillis, TimeUnit.MILLISECONDS));
+        // 登记期间可能收到了结束的推送
+        if (!live.containsKey(orderId)) {
+            forget(orderId);
+        }
+    }
+
+    /** 没有收到结束推送但不再跟踪的订单，当作已结束 */
+    private void drop(String orderId) {
+        finished.put(orderId, Boolean.TRUE);
+        forget(orderId);
+        try {
+            dropListener.accept(orderId);
+        } catch (RuntimeException e) {
+            logger.error("Drop listener failed for order {}: {}", orderId, e.getMessage());
+        }
+    }
+
+    /**
+     * 通过查询（而不是推送）得知订单已经结束，如停机期间成交或撤单的订单。
+     * 与到期撤单后不再跟踪一样通知dropListener
+     */
+    public void markFinished(String orderId) {
+        if (live.containsKey(orderId)) {
+            drop(orderId);
+        }
+    }
+
+    /** 订单没有收到结束推送就不再跟踪时调用listener，参数为订单号 */
+    public void onDropped(Consumer<String> listener) {
+        this.dropListener = listener;
+    }
+
+    public static boolean isFinished(OrderStatus status) {
+        return status == OrderStatus.Filled || status == OrderStatus.Canceled || status == OrderStatus.Rejected
+                || status == OrderStatus.Expired || status == OrderStatus.PartialWithdrawal;
+    }
+
+    /** 未结束的订单 */
+    public TrackedOrder get(String orderId) {
+        return live.get(orderId);
+    }
+
+    /** 某个股票所有未结束的订单 */
+    public List<TrackedOrder> liveOrders(String symbol) {
+        List<TrackedOrder> orders = new ArrayList<>();
+        Set<String> ids = liveBySymbol.get(symbol);
+        if (ids != null) {
+            for (String orderId : ids) {
+                TrackedOrder order = live.get(orderId);
+                if (order != null) {
+                    orders.add(order);
+                }
+            }
+        }
+        return orders;
+    }
+
+    /** 某个股票是否有未结束的某方向订单 */
+    public boolean hasLiveOrder(String symbol, OrderSide side) {
+        for (TrackedOrder order : liveOrders(symbol)) {
+            if (order.side == side) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int liveCount() {
+        return live.size();
+    }
+
+    public void stop() {
+        wheel.stop();
+    }
+}
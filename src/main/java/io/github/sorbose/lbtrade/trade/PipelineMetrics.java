@@ -0,0 +1,161 @@
+package io.github.sorbose.lbtrade.trade;
+
+import io.github.sorbose.lbtrade.util.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 交易流水线各阶段的延迟：从收到报价到订单被确认。每个阶段一个无锁直方图，
+ * 定期输出每个阶段这一周期内的p50/p99/p999和最大值，以及跳过、失败、被合并的决策数，
+ * 写入日志，也可以追加到本地CSV文件
+ */
+public class PipelineMetrics {
+    private static final Logger logger = LogManager.getLogger(PipelineMetrics.class);
+
+    public static final PipelineMetrics DEFAULT = new PipelineMetrics();
+
+    /** 流水线的阶段 */
+    public enum Stage {
+        /** 收到报价到开始决策，即在dispatcher中排队的时间 */
+        QUEUE,
+        /** 拉取K线、持仓、最大可买数量和余额 */
+        FETCH,
+        /** 策略判断 */
+        EVALUATE,
+        /** 下单请求发出到返回订单号 */
+        SUBMIT,
+        /** 返回订单号到收到该订单的第一条推送 */
+        ACK,
+        /** 收到报价到返回订单号 */
+        TICK_TO_TRADE
+    }
+
+    private final EnumMap<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    /** 没有K线等原因而放弃的决策 */
+    private final LongAdder skipped = new LongAdder();
+    /** 已有未结束的买单、可买数量或融资额度不足，不需要做买入判断的次数，属于正常情况 */
+    private final LongAdder buyNotEligible = new LongAdder();
+    /** 因异常或超时失败的决策 */
+    private final LongAdder failed = new LongAdder();
+    /** 其他组件的累计计数，如dispatcher中被合并的报价 */
+    private final Map<String, LongSupplier> counters = new LinkedHashMap<>();
+    private ScheduledExecutorService reporter;
+
+    public PipelineMetrics() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms.get(stage).record(nanos);
+    }
+
+    /** 记录从startNanos（System.nanoTime()）到现在的时间 */
+    public void recordSince(Stage stage, long startNanos) {
+        histograms.get(stage).recordSince(startNanos);
+    }
+
+    public void skipped() {
+        skipped.increment();
+    }
+
+    public void buyNotEligible() {
+        buyNotEligible.increment();
+    }
+
+    public void failed() {
+        failed.increment();
+    }
+
+    /** 登记一个外部的累计计数，随汇总一起输出 */
+    public synchronized void counter(String name, LongSupplier supplier) {
+        counters.put(name, supplier);
+    }
+
+    /**
+     * 每隔periodSecond秒输出一次汇总
+     * @param csvPath 汇总追加到的CSV文件，为null时只写日志
+     */
+    public synchronized void startReporting(long periodSecond, String csvPath) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pipeline-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleWithFixedDelay(() -> report(csvPath), periodSecond, periodSecond, TimeUnit.SECONDS);
+    }
+
+    /** 停止定期输出，并输出最后一个周期 */
+    public synchronized void stopReporting(String csvPath) {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+            report(csvPath);
+        }
+    }
+
+    /** 输出这一周期的汇总并清零直方图，计数是累计的 */
+    public synchronized void report(String csvPath) {
+        LocalDateTime now = LocalDateTime.now();
+        StringBuilder csv = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram.Snapshot s = histograms.get(stage).snapshotAndReset();
+            if (s.count == 0) {
+                continue;
+            }
+            logger.info("{} count {} p50 {} us p99 {} us p999 {} us max {} us", stage, s.count,
+                    micros(s.percentile(50)), micros(s.percentile(99)), micros(s.percentile(99.9)), micros(s.max));
+            csv.append(now).append(',').append(stage).append(',').append(s.count)
+                    .append(',').append(micros(s.percentile(50))).append(',').append(micros(s.percentile(99)))
+                    .append(',').append(micros(s.percentile(99.9))).append(',').append(micros(s.max)).append('\n');
+        }
+        Map<String, Long> totals = new LinkedHashMap<>();
+        totals.put("skipped", skipped.sum());
+        totals.put("buyNotEligible", buyNotEligible.sum());
+        totals.put("failed", failed.sum());
+        counters.forEach((name, supplier) -> totals.put(name, supplier.getAsLong()));
+        logger.info("Pipeline counters {}", totals);
+        totals.forEach((name, value) -> csv.append(now).append(',').append(name).append(',').append(value).append(",,,,\n"));
+        if (csvPath != null) {
+            append(csvPath, csv);
+        }
+    }
+
+    private static void append(String csvPath, CharSequence rows) {
+        File file = new File(csvPath);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        boolean writeHeader = !file.exists() || file.length() == 0;
+        try (Writer writer = new FileWriter(file, true)) {
+            if (writeHeader) {
+                writer.write("time,name,count,p50_us,p99_us,p999_us,max_us\n");
+            }
+            writer.append(rows);
+        } catch (IOException e) {
+            logger.error("Failed to write pipeline metrics to {}: {}", csvPath, e.getMessage());
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
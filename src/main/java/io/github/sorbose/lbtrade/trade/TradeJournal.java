@@ -0,0 +1,328 @@
+package io.github.sorbose.lbtrade.trade;
+
+import com.longport.trade.OrderSide;
+import com.longport.trade.PushOrderChanged;
+import io.github.sorbose.lbtrade.util.MappedJournal;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 交易日志：把每次决策、下单、撤单和成交追加到内存映射的日志文件中，不在下单路径上刷盘。
+ * 重启时重放日志，在毫秒级恢复未结束的订单（连同剩余的撤单时间）、每个股票最近一次买入成交和最近一次决策，
+ * 不需要再通过网络重新查询。定期用当前状态压缩日志，文件大小只与未结束的订单数和股票数有关
+ */
+public class TradeJournal implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(TradeJournal.class);
+
+    private static final byte DECISION = 1;
+    private static final byte SUBMIT = 2;
+    private static final byte CANCEL = 3;
+    private static final byte FILL = 4;
+    private static final byte FINISH = 5;
+
+    /** 压缩的触发条件：已使用的比例 */
+    private static final double COMPACT_USAGE = 0.5;
+
+    /** 已提交、尚未结束的订单 */
+    public static final class SubmittedOrder {
+        public final String orderId;
+        public final String symbol;
+        public final OrderSide side;
+        public final BigDecimal quantity;
+        public final BigDecimal price;
+        public final long submittedAtMillis;
+
+        SubmittedOrder(String orderId, String symbol, OrderSide side, BigDecimal quantity, BigDecimal price, long submittedAtMillis) {
+            this.orderId = orderId;
+            this.symbol = symbol;
+            this.side = side;
+            this.quantity = quantity;
+            this.price = price;
+            this.submittedAtMillis = submittedAtMillis;
+        }
+    }
+
+    /** 一次买卖决策 */
+    public static final class Decision {
+        public final String symbol;
+        public final OrderSide side;
+        public final BigDecimal price;
+        public final long timeMillis;
+
+        Decision(String symbol, OrderSide side, BigDecimal price, long timeMillis) {
+            this.symbol = symbol;
+            this.side = side;
+            this.price = price;
+            this.timeMillis = timeMillis;
+        }
+    }
+
+    private final MappedJournal journal;
+    /** 以下状态由日志记录维护，用于压缩和重启后恢复 */
+    private final ConcurrentHashMap<String, SubmittedOrder> liveOrders = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, FillsJournal.Fill> latestBuys = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Decision> lastDecisions = new ConcurrentHashMap<>();
+    /** 订单已经记录的累计成交数量，只在持有本对象锁时访问 */
+    private final Map<String, BigDecimal> executed = new HashMap<>();
+    private final AtomicBoolean compactPending = new AtomicBoolean();
+    /** 同一时间只有一次压缩 */
+    private final Object compactLock = new Object();
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "journal-compact");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 打开日志并重放，之后每隔compactMinute分钟压缩一次；使用超过一半时也会提前压缩
+     * @param capacity 日志文件大小（字节）
+     */
+    public TradeJournal(String path, int capacity, long compactMinute) throws IOException {
+        journal = new MappedJournal(path, capacity, 1000);
+        long begin = System.nanoTime();
+        int[] count = new int[1];
+        journal.replay(record -> {
+            apply(record.type, record.payload, record.timeMillis);
+            count[0]++;
+        });
+        logger.info("Journal {} replayed {} records in {} ms: {} live orders, {} symbols with fills",
+                path, count[0], (System.nanoTime() - begin) / 1_000_000, liveOrders.size(), latestBuys.size());
+        compactor.scheduleWithFixedDelay(this::compactQuietly, compactMinute, compactMinute, TimeUnit.MINUTES);
+    }
+
+    public TradeJournal(String path) throws IOException {
+        this(path, 64 << 20, 10);
+    }
+
+    public void decision(String symbol, OrderSide side, BigDecimal price) {
+        append(DECISION, out -> {
+            out.writeUTF(symbol);
+            out.writeUTF(side.name());
+            out.writeUTF(price.toPlainString());
+        });
+    }
+
+    public void submitted(String orderId, String symbol, OrderSide side, BigDecimal quantity, BigDecimal price) {
+        append(SUBMIT, out -> writeSubmit(out, orderId, symbol, side, quantity, price, BigDecimal.ZERO));
+    }
+
+    /** executed为已成交的数量，只在压缩时非0 */
+    private static void writeSubmit(DataOutputStream out, String orderId, String symbol, OrderSide side,
+                                    BigDecimal quantity, BigDecimal price, BigDecimal executed) throws IOException {
+        out.writeUTF(orderId);
+        out.writeUTF(symbol);
+        out.writeUTF(side.name());
+        out.writeUTF(quantity.toPlainString());
+        out.writeUTF(price.toPlainString());
+        out.writeUTF(executed.toPlainString());
+    }
+
+    public void cancelRequested(String orderId) {
+        append(CANCEL, out -> out.writeUTF(orderId));
+    }
+
+    /** 没有结束推送但已知结束（或不再跟踪）的订单，之后重启时不再恢复 */
+    public synchronized void finished(String orderId) {
+        if (liveOrders.containsKey(orderId)) {
+            append(FINISH, out -> out.writeUTF(orderId));
+        }
+    }
+
+    /** 订单推送：记录成交增量和订单结束 */
+    public synchronized void onOrderChanged(PushOrderChanged event) {
+        String orderId = event.getOrderId();
+        if (event.getExecutedQuantity() != null) {
+            BigDecimal previous = executed.getOrDefault(orderId, BigDecimal.ZERO);
+            BigDecimal delta = event.getExecutedQuantity().subtract(previous);
+            if (delta.signum() > 0) {
+                BigDecimal price = event.getLastPrice() != null ? event.getLastPrice() : event.getExecutedPrice();
+                long time = event.getUpdatedAt() != null ? event.getUpdatedAt().toInstant().toEpochMilli() : System.currentTimeMillis();
+                append(FILL, out -> {
+                    out.writeUTF(orderId);
+                    out.writeUTF(event.getSymbol());
+                    out.writeUTF(event.getSide().name());
+                    out.writeUTF(delta.toPlainString());
+                    out.writeUTF(price.toPlainString());
+                    out.writeLong(time);
+                });
+            }
+        }
+        if (OrderTracker.isFinished(event.getStatus())) {
+            append(FINISH, out -> out.writeUTF(orderId));
+        }
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** 编码并追加一条记录，同时更新内存中的状态；使用超过一半时在后台压缩 */
+    private synchronized void append(byte type, Writer writer) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writer.write(out);
+            byte[] payload = bytes.toByteArray();
+            journal.append(type, payload);
+            apply(type, payload, System.currentTimeMillis());
+            if (journal.usage() > COMPACT_USAGE && compactPending.compareAndSet(false, true)) {
+                compactor.execute(() -> {
+                    compactPending.set(false);
+                    compactQuietly();
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            // 日志只用于恢复，写入失败不能影响交易
+            logger.error("Failed to append journal record {}: {}", type, e.getMessage());
+        }
+    }
+
+    /** 按记录更新内存中的状态，重放和追加共用 */
+    private void apply(byte type, byte[] payload, long timeMillis) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            switch (type) {
+                case DECISION: {
+                    String symbol = in.readUTF();
+                    OrderSide side = OrderSide.valueOf(in.readUTF());
+                    lastDecisions.put(symbol, new Decision(symbol, side, new BigDecimal(in.readUTF()), timeMillis));
+                    break;
+                }
+                case SUBMIT: {
+                    String orderId = in.readUTF();
+                    liveOrders.put(orderId, new SubmittedOrder(orderId, in.readUTF(), OrderSide.valueOf(in.readUTF()),
+                            new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF()), timeMillis));
+                    BigDecimal alreadyExecuted = new BigDecimal(in.readUTF());
+                    if (alreadyExecuted.signum() > 0) {
+                        executed.put(orderId, alreadyExecuted);
+                    }
+                    break;
+                }
+                case CANCEL:
+                    // 撤单以推送的结束为准，这里只作记录
+                    break;
+                case FILL: {
+                    String orderId = in.readUTF();
+                    String symbol = in.readUTF();
+                    OrderSide side = OrderSide.valueOf(in.readUTF());
+                    BigDecimal quantity = new BigDecimal(in.readUTF());
+                    BigDecimal price = new BigDecimal(in.readUTF());
+                    long time = in.readLong();
+                    if (quantity.signum() > 0) {
+                        executed.merge(orderId, quantity, BigDecimal::add);
+                    }
+                    if (side == OrderSide.Buy) {
+                        FillsJournal.Fill fill = new FillsJournal.Fill(orderId,
+                                OffsetDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneOffset.UTC), price, quantity);
+                        latestBuys.merge(symbol, fill, (old, latest) -> latest.time.isBefore(old.time) ? old : latest);
+                    }
+                    break;
+                }
+                case FINISH: {
+                    String orderId = in.readUTF();
+                    liveOrders.remove(orderId);
+                    executed.remove(orderId);
+                    break;
+                }
+                default:
+                    logger.warn("Unknown journal record type {}", type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            logger.error("Failed to compact journal: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 用当前状态重写日志：未结束的订单及其已成交部分、每个股票最近一次买入成交和最近一次决策。
+     * 只在持锁时取快照，写新文件和刷盘不持锁，期间的追加写入原文件，替换时接到新文件后面
+     */
+    public void compact() throws IOException {
+        synchronized (compactLock) {
+            List<MappedJournal.Record> snapshot;
+            MappedJournal.Mark mark;
+            synchronized (this) {
+                snapshot = snapshot();
+                mark = journal.mark();
+                // 已结束订单的成交数量不再需要
+                executed.keySet().retainAll(liveOrders.keySet());
+            }
+            journal.compact(mark, snapshot);
+        }
+    }
+
+    /** 重建当前状态所需的最少记录，只在持有本对象锁时调用 */
+    private List<MappedJournal.Record> snapshot() throws IOException {
+        List<MappedJournal.Record> snapshot = new ArrayList<>();
+        for (Decision d : lastDecisions.values()) {
+            snapshot.add(record(DECISION, d.timeMillis, out -> {
+                out.writeUTF(d.symbol);
+                out.writeUTF(d.side.name());
+                out.writeUTF(d.price.toPlainString());
+            }));
+        }
+        for (SubmittedOrder o : liveOrders.values()) {
+            BigDecimal orderExecuted = executed.getOrDefault(o.orderId, BigDecimal.ZERO);
+            snapshot.add(record(SUBMIT, o.submittedAtMillis, out ->
+                    writeSubmit(out, o.orderId, o.symbol, o.side, o.quantity, o.price, orderExecuted)));
+        }
+        for (Map.Entry<String, FillsJournal.Fill> entry : latestBuys.entrySet()) {
+            FillsJournal.Fill f = entry.getValue();
+            long time = f.time.toInstant().toEpochMilli();
+            snapshot.add(record(FILL, time, out -> {
+                out.writeUTF(f.orderId);
+                out.writeUTF(entry.getKey());
+                out.writeUTF(OrderSide.Buy.name());
+                // 数量为0：只用于恢复最近买入，订单的累计成交已经记在SUBMIT中
+                out.writeUTF(BigDecimal.ZERO.toPlainString());
+                out.writeUTF(f.price.toPlainString());
+                out.writeLong(time);
+            }));
+        }
+        return snapshot;
+    }
+
+    private static MappedJournal.Record record(byte type, long timeMillis, Writer writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        writer.write(new DataOutputStream(bytes));
+        return new MappedJournal.Record(0, timeMillis, type, bytes.toByteArray());
+    }
+
+    /** 未结束的订单 */
+    public Collection<SubmittedOrder> liveOrders() {
+        return Collections.unmodifiableCollection(liveOrders.values());
+    }
+
+    /** 每个股票最近一次买入成交 */
+    public Map<String, FillsJournal.Fill> latestBuys() {
+        return Collections.unmodifiableMap(latestBuys);
+    }
+
+    public Decision lastDecision(String symbol) {
+        return lastDecisions.get(symbol);
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        journal.close();
+    }
+}
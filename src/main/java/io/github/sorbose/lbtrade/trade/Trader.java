@@ -1,9 +1,11 @@
 package io.github.sorbose.lbtrade.trade;
 
-import com.longport.Config;
 import com.longport.OpenApiException;
 import com.longport.trade.*;
-import io.github.sorbose.lbtrade.TradeMain;
+import io.github.sorbose.lbtrade.gateway.ApiGateway;
+import io.github.sorbose.lbtrade.gateway.ApiGateway.Endpoint;
+import io.github.sorbose.lbtrade.gateway.LiveTradeGateway;
+import io.github.sorbose.lbtrade.gateway.TradeGateway;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -11,27 +13,155 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class Trader {
-    private static final Config config= TradeMain.config;
-    private static final TradeContext context= TradeMain.tradeContext;
-    private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
     private static final Logger logger = LogManager.getLogger(Trader.class);
+    private final TradeGateway context;
+    private final ApiGateway gateway;
     public final int expireSecond;
     public final int timeoutSecond;
     public final BigDecimal cashBuyAvailableRatio;
     public final BigDecimal marginBuyAvailableRatio;
     public final BigDecimal minRemainFinanceAmount;
+    /** 提交的订单和推送中的订单状态，到期未成交时撤单 */
+    public final OrderTracker orders;
+    /** 每个股票最近一次买入成交，startTracking()之后可用 */
+    public final FillsJournal fills = new FillsJournal();
+    /** 交易日志，attachJournal()之前为null */
+    private volatile TradeJournal journal;
+    /** 从交易日志恢复的未结束订单号，startTracking()时与服务端核对 */
+    private volatile List<String> restoredOrderIds = Collections.emptyList();
     public Trader(int expireSecond, int timeoutSecond, BigDecimal cashBuyAvailableRatio, BigDecimal marginBuyAvailableRatio, BigDecimal minRemainFinanceAmount) {
+        this(LiveTradeGateway.instance(), expireSecond, timeoutSecond, cashBuyAvailableRatio, marginBuyAvailableRatio, minRemainFinanceAmount);
+    }
+    public Trader(TradeGateway context, int expireSecond, int timeoutSecond, BigDecimal cashBuyAvailableRatio, BigDecimal marginBuyAvailableRatio, BigDecimal minRemainFinanceAmount) {
+        this.context = context;
+        this.gateway = context.limits();
         this.expireSecond = expireSecond;
         this.timeoutSecond = timeoutSecond;
         this.cashBuyAvailableRatio = cashBuyAvailableRatio;
         this.marginBuyAvailableRatio = marginBuyAvailableRatio;
         this.minRemainFinanceAmount=minRemainFinanceAmount;
+        this.orders = new OrderTracker(expireSecond, this::cancelOrderFuture);
+    }
+
+    /**
+     * 订阅订单推送，用推送更新订单状态和成交记录，并用当日已成交的买单填充成交记录。
+     * 从交易日志恢复的订单在后台与服务端核对，停机期间已经结束的不再跟踪。
+     * 不订阅时订单只在到期时撤单，买入时间每次通过网络查询
+     */
+    public void startTracking() throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
+        OrderPushes pushes = OrderPushes.of(context);
+        pushes.listen(orders::onOrderChanged);
+        pushes.listen(fills::onOrderChanged);
+        TradeJournal journal = this.journal;
+        if (journal != null) {
+            pushes.listen(journal::onOrderChanged);
+        }
+        if (!restoredOrderIds.isEmpty()) {
+            // 先订阅再查询，查询之后的变化由推送更新
+            reconcileRestoredOrders(restoredOrderIds).whenComplete((v, e) -> {
+                if (e != null) {
+                    logger.error("Failed to reconcile restored orders: {}", e.getMessage());
+                }
+            });
+        }
+        if (fills.isSeeded()) {
+            // 已经从交易日志恢复，只在后台补上停机期间的成交
+            pullTodayFilledBuyOrders().thenAccept(fills::seed).whenComplete((v, e) -> {
+                if (e != null) {
+                    logger.error("Failed to seed fills journal: {}", e.getMessage());
+                }
+            });
+            return;
+        }
+        fills.seed(pullTodayFilledBuyOrders().get(timeoutSecond, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 使用交易日志：恢复日志中未结束的订单（按剩余时间到期撤单）和最近的买入成交，
+     * 之后的决策、下单、撤单和成交都追加到日志中。应在startTracking()之前调用
+     */
+    public void attachJournal(TradeJournal journal) {
+        long now = System.currentTimeMillis();
+        long expireMillis = TimeUnit.SECONDS.toMillis(expireSecond);
+        List<String> restored = new ArrayList<>();
+        for (TradeJournal.SubmittedOrder o : journal.liveOrders()) {
+            orders.track(o.orderId, o.symbol, o.side, o.quantity, o.price, o.submittedAtMillis + expireMillis - now);
+            restored.add(o.orderId);
+        }
+        restoredOrderIds = restored;
+        // 不再跟踪的订单（如撤单后没有推送）记为结束，重启时不再恢复
+        orders.onDropped(journal::finished);
+        if (!journal.latestBuys().isEmpty()) {
+            fills.restore(journal.latestBuys());
+        }
+        this.journal = journal;
+        logger.info("Restored {} live orders from trade journal", journal.liveOrders().size());
+    }
+
+    /**
+     * 恢复的订单中已经结束的（停机期间成交、撤单，没有收到推送）不再跟踪，并在交易日志中记为结束。
+     * 先查当日订单，之前交易日提交的长期有效订单不在其中，再逐个查询订单详情
+     */
+    private CompletableFuture<Void> reconcileRestoredOrders(List<String> restored) {
+        return gateway.call(Endpoint.TRADE_QUERY, "todayOrders:*", () -> context.getTodayOrders(new GetTodayOrdersOptions()))
+                .thenCompose(today -> {
+                    Map<String, OrderStatus> statuses = new HashMap<>();
+                    for (Order order : today) {
+                        statuses.put(order.getOrderId(), order.getStatus());
+                    }
+                    List<CompletableFuture<Void>> details = new ArrayList<>();
+                    int finished = 0;
+                    for (String orderId : restored) {
+                        if (orders.get(orderId) == null) {
+                            // 已经收到结束推送
+                            continue;
+                        }
+                        OrderStatus status = statuses.get(orderId);
+                        if (status == null) {
+                            details.add(gateway.call(Endpoint.TRADE_QUERY, "orderDetail:" + orderId,
+                                    () -> context.getOrderDetail(orderId)).thenAccept(detail -> {
+                                if (OrderTracker.isFinished(detail.getStatus())) {
+                                    logger.info("Restored order {} finished while stopped: {}", orderId, detail.getStatus());
+                                    orders.markFinished(orderId);
+                                }
+                            }));
+                        } else if (OrderTracker.isFinished(status)) {
+                            orders.markFinished(orderId);
+                            finished++;
+                        }
+                    }
+                    logger.info("Reconciled {} restored orders: {} finished while stopped, {} checked by detail",
+                            restored.size(), finished, details.size());
+                    return CompletableFuture.allOf(details.toArray(new CompletableFuture[0]));
+                });
+    }
+
+    /** 记录一次买卖决策，没有交易日志时什么也不做 */
+    public void recordDecision(String symbol, OrderSide side, BigDecimal price) {
+        TradeJournal journal = this.journal;
+        if (journal != null) {
+            journal.decision(symbol, side, price);
+        }
+    }
+
+    /** 登记刚提交的订单 */
+    private void submitted(String orderId, String symbol, OrderSide side, BigDecimal quantity, BigDecimal price) {
+        orders.track(orderId, symbol, side, quantity, price);
+        TradeJournal journal = this.journal;
+        if (journal != null) {
+            journal.submitted(orderId, symbol, side, quantity, price);
+        }
     }
     public static void handleException(Exception e, String msg){
         if (e instanceof OpenApiException){
@@ -42,15 +172,23 @@ public class Trader {
         }
     }
 
-    private String submitOrderLOReally(String symbol, BigDecimal quantity, BigDecimal price, OrderSide side) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
+    private CompletableFuture<String> submitOrderLOReally(String symbol, BigDecimal quantity, BigDecimal price, OrderSide side) throws OpenApiException {
         SubmitOrderOptions orderOption = new SubmitOrderOptions(symbol, OrderType.LO, side, quantity, TimeInForceType.GoodTilCanceled);
         orderOption.setSubmittedPrice(price);
         orderOption.setOutsideRth(OutsideRTH.AnyTime);
-        SubmitOrderResponse response = context.submitOrder(orderOption).get(timeoutSecond, TimeUnit.SECONDS);
-        scheduleOrderCancellation(response.getOrderId());
-        return response.getOrderId();
+        long begin = System.nanoTime();
+        return gateway.call(Endpoint.ORDER, () -> context.submitOrder(orderOption)).thenApply(response -> {
+            PipelineMetrics.DEFAULT.recordSince(PipelineMetrics.Stage.SUBMIT, begin);
+            submitted(response.getOrderId(), symbol, side, quantity, price);
+            return response.getOrderId();
+        });
     }
     public String submitOrderLO(String symbol, int quantity, BigDecimal price, OrderSide side) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
+        return submitOrderLOAsync(symbol, quantity, price, side).get(timeoutSecond, TimeUnit.SECONDS);
+    }
+
+    /** 与submitOrderLO相同，但不等待下单结果 */
+    public CompletableFuture<String> submitOrderLOAsync(String symbol, int quantity, BigDecimal price, OrderSide side) throws OpenApiException {
         price=price.setScale(2, RoundingMode.HALF_EVEN);
         return submitOrderLOReally(symbol, BigDecimal.valueOf(quantity), price, side);
     }
@@ -60,10 +198,22 @@ public class Trader {
         params.setSymbol(symbol);
         params.setStatus(new OrderStatus[]{OrderStatus.Filled});
         params.setSide(OrderSide.Buy);
-        return context.getTodayOrders(params);
+        return gateway.call(Endpoint.TRADE_QUERY, "filledBuyOrders:" + symbol, () -> context.getTodayOrders(params));
+    }
+
+    /** 所有股票当日已成交的买单 */
+    public CompletableFuture<Order[]> pullTodayFilledBuyOrders() {
+        GetTodayOrdersOptions params = new GetTodayOrdersOptions();
+        params.setStatus(new OrderStatus[]{OrderStatus.Filled});
+        params.setSide(OrderSide.Buy);
+        return gateway.call(Endpoint.TRADE_QUERY, "filledBuyOrders:*", () -> context.getTodayOrders(params));
     }
 
+    /** 最近一次买入成交的时间，当日没有时为OffsetDateTime.MIN。成交记录可用时直接读本地记录 */
     public CompletableFuture<OffsetDateTime> pullLatestFilledBuyOrderTime(String symbol) throws OpenApiException, ExecutionException, InterruptedException, TimeoutException {
+        if (fills.isSeeded()) {
+            return CompletableFuture.completedFuture(fills.latestBuyTime(symbol));
+        }
         return pullHistoryFilledBuyOrders(symbol).thenApply(orders -> {
             if (orders.length == 0) {
                 return OffsetDateTime.MIN;
@@ -77,59 +227,68 @@ public class Trader {
         SubmitOrderOptions orderOption = new SubmitOrderOptions(symbol, OrderType.LO, side, BigDecimal.valueOf(quantity), TimeInForceType.Day);
         orderOption.setSubmittedPrice(submittedPrice);
         orderOption.setOutsideRth(OutsideRTH.AnyTime);
-        try {
-            return context.submitOrder(orderOption).thenApply(response -> {
-                try {
-                    logger.info("Order " + response.getOrderId() + "symbol: " + symbol + " quantity: " + quantity + " price: " + submittedPrice + " side: " + side + " was submitted.");
-                    scheduleOrderCancellation(response.getOrderId());
-                    return response.getOrderId();
-                } catch (Exception e) {
-                    handleException(e, "Failed to schedule order cancellation.");
-                    return null;
-                }
-            });
-        } catch (OpenApiException e) {
-            logger.error("submitOrder error : {}, symbol {}, quantity {}, price {}, side {}", e.getMessage(), symbol, quantity, price, side);
-            throw new RuntimeException(e);
-        }
+        long begin = System.nanoTime();
+        return gateway.call(Endpoint.ORDER, () -> context.submitOrder(orderOption)).whenComplete((response, e) -> {
+            if (e == null) {
+                PipelineMetrics.DEFAULT.recordSince(PipelineMetrics.Stage.SUBMIT, begin);
+            } else {
+                logger.error("submitOrder error : {}, symbol {}, quantity {}, price {}, side {}", e.getMessage(), symbol, quantity, price, side);
+            }
+        }).thenApply(response -> {
+            try {
+                logger.info("Order " + response.getOrderId() + "symbol: " + symbol + " quantity: " + quantity + " price: " + submittedPrice + " side: " + side + " was submitted.");
+                submitted(response.getOrderId(), symbol, side, BigDecimal.valueOf(quantity), submittedPrice);
+                return response.getOrderId();
+            } catch (Exception e) {
+                handleException(e, "Failed to schedule order cancellation.");
+                return null;
+            }
+        });
     }
 
     public OrderDetail pullOrderDetail(String orderId) throws Exception {
-        OrderDetail response = context.getOrderDetail(orderId).get(timeoutSecond, TimeUnit.SECONDS);
+        OrderDetail response = gateway.call(Endpoint.TRADE_QUERY, "orderDetail:" + orderId,
+                () -> context.getOrderDetail(orderId)).get(timeoutSecond, TimeUnit.SECONDS);
         return response;
     }
     public CompletableFuture<Void> cancelOrder(String orderId) throws Exception{
-        return context.cancelOrder(orderId);
+        return gateway.call(Endpoint.ORDER, () -> context.cancelOrder(orderId));
     }
 
 
-    private ScheduledFuture<Boolean> scheduleOrderCancellation(String orderId) {
-        return scheduler.schedule(() -> {
-                try {
-                    OrderStatus status = pullOrderDetail(orderId).getStatus();
-                    if (status != OrderStatus.Filled) {
-                        cancelOrder(orderId);
-                        logger.info("Order " + orderId + " was cancelled after "+expireSecond+" seconds.");
-                        return true;
-                    }
-                }catch (Exception e){
-                    handleException(e, "Failed to cancel order " + orderId);
-                }
-                return false;
-            }, expireSecond, TimeUnit.SECONDS);
+    private CompletableFuture<Void> cancelOrderFuture(String orderId) {
+        TradeJournal journal = this.journal;
+        if (journal != null) {
+            journal.cancelRequested(orderId);
+        }
+        try {
+            return cancelOrder(orderId);
+        } catch (Exception e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
     }
 
     private EstimateMaxPurchaseQuantityResponse pullEstMaxOrderQty(String symbol) throws Exception {
-        return context.getEstimateMaxPurchaseQuantity(
-                new EstimateMaxPurchaseQuantityOptions(symbol, OrderType.LO, OrderSide.Buy))
-                .get(timeoutSecond, TimeUnit.SECONDS);
+        return pullEstMaxOrderQtyFuture(symbol).get(timeoutSecond, TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<EstimateMaxPurchaseQuantityResponse> pullEstMaxOrderQtyFuture(String symbol) {
+        return gateway.call(Endpoint.TRADE_QUERY, "estimateMaxBuy:" + symbol, () -> context.getEstimateMaxPurchaseQuantity(
+                new EstimateMaxPurchaseQuantityOptions(symbol, OrderType.LO, OrderSide.Buy)));
+    }
+
+    /** 单个股票的持仓，与AssetManager的同一请求合并 */
+    private CompletableFuture<StockPositionsResponse> pullPositionsFuture(String symbol) {
+        return gateway.call(Endpoint.TRADE_QUERY, "positions:" + symbol,
+                () -> context.getStockPositions(new GetStockPositionsOptions().setSymbols(new String[]{symbol})));
     }
 
 
 
     public CompletableFuture<BigDecimal> pullEstMarginMaxOrderQtyFuture(String symbol) throws OpenApiException {
-        return context.getEstimateMaxPurchaseQuantity(
-                new EstimateMaxPurchaseQuantityOptions(symbol, OrderType.LO, OrderSide.Buy)).thenApply(
+        return pullEstMaxOrderQtyFuture(symbol).thenApply(
                 response -> {
                     return response.getMarginMaxQty().multiply(marginBuyAvailableRatio).setScale(0, RoundingMode.FLOOR);
                 });
@@ -138,12 +297,12 @@ public class Trader {
     // TODO: 换成Asset来完成
     @Deprecated
     public BigDecimal pullSellMaxQuantity(String symbol) throws Exception {
-        return context.getStockPositions(new GetStockPositionsOptions().setSymbols(new String[]{symbol}))
+        return pullPositionsFuture(symbol)
                 .get(timeoutSecond, TimeUnit.SECONDS).getChannels()[0].getPositions()[0].getAvailableQuantity();
     }
 
     public CompletableFuture<BigDecimal> pullSellMaxQuantityFuture(String symbol) throws Exception {
-        return context.getStockPositions(new GetStockPositionsOptions().setSymbols(new String[]{symbol}))
+        return pullPositionsFuture(symbol)
                 .thenApplyAsync(response -> response.getChannels()[0].getPositions()[0].getAvailableQuantity());
     }
 
@@ -157,8 +316,7 @@ public class Trader {
         try {
             EstimateMaxPurchaseQuantityResponse res= trader.pullEstMaxOrderQty("TSLA.US");
             System.out.println(res);
-            context.setOnOrderChange(System.out::println);
-            context.subscribe(new TopicType[]{TopicType.Private});
+            OrderPushes.of(LiveTradeGateway.instance()).listen(System.out::println);
         } catch (Exception e) {
             handleException(e, "Failed.");
         }
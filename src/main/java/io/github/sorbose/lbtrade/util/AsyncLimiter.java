@@ -0,0 +1,124 @@
+package io.github.sorbose.lbtrade.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 异步请求的并发上限：同时进行中的请求不超过maxConcurrent个，超出的按提交顺序排队，
+ * 有请求完成时再发出。排队不占用线程，调用方不会被阻塞。
+ * 排队的请求交给executor发出，而不是在完成上一个请求的线程上直接调用，以免同步完成的请求沿调用栈串起整个队列；
+ * 结果在发出前已经完成（如调用方超时或取消）的请求直接丢弃，不再发出
+ */
+public class AsyncLimiter {
+    private final int maxConcurrent;
+    private final Executor executor;
+    private final ArrayDeque<Queued<?>> waiting = new ArrayDeque<>();
+    private int running;
+
+    /** 排队中的请求和它的结果 */
+    private static final class Queued<T> {
+        final Callable<CompletableFuture<T>> request;
+        final CompletableFuture<T> result;
+
+        Queued(Callable<CompletableFuture<T>> request, CompletableFuture<T> result) {
+            this.request = request;
+            this.result = result;
+        }
+    }
+
+    /** 排队的请求在ForkJoinPool.commonPool()上发出 */
+    public AsyncLimiter(int maxConcurrent) {
+        this(maxConcurrent, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param executor 发出排队请求的线程池，有空闲名额时提交的请求仍在调用方线程上发出
+     */
+    public AsyncLimiter(int maxConcurrent, Executor executor) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.executor = executor;
+    }
+
+    /**
+     * 有空闲名额时立即调用request发出请求，否则排队
+     * @param request 发出请求并返回结果，可以抛出受检异常（如OpenApiException）
+     * @return 请求的结果，request抛出的异常会使其异常完成。在请求发出前完成它（如超时）会撤销排队中的请求
+     */
+    public <T> CompletableFuture<T> submit(Callable<CompletableFuture<T>> request) {
+        Queued<T> queued = new Queued<>(request, new CompletableFuture<>());
+        synchronized (this) {
+            if (running >= maxConcurrent) {
+                waiting.add(queued);
+                return queued.result;
+            }
+            running++;
+        }
+        start(queued);
+        return queued.result;
+    }
+
+    /** 占用一个名额发出请求，完成后释放 */
+    private <T> void start(Queued<T> queued) {
+        if (queued.result.isDone()) {
+            release();
+            return;
+        }
+        CompletableFuture<T> future;
+        try {
+            future = queued.request.call();
+            if (future == null) {
+                throw new NullPointerException("request returned null");
+            }
+        } catch (Exception e) {
+            release();
+            queued.result.completeExceptionally(e);
+            return;
+        }
+        future.whenComplete((value, error) -> {
+            release();
+            if (error != null) {
+                queued.result.completeExceptionally(error);
+            } else {
+                queued.result.complete(value);
+            }
+        });
+    }
+
+    /** 名额转给下一个结果还没有完成的排队请求，没有时归还 */
+    private void release() {
+        while (true) {
+            Queued<?> next;
+            synchronized (this) {
+                do {
+                    next = waiting.poll();
+                } while (next != null && next.result.isDone());
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            Queued<?> started = next;
+            try {
+                executor.execute(() -> start(started));
+                return;
+            } catch (RejectedExecutionException e) {
+                started.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    public synchronized int running() {
+        return running;
+    }
+
+    public synchronized int waiting() {
+        return waiting.size();
+    }
+}
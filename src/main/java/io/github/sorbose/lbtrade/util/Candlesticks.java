@@ -0,0 +1,66 @@
+package io.github.sorbose.lbtrade.util;
+
+import com.longport.quote.Candlestick;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+
+/**
+ * 创建Candlestick对象。Candlestick只有getter，与CsvCodec相同，构造器和字段只查找一次并转换成MethodHandle，
+ * 用于列式存储还原、模拟交易所返回K线等逐行创建的场景；低频的SDK对象使用SdkObjects
+ */
+public final class Candlesticks {
+    private static final MethodHandle CONSTRUCTOR;
+    private static final MethodHandle OPEN, HIGH, LOW, CLOSE, VOLUME, TURNOVER, TIMESTAMP;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Constructor<Candlestick> ctor = Candlestick.class.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            CONSTRUCTOR = lookup.unreflectConstructor(ctor);
+            OPEN = setter(lookup, "open");
+            HIGH = setter(lookup, "high");
+            LOW = setter(lookup, "low");
+            CLOSE = setter(lookup, "close");
+            VOLUME = setter(lookup, "volume");
+            TURNOVER = setter(lookup, "turnover");
+            TIMESTAMP = setter(lookup, "timestamp");
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Candlesticks() {
+    }
+
+    private static MethodHandle setter(MethodHandles.Lookup lookup, String name) throws ReflectiveOperationException {
+        Field field = Candlestick.class.getDeclaredField(name);
+        field.setAccessible(true);
+        MethodHandle setter = lookup.unreflectSetter(field);
+        return setter.asType(MethodType.methodType(void.class, Candlestick.class,
+                field.getType() == long.class ? long.class : Object.class));
+    }
+
+    public static Candlestick create(BigDecimal open, BigDecimal high, BigDecimal low, BigDecimal close,
+                                     long volume, BigDecimal turnover, OffsetDateTime timestamp) {
+        try {
+            Candlestick c = (Candlestick) CONSTRUCTOR.invokeExact();
+            OPEN.invokeExact(c, (Object) open);
+            HIGH.invokeExact(c, (Object) high);
+            LOW.invokeExact(c, (Object) low);
+            CLOSE.invokeExact(c, (Object) close);
+            VOLUME.invokeExact(c, volume);
+            TURNOVER.invokeExact(c, (Object) turnover);
+            TIMESTAMP.invokeExact(c, (Object) timestamp);
+            return c;
+        } catch (Throwable e) {
+            throw new RuntimeException("Failed to create Candlestick", e);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package io.github.sorbose.lbtrade.util;
+
+import com.longport.quote.Candlestick;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 列式K线存储：每个字段一个文件，价格为定点数long（放大10^scale倍），时间为epoch分钟。
+ * 所有列通过MappedByteBuffer只读映射，按时间范围读取时只会访问实际用到的页。
+ * <p>
+ * 目录结构：meta（元数据）、time/open/high/low/close/volume/turnover.col（数据列）、
+ * time.idx（稀疏时间索引，每INDEX_STRIDE行记录一个时间）
+ */
+public class ColumnarCandleStore {
+    public static final Logger logger = LogManager.getLogger(ColumnarCandleStore.class);
+
+    public static final int MAGIC = 0x4C42434C; // "LBCL"
+    public static final int VERSION = 1;
+    public static final int INDEX_STRIDE = 1024;
+    public static final String META_FILE = "meta";
+    public static final String INDEX_FILE = "time.idx";
+
+    public enum Column {
+        TIME("time.col"), OPEN("open.col"), HIGH("high.col"), LOW("low.col"),
+        CLOSE("close.col"), VOLUME("volume.col"), TURNOVER("turnover.col");
+        public final String fileName;
+
+        Column(String fileName) {
+            this.fileName = fileName;
+        }
+    }
+
+    private final String dir;
+    private final int rows;
+    private final int scale;
+    private final ZoneOffset offset;
+    private final LongBuffer[] columns = new LongBuffer[Column.values().length];
+    private final LongBuffer index;
+
+    private ColumnarCandleStore(String dir, int rows, int scale, ZoneOffset offset) throws IOException {
+        this.dir = dir;
+        this.rows = rows;
+        this.scale = scale;
+        this.offset = offset;
+        for (Column column : Column.values()) {
+            columns[column.ordinal()] = map(Paths.get(dir, column.fileName));
+        }
+        this.index = map(Paths.get(dir, INDEX_FILE));
+    }
+
+    private static LongBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return buffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        }
+    }
+
+    /**
+     * 打开已有的列式存储，只读映射所有列文件
+     * @param dir 存储目录
+     */
+    public static ColumnarCandleStore open(String dir) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(Paths.get(dir, META_FILE).toFile())))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != MAGIC || version != VERSION) {
+                throw new IOException("Unsupported columnar store: " + dir);
+            }
+            int rows = in.readInt();
+            int scale = in.readInt();
+            ZoneOffset offset = ZoneOffset.ofTotalSeconds(in.readInt());
+            return new ColumnarCandleStore(dir, rows, scale, offset);
+        } catch (IOException e) {
+            logger.error("Error opening columnar store: {}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 将K线写入列式存储，K线需按时间升序排列
+     * @param candlesticks 时间升序的K线
+     * @param dir 存储目录，不存在时自动创建
+     * @param scale 价格定点数精度（小数位数）
+     */
+    public static void write(List<Candlestick> candlesticks, String dir, int scale) {
+        if (candlesticks == null || candlesticks.isEmpty()) {
+            logger.warn("No candlesticks to write to");
+            return;
+        }
+        int rows = candlesticks.size();
+        ZoneOffset offset = candlesticks.get(0).getTimestamp().getOffset();
+        try {
+            Files.createDirectories(Paths.get(dir));
+            // 先删除旧的元数据，覆盖列文件的过程中崩溃时目录无法打开，而不是元数据与列不一致
+            Files.deleteIfExists(Paths.get(dir, META_FILE));
+            MappedByteBuffer[] buffers = new MappedByteBuffer[Column.values().length + 1];
+            LongBuffer[] columns = new LongBuffer[Column.values().length];
+            for (Column column : Column.values()) {
+                buffers[column.ordinal()] = mapForWrite(Paths.get(dir, column.fileName), rows);
+                columns[column.ordinal()] = asLongs(buffers[column.ordinal()]);
+            }
+            buffers[columns.length] = mapForWrite(Paths.get(dir, INDEX_FILE), (rows + INDEX_STRIDE - 1) / INDEX_STRIDE);
+            LongBuffer index = asLongs(buffers[columns.length]);
+            long previous = Long.MIN_VALUE;
+            for (int row = 0; row < rows; row++) {
+                Candlestick c = candlesticks.get(row);
+                long time = toEpochMinute(c.getTimestamp());
+                if (time < previous) {
+                    throw new IllegalArgumentException("Candlesticks are not sorted by time at row " + row);
+                }
+                previous = time;
+                columns[Column.TIME.ordinal()].put(row, time);
+                columns[Column.OPEN.ordinal()].put(row, FixedPoint.toFixed(c.getOpen(), scale));
+                columns[Column.HIGH.ordinal()].put(row, FixedPoint.toFixed(c.getHigh(), scale));
+                columns[Column.LOW.ordinal()].put(row, FixedPoint.toFixed(c.getLow(), scale));
+                columns[Column.CLOSE.ordinal()].put(row, FixedPoint.toFixed(c.getClose(), scale));
+                columns[Column.VOLUME.ordinal()].put(row, c.getVolume());
+                columns[Column.TURNOVER.ordinal()].put(row, FixedPoint.toFixed(c.getTurnover(), scale));
+                if (row % INDEX_STRIDE == 0) {
+                    index.put(row / INDEX_STRIDE, time);
+                }
+            }
+            for (MappedByteBuffer buffer : buffers) {
+                buffer.force();
+            }
+            // 列落盘后再写元数据：先写临时文件并刷盘，再原子替换，半成品目录不会被当作有效存储打开
+            Path meta = Paths.get(dir, META_FILE);
+            Path tmp = Paths.get(dir, META_FILE + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(rows);
+                out.writeInt(scale);
+                out.writeInt(offset.getTotalSeconds());
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(tmp, meta, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            logger.info("Data written to columnar store: {}", dir);
+        } catch (IOException e) {
+            logger.error("Error writing to columnar store: {}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void write(List<Candlestick> candlesticks, String dir) {
+        write(candlesticks, dir, FixedPoint.DEFAULT_SCALE);
+    }
+
+    private static MappedByteBuffer mapForWrite(Path path, int longs) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) longs * Long.BYTES);
+        }
+    }
+
+    private static LongBuffer asLongs(MappedByteBuffer buffer) {
+        return buffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+
+    public static long toEpochMinute(OffsetDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(), 60);
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public int scale() {
+        return scale;
+    }
+
+    public ZoneOffset offset() {
+        return offset;
+    }
+
+    public String dir() {
+        return dir;
+    }
+
+    public long get(Column column, int row) {
+        return columns[column.ordinal()].get(row);
+    }
+
+    /** 返回列中[from, to)行的只读视图，不复制数据 */
+    public LongBuffer column(Column column, int from, int to) {
+        LongBuffer view = columns[column.ordinal()].duplicate();
+        view.position(from).limit(to);
+        return view.slice();
+    }
+
+    /** 把LocalDateTime按存储的时区偏移换算成epoch分钟 */
+    public long toEpochMinute(LocalDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(offset), 60);
+    }
+
+    /**
+     * 第一个时间不早于epochMinute的行号，先在稀疏索引上二分，再在对应块内二分
+     * @return 行号，所有行都更早时返回size()
+     */
+    public int lowerBound(long epochMinute) {
+        int lo = 0, hi = index.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (index.get(mid) < epochMinute) lo = mid + 1;
+            else hi = mid;
+        }
+        // 目标行位于第lo-1块内，或恰好是第lo块的第一行
+        int from = Math.max(0, (lo - 1) * INDEX_STRIDE);
+        int to = Math.min(rows, lo * INDEX_STRIDE);
+        LongBuffer time = columns[Column.TIME.ordinal()];
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (time.get(mid) < epochMinute) from = mid + 1;
+            else to = mid;
+        }
+        return from;
+    }
+
+    /** [begin, end)时间范围对应的行号区间{from, to} */
+    public int[] rowRange(LocalDateTime begin, LocalDateTime end) {
+        int from = begin == null ? 0 : lowerBound(toEpochMinute(begin));
+        int to = end == null ? rows : lowerBound(toEpochMinute(end));
+        return new int[]{from, Math.max(from, to)};
+    }
+
+    /** 把[from, to)行还原成Candlestick对象 */
+    public List<Candlestick> toCandlesticks(int from, int to) {
+        List<Candlestick> list = new ArrayList<>(to - from);
+        for (int row = from; row < to; row++) {
+            list.add(toCandlestick(row));
+        }
+        return list;
+    }
+
+    public List<Candlestick> toCandlesticks(LocalDateTime begin, LocalDateTime end) {
+        int[] range = rowRange(begin, end);
+        return toCandlesticks(range[0], range[1]);
+    }
+
+    private Candlestick toCandlestick(int row) {
+        return Candlesticks.create(
+                FixedPoint.fromFixed(get(Column.OPEN, row), scale),
+                FixedPoint.fromFixed(get(Column.HIGH, row), scale),
+                FixedPoint.fromFixed(get(Column.LOW, row), scale),
+                FixedPoint.fromFixed(get(Column.CLOSE, row), scale),
+                get(Column.VOLUME, row),
+                FixedPoint.fromFixed(get(Column.TURNOVER, row), scale),
+                OffsetDateTime.ofInstant(Instant.ofEpochSecond(get(Column.TIME, row) * 60), offset));
+    }
+}
@@ -0,0 +1,160 @@
+package io.github.sorbose.lbtrade.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * 按key合并的分发器：每个key最多只有一个待处理的值，新值直接覆盖还没处理的旧值，
+ * 所以处理时拿到的总是最新的数据，积压的数量不会超过key的数量。
+ * 同一个key同时最多只有一个任务在executor上运行，处理期间到达的新值会在处理完后再处理一次。
+ * 异步的handler（见async()）以返回的CompletableFuture完成作为处理结束。awaitIdle()等待所有key都处理完
+ */
+public class ConflatingDispatcher<K, V> {
+    private static final Logger logger = LogManager.getLogger(ConflatingDispatcher.class);
+
+    /** 提交某个key的处理任务 */
+    private final BiConsumer<K, Runnable> submitter;
+    private final BiFunction<K, V, CompletableFuture<?>> handler;
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+    private final ConcurrentHashMap<K, Slot<V>> slots = new ConcurrentHashMap<>();
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder conflated = new LongAdder();
+    /** 已提交、还没有处理完的key的数量，降到0时通知idleLock */
+    private final AtomicInteger active = new AtomicInteger();
+    private final Object idleLock = new Object();
+
+    private static class Slot<V> {
+        final AtomicReference<V> pending = new AtomicReference<>();
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+    }
+
+    /**
+     * @param executor 运行handler的线程池，每个key同时最多占用一个线程
+     * @param handler 处理某个key的最新值，抛出的异常会被记录并忽略
+     */
+    public ConflatingDispatcher(Executor executor, BiConsumer<K, V> handler) {
+        this((key, task) -> executor.execute(task), sync(handler));
+    }
+
+    /**
+     * 同一个key总是在同一个分片线程上处理
+     * @param executor 分片执行器
+     * @param handler 处理某个key的最新值，抛出的异常会被记录并忽略
+     */
+    public ConflatingDispatcher(ShardedExecutor executor, BiConsumer<K, V> handler) {
+        this(executor::execute, sync(handler));
+    }
+
+    private ConflatingDispatcher(BiConsumer<K, Runnable> submitter, BiFunction<K, V, CompletableFuture<?>> handler) {
+        this.submitter = submitter;
+        this.handler = handler;
+    }
+
+    /**
+     * handler在分片线程上发起处理并返回CompletableFuture，在它完成之前同一个key不会被再次处理，
+     * 但分片线程不会被占用，可以处理其他key
+     */
+    public static <K, V> ConflatingDispatcher<K, V> async(ShardedExecutor executor,
+                                                          BiFunction<K, V, CompletableFuture<?>> handler) {
+        return new ConflatingDispatcher<>(executor::execute, handler);
+    }
+
+    private static <K, V> BiFunction<K, V, CompletableFuture<?>> sync(BiConsumer<K, V> handler) {
+        return (key, value) -> {
+            handler.accept(key, value);
+            return DONE;
+        };
+    }
+
+    /** 提交key的最新值，覆盖尚未处理的旧值，value不能为null */
+    public void offer(K key, V value) {
+        Slot<V> slot = slots.computeIfAbsent(key, k -> new Slot<>());
+        offered.increment();
+        if (slot.pending.getAndSet(value) != null) {
+            conflated.increment();
+        }
+        schedule(key, slot);
+    }
+
+    private void schedule(K key, Slot<V> slot) {
+        if (slot.scheduled.compareAndSet(false, true)) {
+            active.incrementAndGet();
+            try {
+                submitter.accept(key, () -> drain(key, slot));
+            } catch (RuntimeException e) {
+                slot.scheduled.set(false);
+                finished();
+                throw e;
+            }
+        }
+    }
+
+    private void finished() {
+        if (active.decrementAndGet() == 0) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+    private void drain(K key, Slot<V> slot) {
+        CompletableFuture<?> future;
+        try {
+            V value = slot.pending.getAndSet(null);
+            future = value == null ? DONE : handler.apply(key, value);
+        } catch (Exception e) {
+            future = DONE;
+            logger.error("Error handling {}: {}", key, e.getMessage());
+        }
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                logger.error("Error handling {}: {}", key, error.getMessage());
+            }
+            slot.scheduled.set(false);
+            // 处理期间到达的新值
+            if (slot.pending.get() != null) {
+                schedule(key, slot);
+            }
+            finished();
+        });
+    }
+
+    /**
+     * 等待所有已提交的值处理完（异步handler返回的future完成），期间新提交的值也要处理完
+     * @return 超时时为false
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idleLock) {
+            while (active.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(idleLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    /** 提交的值的总数 */
+    public long offeredCount() {
+        return offered.sum();
+    }
+
+    /** 因为被新值覆盖而没有处理的值的总数 */
+    public long conflatedCount() {
+        return conflated.sum();
+    }
+}
@@ -0,0 +1,341 @@
+package io.github.sorbose.lbtrade.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.CharBuffer;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * 不依赖逐行反射的CSV编解码器。每个类只查找一次字段并生成MethodHandle形式的setter/getter，
+ * 每个文件只做一次标题与字段的绑定；解析时直接在char缓冲区上定位单元格，不使用split和substring
+ * @param <T> 对象类型，需要有无参构造函数
+ */
+public class CsvCodec<T> {
+    private static final ConcurrentHashMap<Class<?>, CsvCodec<?>> CODECS = new ConcurrentHashMap<>();
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Class<T> clazz;
+    private final MethodHandle constructor;
+    private final Field[] fields;
+    private final CellSetter[] setters;
+    private final CellWriter[] writers;
+
+    /** 把buf[from, to)中的单元格文本写入target的某个字段 */
+    @FunctionalInterface
+    public interface CellSetter {
+        void set(Object target, char[] buf, int from, int to) throws Throwable;
+    }
+
+    @FunctionalInterface
+    private interface CellWriter {
+        void write(Object target, StringBuilder out) throws Throwable;
+    }
+
+    /** 标题行与字段绑定后的解析器，列号直接对应setter，不匹配的列为null */
+    public static class Binding<T> {
+        private final CsvCodec<T> codec;
+        private final CellSetter[] columns;
+
+        private Binding(CsvCodec<T> codec, CellSetter[] columns) {
+            this.codec = codec;
+            this.columns = columns;
+        }
+
+        /** 解析buf[from, to)中的一行（不含换行符） */
+        public T parseLine(char[] buf, int from, int to) {
+            try {
+                @SuppressWarnings("unchecked")
+                T obj = (T) codec.constructor.invoke();
+                int column = 0;
+                int cellStart = from;
+                for (int i = from; i <= to && column < columns.length; i++) {
+                    if (i == to || buf[i] == ',') {
+                        CellSetter setter = columns[column];
+                        if (setter != null) {
+                            int s = cellStart, e = i;
+                            while (s < e && buf[s] <= ' ') s++;
+                            while (e > s && buf[e - 1] <= ' ') e--;
+                            setter.set(obj, buf, s, e);
+                        }
+                        column++;
+                        cellStart = i + 1;
+                    }
+                }
+                return obj;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> CsvCodec<T> of(Class<T> clazz) {
+        return (CsvCodec<T>) CODECS.computeIfAbsent(clazz, c -> new CsvCodec<>(clazz));
+    }
+
+    private CsvCodec(Class<T> clazz) {
+        this.clazz = clazz;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            java.lang.reflect.Constructor<?> ctor = clazz.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            this.constructor = lookup.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+            List<Field> list = new ArrayList<>();
+            for (Field field : clazz.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                    field.setAccessible(true);
+                    list.add(field);
+                }
+            }
+            this.fields = list.toArray(new Field[0]);
+            this.setters = new CellSetter[fields.length];
+            this.writers = new CellWriter[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                setters[i] = setterFor(fields[i], lookup.unreflectSetter(fields[i]));
+                writers[i] = writerFor(fields[i], lookup.unreflectGetter(fields[i]));
+            }
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Unsupported class for CSV: " + clazz, e);
+        }
+    }
+
+    public Class<T> type() {
+        return clazz;
+    }
+
+    /** 按字段名（忽略大小写）把标题行的每一列绑定到setter */
+    public Binding<T> bind(String headerLine) {
+        String[] headers = headerLine.split(",");
+        CellSetter[] columns = new CellSetter[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            String name = headers[i].trim();
+            for (int j = 0; j < fields.length; j++) {
+                if (fields[j].getName().equalsIgnoreCase(name)) {
+                    columns[i] = setters[j];
+                    break;
+                }
+            }
+        }
+        return new Binding<>(this, columns);
+    }
+
+    /**
+     * 读取包含标题行的CSV，支持通过过滤器过滤数据
+     * @return 反序列化后的对象列表，文件为空时返回空列表
+     */
+    public List<T> read(Reader reader, Predicate<T> filter) throws IOException {
+        List<T> objects = new ArrayList<>();
+        char[] buf = new char[BUFFER_SIZE];
+        int length = 0;
+        Binding<T> binding = null;
+        boolean eof = false;
+        while (!eof) {
+            if (length == buf.length) {
+                char[] bigger = new char[buf.length * 2];
+                System.arraycopy(buf, 0, bigger, 0, length);
+                buf = bigger;
+            }
+            int n = reader.read(buf, length, buf.length - length);
+            if (n < 0) {
+                eof = true;
+            } else {
+                length += n;
+            }
+            int lineStart = 0;
+            for (int i = 0; i < length; i++) {
+                if (buf[i] == '\n' || (eof && i == length - 1)) {
+                    int lineEnd = buf[i] == '\n' ? i : i + 1;
+                    if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') lineEnd--;
+                    if (binding == null) {
+                        binding = bind(new String(buf, lineStart, lineEnd - lineStart));
+                    } else if (lineEnd > lineStart) {
+                        T obj = binding.parseLine(buf, lineStart, lineEnd);
+                        if (filter == null || filter.test(obj)) {
+                            objects.add(obj);
+                        }
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            // 把未完整的行移动到缓冲区开头
+            System.arraycopy(buf, lineStart, buf, 0, length - lineStart);
+            length -= lineStart;
+        }
+        return objects;
+    }
+
+    public void writeHeader(StringBuilder out) {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) out.append(',');
+            out.append(fields[i].getName());
+        }
+    }
+
+    public void writeRow(T obj, StringBuilder out) {
+        try {
+            for (int i = 0; i < writers.length; i++) {
+                if (i > 0) out.append(',');
+                writers[i].write(obj, out);
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    private static CellSetter setterFor(Field field, MethodHandle setter) {
+        Class<?> type = field.getType();
+        if (type == long.class) {
+            MethodHandle h = setter.asType(MethodType.methodType(void.class, Object.class, long.class));
+            return (obj, buf, from, to) -> { h.invokeExact(obj, parseLong(buf, from, to)); };
+        } else if (type == int.class) {
+            MethodHandle h = setter.asType(MethodType.methodType(void.class, Object.class, int.class));
+            return (obj, buf, from, to) -> { h.invokeExact(obj, parseInt(buf, from, to)); };
+        } else if (type == double.class) {
+            MethodHandle h = setter.asType(MethodType.methodType(void.class, Object.class, double.class));
+            return (obj, buf, from, to) -> { h.invokeExact(obj, Double.parseDouble(new String(buf, from, to - from))); };
+        } else if (type == boolean.class) {
+            MethodHandle h = setter.asType(MethodType.methodType(void.class, Object.class, boolean.class));
+            return (obj, buf, from, to) -> { h.invokeExact(obj, parseBoolean(buf, from, to)); };
+        }
+        MethodHandle h = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        if (type == String.class) {
+            return (obj, buf, from, to) -> { h.invokeExact(obj, (Object) new String(buf, from, to - from)); };
+        } else if (type == BigDecimal.class) {
+            return (obj, buf, from, to) -> { h.invokeExact(obj, (Object) (from == to ? null : new BigDecimal(buf, from, to - from))); };
+        } else if (type == OffsetDateTime.class) {
+            return (obj, buf, from, to) -> { h.invokeExact(obj, (Object) (from == to ? null : parseOffsetDateTime(buf, from, to))); };
+        } else if (type == Long.class) {
+            return (obj, buf, from, to) -> { h.invokeExact(obj, (Object) (from == to ? null : parseLong(buf, from, to))); };
+        } else if (type == Integer.class) {
+            return (obj, buf, from, to) -> { h.invokeExact(obj, (Object) (from == to ? null : parseInt(buf, from, to))); };
+        } else if (type == Double.class) {
+            return (obj, buf, from, to) -> { h.invokeExact(obj, (Object) (from == to ? null : Double.parseDouble(new String(buf, from, to - from)))); };
+        } else if (type == Boolean.class) {
+            return (obj, buf, from, to) -> { h.invokeExact(obj, (Object) (from == to ? null : parseBoolean(buf, from, to))); };
+        }
+        return (obj, buf, from, to) -> {
+            // 处理其他类型或抛出异常
+            throw new IllegalArgumentException("Unsupported field type: " + type);
+        };
+    }
+
+    private static CellWriter writerFor(Field field, MethodHandle getter) {
+        Class<?> type = field.getType();
+        if (type == long.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(long.class, Object.class));
+            return (obj, out) -> out.append((long) h.invokeExact(obj));
+        } else if (type == int.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(int.class, Object.class));
+            return (obj, out) -> out.append((int) h.invokeExact(obj));
+        }
+        MethodHandle h = getter.asType(MethodType.methodType(Object.class, Object.class));
+        return (obj, out) -> {
+            Object value = (Object) h.invokeExact(obj);
+            if (value != null) out.append(value);
+        };
+    }
+
+    /** 与Long.parseLong相同，溢出时抛出NumberFormatException */
+    static long parseLong(char[] buf, int from, int to) {
+        if (from == to) {
+            throw new NumberFormatException("Empty number");
+        }
+        boolean negative = buf[from] == '-';
+        int i = negative || buf[from] == '+' ? from + 1 : from;
+        if (i == to) {
+            throw numberFormat(buf, from, to);
+        }
+        // 与Long.parseLong一样按负数累加，才能表示Long.MIN_VALUE
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyMin = limit / 10;
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9 || value < multiplyMin) {
+                throw numberFormat(buf, from, to);
+            }
+            value *= 10;
+            if (value < limit + digit) {
+                throw numberFormat(buf, from, to);
+            }
+            value -= digit;
+        }
+        return negative ? value : -value;
+    }
+
+    /** 与Integer.parseInt相同，超出int范围时抛出NumberFormatException */
+    static int parseInt(char[] buf, int from, int to) {
+        long value = parseLong(buf, from, to);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw numberFormat(buf, from, to);
+        }
+        return (int) value;
+    }
+
+    private static NumberFormatException numberFormat(char[] buf, int from, int to) {
+        return new NumberFormatException("For input string: \"" + new String(buf, from, to - from) + "\"");
+    }
+
+    /**
+     * 快速解析形如 2023-12-04T14:30Z、2023-12-04T14:30:00+08:00 的时间，
+     * 其它格式交给OffsetDateTime.parse
+     */
+    static OffsetDateTime parseOffsetDateTime(char[] buf, int from, int to) {
+        int n = to - from;
+        if (n >= 17 && buf[from + 4] == '-' && buf[from + 7] == '-' && buf[from + 10] == 'T' && buf[from + 13] == ':') {
+            int i = from + 16;
+            int second = 0;
+            if (i < to && buf[i] == ':') {
+                // 秒不完整时second为-1，交给OffsetDateTime.parse报错
+                second = i + 3 <= to ? digits(buf, i + 1, 2) : -1;
+                i += 3;
+            }
+            ZoneOffset offset = null;
+            if (i < to && buf[i] == 'Z' && i + 1 == to) {
+                offset = ZoneOffset.UTC;
+            } else if (i + 6 == to && (buf[i] == '+' || buf[i] == '-') && buf[i + 3] == ':') {
+                int seconds = digits(buf, i + 1, 2) * 3600 + digits(buf, i + 4, 2) * 60;
+                offset = ZoneOffset.ofTotalSeconds(buf[i] == '-' ? -seconds : seconds);
+            }
+            int year = digits(buf, from, 4), month = digits(buf, from + 5, 2), day = digits(buf, from + 8, 2);
+            int hour = digits(buf, from + 11, 2), minute = digits(buf, from + 14, 2);
+            if (offset != null && year >= 0 && month >= 0 && day >= 0 && hour >= 0 && minute >= 0 && second >= 0) {
+                return OffsetDateTime.of(year, month, day, hour, minute, second, 0, offset);
+            }
+        }
+        return OffsetDateTime.parse(CharBuffer.wrap(buf, from, n));
+    }
+
+    /** 解析定长的十进制数字，含非数字字符时返回-1 */
+    private static int digits(char[] buf, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean parseBoolean(char[] buf, int from, int to) {
+        return to - from == 4 && (buf[from] | 0x20) == 't' && (buf[from + 1] | 0x20) == 'r'
+                && (buf[from + 2] | 0x20) == 'u' && (buf[from + 3] | 0x20) == 'e';
+    }
+}
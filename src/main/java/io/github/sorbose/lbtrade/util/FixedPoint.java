@@ -0,0 +1,70 @@
+package io.github.sorbose.lbtrade.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 定点数工具：价格以long保存，真实值为 unscaled / 10^scale。
+ * 舍入规则与BigDecimal的RoundingMode.HALF_UP一致，用于保证与BigDecimal计算结果完全相同
+ */
+public final class FixedPoint {
+    /** 默认价格精度，4位小数 */
+    public static final int DEFAULT_SCALE = 4;
+    /** 表示null的值 */
+    public static final long NULL = Long.MIN_VALUE;
+    private static final long[] POW10 = new long[19];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private FixedPoint() {
+    }
+
+    public static long pow10(int n) {
+        return POW10[n];
+    }
+
+    /** 按HALF_UP舍入到scale位小数后转成定点数，null转成NULL */
+    public static long toFixed(BigDecimal value, int scale) {
+        return value == null ? NULL : value.setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal fromFixed(long value, int scale) {
+        return value == NULL ? null : BigDecimal.valueOf(value, scale);
+    }
+
+    /** num/den，按HALF_UP舍入到整数 */
+    public static long divideHalfUp(long num, long den) {
+        long q = num / den;
+        long r = num % den;
+        if (r != 0 && 2 * Math.abs(r) >= Math.abs(den)) {
+            q += (num ^ den) < 0 ? -1 : 1;
+        }
+        return q;
+    }
+
+    /**
+     * 计算 (value / 10^scale) / divisor，按HALF_UP舍入到targetScale位小数，
+     * 等价于BigDecimal.divide(BigDecimal.valueOf(divisor), targetScale, RoundingMode.HALF_UP)
+     */
+    public static long divide(long value, int scale, long divisor, int targetScale) {
+        if (targetScale >= scale) {
+            return divideHalfUp(value * POW10[targetScale - scale], divisor);
+        }
+        return divideHalfUp(value, divisor * POW10[scale - targetScale]);
+    }
+
+    /** 比较两个不同精度的定点数，返回-1、0或1，与BigDecimal.compareTo一致 */
+    public static int compare(long a, int scaleA, long b, int scaleB) {
+        if (scaleA > scaleB) {
+            b *= POW10[scaleA - scaleB];
+        } else if (scaleB > scaleA) {
+            a *= POW10[scaleB - scaleA];
+        }
+        return Long.compare(a, b) < 0 ? -1 : (a == b ? 0 : 1);
+    }
+}
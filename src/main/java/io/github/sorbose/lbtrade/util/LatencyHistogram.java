@@ -0,0 +1,105 @@
+package io.github.sorbose.lbtrade.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的延迟直方图，按HdrHistogram的方式分桶：每个2的幂区间再等分为64个子桶，
+ * 相对误差不超过1/64（约1.6%）。record()只是一次数组下标计算和一次原子加，可以在任何线程上调用。
+ * 记录的单位是纳秒，最大约18分钟，更大的值计入最后一个桶
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    /** 能区分的最大值的最高位 */
+    private static final int MAX_MSB = 40;
+    private static final int BUCKETS = (MAX_MSB - SUB_BITS + 2) << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /** 值所在的桶 */
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) Math.max(0, value);
+        }
+        int msb = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_MSB);
+        int shift = msb - SUB_BITS;
+        long sub = Math.min((value >>> shift) - SUB_COUNT, SUB_COUNT - 1);
+        return ((shift + 1) << SUB_BITS) + (int) sub;
+    }
+
+    /** 桶中最大的值 */
+    static long highestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BITS) - 1;
+        long sub = index & (SUB_COUNT - 1);
+        return ((sub + SUB_COUNT + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        counts.incrementAndGet(index(nanos));
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+            // 重试
+        }
+    }
+
+    /** 记录从startNanos（System.nanoTime()）到现在的时间 */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 取出到目前为止的记录并清零，用于按周期统计。
+     * 各个桶分别清零，与之并发的记录计入这一次或下一次，不会丢失
+     */
+    public Snapshot snapshotAndReset() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                copy[i] = counts.getAndSet(i, 0);
+            }
+        }
+        return new Snapshot(copy, max.getAndSet(0));
+    }
+
+    /** 某一时刻的直方图，不可变 */
+    public static final class Snapshot {
+        private final long[] counts;
+        public final long count;
+        /** 纳秒 */
+        public final long max;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+            this.max = max;
+        }
+
+        /**
+         * 百分位数（纳秒），误差不超过1.6%，不会超过max。没有记录时为0
+         * @param percentile 0到100，如99.9
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package io.github.sorbose.lbtrade.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加的内存映射日志文件。每条记录带递增的序号、时间和类型，追加只是一次内存复制，
+ * 不调用fsync；后台线程定期把映射的页面刷到磁盘。进程崩溃时已写入的记录仍在页缓存中，不会丢失；
+ * 机器掉电时最多丢失最后一个刷盘周期内的记录。
+ * 记录的长度最后写入，并带有CRC，写了一半的记录在重放时被忽略。
+ * 文件写满时新记录暂存在内存中，由下一次压缩写入新文件；压缩在调用方线程上写新文件和刷盘，不阻塞追加。
+ * <p>
+ * 文件格式：头部[magic int][version int][第一条记录的序号 long]，
+ * 之后每条记录为[length int][crc int][seq long][time long][type byte][payload]，length为payload的字节数，
+ * length为0表示文件中的记录到此为止
+ */
+public class MappedJournal implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(MappedJournal.class);
+    public static final int MAGIC = 0x4C424A4E; // "LBJN"
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 8 + 1;
+
+    /** 一条记录 */
+    public static final class Record {
+        public final long seq;
+        public final long timeMillis;
+        public final byte type;
+        public final byte[] payload;
+
+        public Record(long seq, long timeMillis, byte type, byte[] payload) {
+            this.seq = seq;
+            this.timeMillis = timeMillis;
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    /** 压缩开始时的位置，之后追加的记录在替换文件时复制到新文件 */
+    public static final class Mark {
+        final int position;
+        final long seq;
+        final int overflow;
+
+        Mark(int position, long seq, int overflow) {
+            this.position = position;
+            this.seq = seq;
+            this.overflow = overflow;
+        }
+    }
+
+    private final Path path;
+    private final int capacity;
+    private FileChannel channel;
+    /** 只在持有本对象锁时修改，flush()不加锁读取 */
+    private volatile MappedByteBuffer buffer;
+    private long nextSeq;
+    /** 文件写满后追加的记录，已分配序号，等待压缩时写入新文件 */
+    private final List<Record> overflow = new ArrayList<>();
+    /** 有进行中的压缩 */
+    private boolean marked;
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * 打开或创建日志文件
+     * @param capacity 文件大小（字节），写满后需要compact()
+     * @param flushMillis 后台刷盘的间隔
+     */
+    public MappedJournal(String path, int capacity, long flushMillis) throws IOException {
+        this.path = Paths.get(path);
+        this.capacity = capacity;
+        if (this.path.getParent() != null) {
+            Files.createDirectories(this.path.getParent());
+        }
+        map(1);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "journal-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** 映射文件并定位到最后一条完整记录之后，新文件的第一条记录序号为firstSeq */
+    private void map(long firstSeq) throws IOException {
+        boolean exists = Files.exists(path) && Files.size(path) >= HEADER_SIZE;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, exists ? channel.size() : 0));
+        if (!exists) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, firstSeq);
+            buffer.position(HEADER_SIZE);
+            nextSeq = firstSeq;
+            return;
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a journal file: " + path);
+        }
+        nextSeq = buffer.getLong(8);
+        buffer.position(HEADER_SIZE);
+        // 找到最后一条完整记录之后的位置
+        while (readAt(buffer.position()) != null) {
+            nextSeq++;
+        }
+    }
+
+    /** 读取buffer.position()处的记录并移动到下一条，没有完整记录时返回null，位置不变 */
+    private Record readAt(int position) {
+        if (position + RECORD_HEADER_SIZE > buffer.limit()) {
+            return null;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.limit()) {
+            return null;
+        }
+        int crc = buffer.getInt(position + 4);
+        long seq = buffer.getLong(position + 8);
+        long time = buffer.getLong(position + 16);
+        byte type = buffer.get(position + 24);
+        byte[] payload = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + RECORD_HEADER_SIZE);
+        view.get(payload);
+        if (crc != crc(seq, time, type, payload)) {
+            return null;
+        }
+        buffer.position(position + RECORD_HEADER_SIZE + length);
+        return new Record(seq, time, type, payload);
+    }
+
+    private static int crc(long seq, long time, byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        ByteBuffer header = ByteBuffer.allocate(17);
+        header.putLong(seq).putLong(time).put(type);
+        crc.update(header.array());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 追加一条记录，不等待刷盘。文件剩余空间不足时暂存在内存中，下一次compact()时写入新文件
+     * @return 记录的序号
+     */
+    public synchronized long append(byte type, byte[] payload) {
+        long seq = nextSeq++;
+        long time = System.currentTimeMillis();
+        if (!overflow.isEmpty() || !fits(payload.length)) {
+            // 之后的记录也暂存，保持顺序
+            overflow.add(new Record(seq, time, type, payload));
+            return seq;
+        }
+        buffer.position(write(buffer, buffer.position(), seq, time, type, payload));
+        return seq;
+    }
+
+    /** 在position处写入一条记录，返回下一条记录的位置 */
+    private static int write(MappedByteBuffer map, int position, long seq, long time, byte type, byte[] payload) {
+        map.putInt(position + 4, crc(seq, time, type, payload));
+        map.putLong(position + 8, seq);
+        map.putLong(position + 16, time);
+        map.put(position + 24, type);
+        ByteBuffer view = map.duplicate();
+        view.position(position + RECORD_HEADER_SIZE);
+        view.put(payload);
+        // 长度最后写入，之前的内容都写完后记录才算完整
+        map.putInt(position, payload.length);
+        return position + RECORD_HEADER_SIZE + payload.length;
+    }
+
+    /** 剩余空间是否足够追加一条payloadLength字节的记录，并保留一个结束标记 */
+    public synchronized boolean fits(int payloadLength) {
+        return buffer.position() + RECORD_HEADER_SIZE + payloadLength + 4 <= buffer.limit();
+    }
+
+    /** 已使用的比例，有暂存在内存中的记录时为1 */
+    public synchronized double usage() {
+        return overflow.isEmpty() ? (double) buffer.position() / buffer.limit() : 1;
+    }
+
+    public synchronized long nextSeq() {
+        return nextSeq;
+    }
+
+    /** 按顺序重放文件中的所有完整记录 */
+    public synchronized void replay(Consumer<Record> consumer) {
+        int end = buffer.position();
+        buffer.position(HEADER_SIZE);
+        Record record;
+        while (buffer.position() < end && (record = readAt(buffer.position())) != null) {
+            consumer.accept(record);
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * 开始压缩：记录当前位置。调用方应在同一个锁内取得与此刻一致的状态快照，交给compact(mark, snapshot)；
+     * 同一时间只能有一次压缩
+     */
+    public synchronized Mark mark() {
+        if (marked) {
+            throw new IllegalStateException("Compaction already in progress: " + path);
+        }
+        marked = true;
+        return new Mark(buffer.position(), nextSeq, overflow.size());
+    }
+
+    /**
+     * 压缩：用snapshot中的记录（通常是重建mark时状态所需的最少记录）替换整个文件，mark之后追加的记录接在后面。
+     * 先在调用方线程上写入临时文件并刷盘，期间追加照常写入原文件；
+     * 最后持锁把mark之后的记录复制过去，再原子地替换原文件，中途失败或崩溃时原文件不受影响。
+     * snapshot的序号排在mark之前，之后的记录保持原来的序号
+     */
+    public void compact(Mark mark, List<Record> snapshot) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        FileChannel out = null;
+        try {
+            Files.deleteIfExists(tmp);
+            out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer map = out.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            long seq = mark.seq - snapshot.size();
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putLong(8, seq);
+            int position = HEADER_SIZE;
+            for (Record record : snapshot) {
+                if (position + RECORD_HEADER_SIZE + record.payload.length + 4 > capacity) {
+                    throw new IOException("Snapshot does not fit in journal capacity " + capacity);
+                }
+                position = write(map, position, seq++, record.timeMillis, record.type, record.payload);
+            }
+            map.force();
+            synchronized (this) {
+                // 压缩期间追加的记录，已经编码好，直接复制
+                int tail = buffer.position() - mark.position;
+                List<Record> pending = overflow.subList(mark.overflow, overflow.size());
+                int required = position + tail + 4;
+                for (Record record : pending) {
+                    required += RECORD_HEADER_SIZE + record.payload.length;
+                }
+                if (required > capacity) {
+                    throw new IOException("Compacted journal does not fit in capacity " + capacity);
+                }
+                ByteBuffer source = buffer.duplicate();
+                source.limit(buffer.position()).position(mark.position);
+                ByteBuffer target = map.duplicate();
+                target.position(position);
+                target.put(source);
+                position += tail;
+                for (Record record : pending) {
+                    position = write(map, position, record.seq, record.timeMillis, record.type, record.payload);
+                }
+                map.position(position);
+                channel.close();
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel = out;
+                buffer = map;
+                overflow.clear();
+                marked = false;
+            }
+            logger.info("Journal {} compacted to {} records", path, snapshot.size());
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                marked = false;
+            }
+            if (out != null) {
+                out.close();
+            }
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    /** 把映射的页面刷到磁盘，由后台线程定期调用。不加锁，刷盘期间追加不会被阻塞 */
+    public void flush() {
+        try {
+            buffer.force();
+        } catch (Exception e) {
+            logger.error("Failed to flush journal {}: {}", path, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flusher.shutdown();
+        if (!overflow.isEmpty()) {
+            logger.warn("Journal {} closed with {} records that did not fit", path, overflow.size());
+        }
+        buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,208 @@
+package io.github.sorbose.lbtrade.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/**
+ * 并行CSV读取：把文件映射到内存后按行边界切成若干字节区间，在fork-join线程池上并行解析，
+ * 结果按文件中的顺序拼接。对时间升序的文件，可以先二分定位到时间范围的第一行，超过结束时间后不再解析
+ */
+public class ParallelCsvReader {
+    public static final Logger logger = LogManager.getLogger(ParallelCsvReader.class);
+    /** 每个并行任务最多解析的字节数 */
+    public static final int CHUNK_SIZE = 1 << 22;
+
+    /**
+     * 并行读取整个CSV文件
+     * @param filter 过滤器，可以为null
+     */
+    public static <T> List<T> read(Class<T> clazz, String inPath, Predicate<T> filter) {
+        return read(clazz, inPath, null, null, null, filter);
+    }
+
+    /**
+     * 并行读取时间升序CSV中timeColumn位于[begin, end)之间的行，只解析该范围内的字节，
+     * 比较时使用时间列自身的本地时间（toLocalDateTime）
+     * @param timeColumn 已排序的时间列名
+     * @param begin 开始时间（包含），为null表示从头开始
+     * @param end 结束时间（不包含），为null表示读到文件末尾
+     * @param filter 对范围内的对象再做一次过滤，可以为null
+     */
+    public static <T> List<T> read(Class<T> clazz, String inPath, String timeColumn,
+                                   LocalDateTime begin, LocalDateTime end, Predicate<T> filter) {
+        try (FileChannel channel = FileChannel.open(Paths.get(inPath), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                // 超过单个映射的上限，退回顺序读取
+                return CSVDeserializer.readObjectsFromCsv(clazz, inPath, filter);
+            }
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int size = bytes.limit();
+            int headerEnd = nextLine(bytes, 0, size);
+            if (headerEnd == 0) {
+                logger.warn("CSV file is empty.");
+                return new ArrayList<>();
+            }
+            String header = new String(decode(bytes, 0, headerEnd), 0, lineEnd(bytes, 0, headerEnd));
+            CsvCodec.Binding<T> binding = CsvCodec.of(clazz).bind(header);
+
+            int from = headerEnd, to = size;
+            if (timeColumn != null) {
+                int column = columnIndex(header, timeColumn);
+                if (column < 0) {
+                    throw new IllegalArgumentException("No column " + timeColumn + " in " + inPath);
+                }
+                if (begin != null) from = seek(bytes, headerEnd, size, column, begin);
+                if (end != null) to = seek(bytes, from, size, column, end);
+            }
+            List<T> objects = ForkJoinPool.commonPool().invoke(new ChunkTask<>(bytes, binding, filter, from, to));
+            logger.info("Data read from CSV file: {}", inPath);
+            return objects;
+        } catch (IOException e) {
+            logger.error("Error reading from CSV file: {}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class ChunkTask<T> extends RecursiveTask<List<T>> {
+        private final MappedByteBuffer bytes;
+        private final CsvCodec.Binding<T> binding;
+        private final Predicate<T> filter;
+        private final int from;
+        private final int to;
+
+        ChunkTask(MappedByteBuffer bytes, CsvCodec.Binding<T> binding, Predicate<T> filter, int from, int to) {
+            this.bytes = bytes;
+            this.binding = binding;
+            this.filter = filter;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<T> compute() {
+            if (to - from > CHUNK_SIZE) {
+                // 从中点对齐到下一行的开头再拆分
+                int mid = nextLine(bytes, from + (to - from) / 2, to);
+                if (mid < to) {
+                    ChunkTask<T> left = new ChunkTask<>(bytes, binding, filter, from, mid);
+                    ChunkTask<T> right = new ChunkTask<>(bytes, binding, filter, mid, to);
+                    left.fork();
+                    List<T> tail = right.compute();
+                    List<T> head = left.join();
+                    head.addAll(tail);
+                    return head;
+                }
+            }
+            return parse();
+        }
+
+        private List<T> parse() {
+            char[] buf = decode(bytes, from, to);
+            List<T> objects = new ArrayList<>(buf.length / 64);
+            int lineStart = 0;
+            while (lineStart < buf.length) {
+                int lineEnd = lineStart;
+                while (lineEnd < buf.length && buf[lineEnd] != '\n') lineEnd++;
+                int next = lineEnd + 1;
+                if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') lineEnd--;
+                if (lineEnd > lineStart) {
+                    T obj = binding.parseLine(buf, lineStart, lineEnd);
+                    if (filter == null || filter.test(obj)) {
+                        objects.add(obj);
+                    }
+                }
+                lineStart = next;
+            }
+            return objects;
+        }
+    }
+
+    /**
+     * 在[from, to)内二分查找第一行时间不早于target的行首位置，没有这样的行时返回to
+     */
+    private static int seek(MappedByteBuffer bytes, int from, int to, int column, LocalDateTime target) {
+        int lo = from, hi = to;
+        // 不变式：lo是行首，lo之前的行都早于target；hi之后（含）的行都不早于target
+        while (lo < hi) {
+            int mid = nextLine(bytes, lo + (hi - lo) / 2, hi);
+            if (mid >= hi) {
+                // 二分区间内只剩一行，从lo开始逐行检查
+                while (lo < hi && timeAt(bytes, lo, hi, column).isBefore(target)) {
+                    lo = nextLine(bytes, lo, hi);
+                }
+                return lo;
+            }
+            if (timeAt(bytes, mid, hi, column).isBefore(target)) {
+                lo = nextLine(bytes, mid, hi);
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static LocalDateTime timeAt(MappedByteBuffer bytes, int lineStart, int limit, int column) {
+        int lineEnd = lineStart;
+        while (lineEnd < limit && bytes.get(lineEnd) != '\n') lineEnd++;
+        char[] line = decode(bytes, lineStart, lineEnd);
+        int cell = 0, cellStart = 0;
+        for (int i = 0; i <= line.length; i++) {
+            if (i == line.length || line[i] == ',') {
+                if (cell == column) {
+                    int s = cellStart, e = i;
+                    while (s < e && line[s] <= ' ') s++;
+                    while (e > s && line[e - 1] <= ' ') e--;
+                    return CsvCodec.parseOffsetDateTime(line, s, e).toLocalDateTime();
+                }
+                cell++;
+                cellStart = i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Missing time column in line: " + new String(line));
+    }
+
+    private static int columnIndex(String header, String name) {
+        String[] headers = header.split(",");
+        for (int i = 0; i < headers.length; i++) {
+            if (headers[i].trim().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** pos所在行的下一行行首，pos恰好是行首时也返回下一行 */
+    private static int nextLine(MappedByteBuffer bytes, int pos, int limit) {
+        while (pos < limit && bytes.get(pos) != '\n') pos++;
+        return Math.min(pos + 1, limit);
+    }
+
+    private static int lineEnd(MappedByteBuffer bytes, int from, int to) {
+        int end = to;
+        while (end > from && (bytes.get(end - 1) == '\n' || bytes.get(end - 1) == '\r')) end--;
+        return end - from;
+    }
+
+    /** CSV中只有ASCII字符，逐字节转换即可 */
+    private static char[] decode(MappedByteBuffer bytes, int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = from; i < to; i++) {
+            chars[i - from] = (char) (bytes.get(i) & 0xFF);
+        }
+        return chars;
+    }
+}
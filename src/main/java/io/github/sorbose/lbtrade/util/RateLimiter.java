@@ -0,0 +1,12 @@
+package io.github.sorbose.lbtrade.util;
+
+/**
+ * 非阻塞的限流器：取不到许可时返回需要等待的时间，由调用方自己安排重试
+ */
+public interface RateLimiter {
+    /**
+     * 尝试取一个许可
+     * @return 取到时为0，否则为至少还需要等待的纳秒数
+     */
+    long tryAcquire();
+}
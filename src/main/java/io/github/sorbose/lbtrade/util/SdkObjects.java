@@ -0,0 +1,78 @@
+package io.github.sorbose.lbtrade.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 通过反射创建和读取SDK中只有getter的对象（如Order、PushOrderChanged），字段名与getter对应，
+ * 如getExecutedQuantity()对应executedQuantity。用于离线模拟交易所返回的订单、推送等低频对象。
+ * 每个类的构造器和字段只查找一次，每次设置字段仍是反射调用，逐行创建的Candlestick使用Candlesticks
+ */
+public final class SdkObjects {
+    private static final ClassValue<Map<String, Field>> FIELDS = new ClassValue<Map<String, Field>>() {
+        @Override
+        protected Map<String, Field> computeValue(Class<?> type) {
+            Map<String, Field> fields = new HashMap<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    field.setAccessible(true);
+                    fields.putIfAbsent(field.getName(), field);
+                }
+            }
+            return fields;
+        }
+    };
+    private static final ClassValue<Constructor<?>> CONSTRUCTORS = new ClassValue<Constructor<?>>() {
+        @Override
+        protected Constructor<?> computeValue(Class<?> type) {
+            try {
+                Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                return constructor;
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("No default constructor: " + type, e);
+            }
+        }
+    };
+
+    private SdkObjects() {
+    }
+
+    /**
+     * 创建对象并设置字段
+     * @param namesAndValues 依次为字段名和值，值为null的字段保持默认
+     */
+    public static <T> T create(Class<T> type, Object... namesAndValues) {
+        try {
+            T object = type.cast(CONSTRUCTORS.get(type).newInstance());
+            for (int i = 0; i < namesAndValues.length; i += 2) {
+                if (namesAndValues[i + 1] != null) {
+                    field(type, (String) namesAndValues[i]).set(object, namesAndValues[i + 1]);
+                }
+            }
+            return object;
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Failed to create " + type.getName(), e);
+        }
+    }
+
+    /** 读取字段，如SubmitOrderOptions中的symbol */
+    @SuppressWarnings("unchecked")
+    public static <V> V get(Object object, String name) {
+        try {
+            return (V) field(object.getClass(), name).get(object);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to read " + object.getClass().getName() + "." + name, e);
+        }
+    }
+
+    private static Field field(Class<?> type, String name) {
+        Field field = FIELDS.get(type).get(name);
+        if (field == null) {
+            throw new IllegalArgumentException("No field " + name + " in " + type.getName());
+        }
+        return field;
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.sorbose.lbtrade.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按key分片的执行器：包含N个单线程事件循环，同一个key的任务总是在同一个线程上按提交顺序执行。
+ * 因此只属于某个key的状态不需要加锁，不同分片上的key可以在多个核上并行处理
+ */
+public class ShardedExecutor {
+    private final ExecutorService[] shards;
+
+    /**
+     * @param shardCount 分片（线程）数量
+     * @param name 线程名前缀，线程名为name-分片号
+     */
+    public ShardedExecutor(int shardCount, String name) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        shards = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String threadName = name + "-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** 分片数为min(keyCount, CPU核数)，至少为1 */
+    public static ShardedExecutor forKeys(int keyCount, String name) {
+        return new ShardedExecutor(Math.max(1, Math.min(keyCount, Runtime.getRuntime().availableProcessors())), name);
+    }
+
+    public int size() {
+        return shards.length;
+    }
+
+    public int shardOf(Object key) {
+        int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    public void execute(Object key, Runnable task) {
+        shards[shardOf(key)].execute(task);
+    }
+
+    /** key所在分片的线程，可以传给thenApplyAsync等方法，让回调回到这个key的事件循环上 */
+    public Executor executorFor(Object key) {
+        return shards[shardOf(key)];
+    }
+
+    public CompletableFuture<Void> run(Object key, Runnable task) {
+        return CompletableFuture.runAsync(task, shards[shardOf(key)]);
+    }
+
+    public void shutdown() {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService shard : shards) {
+            if (!shard.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.sorbose.lbtrade.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 相同请求的合并：同一个key的请求在进行中时，后来的调用方共享它的结果，不再发出新请求；
+ * 请求完成后key被移除，下一次调用重新请求。
+ * key需要能区分请求类型（如"positions:TSLA.US"），同一个key的结果类型必须相同
+ */
+public class SingleFlight {
+    private final ConcurrentHashMap<Object, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param call 没有进行中的同key请求时调用，发出请求
+     * @return 请求结果。每个调用方拿到的是独立的future，完成或取消它不影响其他调用方
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> run(Object key, Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> created = new CompletableFuture<>();
+        CompletableFuture<T> shared = (CompletableFuture<T>) inFlight.putIfAbsent(key, created);
+        if (shared != null) {
+            coalesced.increment();
+            return shared.thenApply(value -> value);
+        }
+        try {
+            call.get().whenComplete((value, error) -> {
+                inFlight.remove(key, created);
+                if (error != null) {
+                    created.completeExceptionally(error);
+                } else {
+                    created.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created.thenApply(value -> value);
+    }
+
+    /** 进行中的请求数 */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    /** 被合并（没有实际发出）的请求总数 */
+    public long coalescedCount() {
+        return coalesced.sum();
+    }
+}
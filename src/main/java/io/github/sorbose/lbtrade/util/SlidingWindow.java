@@ -0,0 +1,67 @@
+package io.github.sorbose.lbtrade.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 滑动窗口限流：任意长度为window的时间段内最多limit个请求。
+ * 与令牌桶不同，满额的突发之后不会再叠加窗口内补充的令牌，
+ * 所以能严格对应服务端“N秒内最多M次”的限制，同时持续速率仍能达到上限。
+ * 记录最近limit次请求的时间，第limit次之前的那次请求超出窗口后才允许下一次
+ */
+public class SlidingWindow implements RateLimiter {
+    private final long windowNanos;
+    private final long minIntervalNanos;
+    /** 最近limit次请求的时间（System.nanoTime()），环形使用，head处最早 */
+    private final long[] times;
+    private int head;
+    private long lastAcquire;
+
+    /**
+     * @param limit 窗口内最多的请求数
+     * @param window 窗口长度
+     * @param minInterval 两次请求之间的最小间隔，不限制时为0
+     */
+    public SlidingWindow(int limit, long window, TimeUnit windowUnit, long minInterval, TimeUnit intervalUnit) {
+        if (limit <= 0 || window <= 0) {
+            throw new IllegalArgumentException("limit and window must be positive");
+        }
+        this.windowNanos = windowUnit.toNanos(window);
+        this.minIntervalNanos = intervalUnit.toNanos(minInterval);
+        this.times = new long[limit];
+        long now = System.nanoTime();
+        for (int i = 0; i < limit; i++) {
+            times[i] = now - windowNanos;
+        }
+        this.lastAcquire = now - minIntervalNanos;
+    }
+
+    public SlidingWindow(int limit, long window, TimeUnit windowUnit) {
+        this(limit, window, windowUnit, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        long windowWait = times[head] + windowNanos - now;
+        long intervalWait = lastAcquire + minIntervalNanos - now;
+        if (windowWait <= 0 && intervalWait <= 0) {
+            times[head] = now;
+            head = head + 1 == times.length ? 0 : head + 1;
+            lastAcquire = now;
+            return 0;
+        }
+        return Math.max(1, Math.max(windowWait, intervalWait));
+    }
+
+    /** 当前窗口内还能发出的请求数 */
+    public synchronized int available() {
+        long now = System.nanoTime();
+        int count = 0;
+        for (long time : times) {
+            if (now - time >= windowNanos) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,216 @@
+package io.github.sorbose.lbtrade.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 哈希时间轮：大量到期时间粗粒度的定时任务（如挂单超时撤单）共用一个线程。
+ * 每个tick检查一个槽位，添加和取消都是O(1)，不会因为任务数量变多而变慢。
+ * 到期时间精度为一个tick，到期的元素交给expiry回调，回调在时间轮线程上执行，应尽快返回
+ */
+public class TimingWheel<T> {
+    private static final Logger logger = LogManager.getLogger(TimingWheel.class);
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final long tickNanos;
+    private final Bucket<T>[] wheel;
+    private final int mask;
+    private final Consumer<T> expiry;
+    /** 新添加的任务先放进队列，由时间轮线程放入槽位，槽位只被时间轮线程访问 */
+    private final Queue<Timeout<T>> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout<T>> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startNanos;
+    private volatile boolean stopped;
+    private long tick;
+
+    /** schedule()返回的句柄，用于取消 */
+    public static final class Timeout<T> {
+        private final TimingWheel<T> wheel;
+        private final T item;
+        private final long deadlineTick;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long remainingRounds;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+        private Bucket<T> bucket;
+
+        private Timeout(TimingWheel<T> wheel, T item, long deadlineTick) {
+            this.wheel = wheel;
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T item() {
+            return item;
+        }
+
+        /** 取消尚未到期的任务，返回是否取消成功，已经到期或取消过时返回false */
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+
+    /** 槽位中的双向链表 */
+    private static final class Bucket<T> {
+        Timeout<T> head;
+        Timeout<T> tail;
+
+        void add(Timeout<T> timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        Timeout<T> remove(Timeout<T> timeout) {
+            Timeout<T> next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+    }
+
+    /**
+     * @param tick 每个槽位的时长，即到期时间的精度
+     * @param wheelSize 槽位数，取大于等于它的2的幂；一圈的时长内到期的任务不需要跨圈计数
+     * @param name 时间轮线程名
+     * @param expiry 到期回调
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tick, TimeUnit unit, int wheelSize, String name, Consumer<T> expiry) {
+        if (tick <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tick and wheelSize must be positive");
+        }
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        size = Math.max(size, 1);
+        this.tickNanos = unit.toNanos(tick);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket<>();
+        }
+        this.mask = size - 1;
+        this.expiry = expiry;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** delay之后把item交给expiry回调，除非在此之前取消 */
+    public Timeout<T> schedule(T item, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("TimingWheel stopped");
+        }
+        long deadline = System.nanoTime() - startNanos + unit.toNanos(delay);
+        // 向上取整，保证不会提前到期
+        Timeout<T> timeout = new Timeout<>(this, item, (deadline + tickNanos - 1) / tickNanos);
+        added.add(timeout);
+        return timeout;
+    }
+
+    /** 停止时间轮线程，未到期的任务不再执行 */
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            tick++;
+            removeCancelled();
+            transferAdded();
+            expire(wheel[(int) (tick & mask)]);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout<T> timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferAdded() {
+        Timeout<T> timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            // 已经过期的放到当前槽位，本tick内处理
+            long deadlineTick = Math.max(timeout.deadlineTick, tick);
+            timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+            wheel[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Bucket<T> bucket) {
+        Timeout<T> timeout = bucket.head;
+        while (timeout != null) {
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                timeout = timeout.next;
+                continue;
+            }
+            Timeout<T> next = bucket.remove(timeout);
+            if (timeout.state.compareAndSet(PENDING, EXPIRED)) {
+                try {
+                    expiry.accept(timeout.item);
+                } catch (Exception e) {
+                    logger.error("Error handling expiry of {}: {}", timeout.item, e.getMessage());
+                }
+            }
+            timeout = next;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.sorbose.lbtrade.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶限流：以固定速率补充令牌，最多积攒capacity个，每个请求消耗一个。
+ * 不阻塞调用方，取不到令牌时返回需要等待的时间，由调用方自己安排重试。
+ * 任意长度为T的时间段内最多放行capacity + permitsPerSecond * T个请求，对应服务端“N秒内最多M次”的限制时用SlidingWindow
+ */
+public class TokenBucket implements RateLimiter {
+    private final double capacity;
+    private final double tokensPerNano;
+    private final long minIntervalNanos;
+    private double tokens;
+    private long lastRefill;
+    private long lastAcquire;
+
+    /**
+     * @param capacity 最多积攒的令牌数，即允许的突发请求数
+     * @param permitsPerSecond 每秒补充的令牌数
+     * @param minInterval 两次请求之间的最小间隔，不限制时为0
+     */
+    public TokenBucket(int capacity, double permitsPerSecond, long minInterval, TimeUnit unit) {
+        if (capacity <= 0 || permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("capacity and permitsPerSecond must be positive");
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.minIntervalNanos = unit.toNanos(minInterval);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+        this.lastAcquire = lastRefill - minIntervalNanos;
+    }
+
+    public TokenBucket(int capacity, double permitsPerSecond) {
+        this(capacity, permitsPerSecond, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 尝试取一个令牌
+     * @return 取到时为0，否则为至少还需要等待的纳秒数
+     */
+    @Override
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        long intervalWait = lastAcquire + minIntervalNanos - now;
+        if (tokens >= 1 && intervalWait <= 0) {
+            tokens -= 1;
+            lastAcquire = now;
+            return 0;
+        }
+        long tokenWait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        return Math.max(1, Math.max(tokenWait, intervalWait));
+    }
+
+    /** 当前可用的令牌数（向下取整） */
+    public synchronized int available() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        return (int) tokens;
+    }
+}